@@ -0,0 +1,40 @@
+package io.github.rewind;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.Bootstrap;
+
+/**
+ * Headless Minecraft bootstrap for benchmarks.
+ * Initializes the vanilla registries (blocks, block state ids) without a server or Fabric loader,
+ * so the core data structures can be exercised directly. Mixins are not applied.
+ */
+public final class BenchmarkBootstrap {
+    private static boolean initialized = false;
+
+    private BenchmarkBootstrap() {}
+
+    public static synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+        initialized = true;
+    }
+
+    /**
+     * A small palette of block states for synthetic changes.
+     */
+    public static BlockState[] palette() {
+        return new BlockState[] {
+                Blocks.AIR.getDefaultState(),
+                Blocks.STONE.getDefaultState(),
+                Blocks.DIRT.getDefaultState(),
+                Blocks.OAK_PLANKS.getDefaultState(),
+                Blocks.TNT.getDefaultState(),
+                Blocks.WATER.getDefaultState()
+        };
+    }
+}
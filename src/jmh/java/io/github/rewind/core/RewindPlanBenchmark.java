@@ -0,0 +1,89 @@
+package io.github.rewind.core;
+
+import io.github.rewind.BenchmarkBootstrap;
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.TickFrame;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewind plan construction over a synthetic 30 s window of 1k to 10M block deltas.
+ * Compares the maintained window index (full and half window) against indexing every frame
+ * from scratch, which is what a plan cost before the index existed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6G")
+public class RewindPlanBenchmark {
+    private static final int WINDOW_TICKS = RewindConfig.MAX_FRAMES;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int totalDeltas;
+
+    private DimensionTimeline timeline;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkBootstrap.init();
+        BlockState[] palette = BenchmarkBootstrap.palette();
+        SplittableRandom random = new SplittableRandom(42);
+        timeline = new DimensionTimeline(World.OVERWORLD, RewindConfig.MAX_FRAMES, Long.MAX_VALUE);
+
+        int perFrame = Math.max(1, totalDeltas / WINDOW_TICKS);
+        for (now = 0; now < WINDOW_TICKS; now++) {
+            TickFrame frame = timeline.frameForRecording(now);
+            for (int i = 0; i < perFrame; i++) {
+                long pos = BlockPos.asLong(random.nextInt(-256, 256), random.nextInt(-64, 192), random.nextInt(-256, 256));
+                frame.addBlockChange(pos,
+                        palette[random.nextInt(palette.length)], palette[random.nextInt(palette.length)], null, null);
+            }
+            timeline.endTick(now, WINDOW_TICKS);
+        }
+    }
+
+    @Benchmark
+    public RewindPlan fullWindowPlan() {
+        PlanBuilder plan = new PlanBuilder();
+        timeline.exportPlan(now - WINDOW_TICKS, plan);
+        return plan.build();
+    }
+
+    @Benchmark
+    public RewindPlan halfWindowPlan() {
+        PlanBuilder plan = new PlanBuilder();
+        timeline.exportPlan(now - WINDOW_TICKS / 2, plan);
+        return plan.build();
+    }
+
+    /**
+     * Reference: index every delta in the window from scratch, as a plan without the maintained index would.
+     */
+    @Benchmark
+    public RewindPlan fullWindowFromFrames() {
+        WindowIndex index = new WindowIndex();
+        timeline.forEachFrame(index::addFrame);
+        PlanBuilder plan = new PlanBuilder();
+        index.exportTo(World.OVERWORLD, plan);
+        return plan.build();
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.rewind.core;
+
+import io.github.rewind.BenchmarkBootstrap;
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.TickFrame;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-tick cost of a full timeline: record a frame, commit it, evict the frame that left the
+ * window, compact aging frames and maintain the window index (DimensionTimeline.endTick).
+ * The ring is pre-filled so every measured tick runs in steady state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2G")
+public class TimelineBenchmark {
+    private static final int WINDOW_TICKS = RewindConfig.MAX_FRAMES;
+
+    @Param({"100", "1000"})
+    public int changesPerFrame;
+
+    private DimensionTimeline timeline;
+    private SplittableRandom random;
+    private BlockState[] palette;
+    private long gameTime;
+
+    @Setup
+    public void setup() {
+        BenchmarkBootstrap.init();
+        palette = BenchmarkBootstrap.palette();
+        random = new SplittableRandom(42);
+        timeline = new DimensionTimeline(World.OVERWORLD, RewindConfig.MAX_FRAMES, Long.MAX_VALUE);
+        for (gameTime = 0; gameTime < WINDOW_TICKS; gameTime++) {
+            recordTick();
+        }
+    }
+
+    private void recordTick() {
+        TickFrame frame = timeline.frameForRecording(gameTime);
+        for (int i = 0; i < changesPerFrame; i++) {
+            long pos = BlockPos.asLong(random.nextInt(-128, 128), random.nextInt(-64, 128), random.nextInt(-128, 128));
+            frame.addBlockChange(pos,
+                    palette[random.nextInt(palette.length)], palette[random.nextInt(palette.length)], null, null);
+        }
+        timeline.endTick(gameTime, WINDOW_TICKS);
+    }
+
+    @Benchmark
+    public int recordCommitAndEvict() {
+        recordTick();
+        gameTime++;
+        return timeline.getFrameCount();
+    }
+}
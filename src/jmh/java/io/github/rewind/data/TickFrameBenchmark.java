@@ -0,0 +1,137 @@
+package io.github.rewind.data;
+
+import io.github.rewind.BenchmarkBootstrap;
+import io.github.rewind.config.RewindConfig;
+import net.minecraft.block.BlockState;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording hot path: filling and sealing one TickFrame, and the memory estimates it maintains.
+ * About a quarter of the changes hit an already recorded position, so coalescing is exercised.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TickFrameBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int changesPerFrame;
+
+    private long[] positions;
+    private BlockState[] oldStates;
+    private BlockState[] newStates;
+    private List<BlockDelta> deltas;
+    private NbtCompound blockEntityNbt;
+    private List<EntityDelta> entityDeltas;
+    private List<BlockEntityDelta> blockEntityDeltas;
+
+    @Setup
+    public void setup() {
+        BenchmarkBootstrap.init();
+        BlockState[] palette = BenchmarkBootstrap.palette();
+        SplittableRandom random = new SplittableRandom(42);
+
+        int distinct = Math.max(1, changesPerFrame * 3 / 4);
+        long[] distinctPositions = new long[distinct];
+        for (int i = 0; i < distinct; i++) {
+            distinctPositions[i] = BlockPos.asLong(random.nextInt(-64, 64), random.nextInt(-64, 128), random.nextInt(-64, 64));
+        }
+
+        positions = new long[changesPerFrame];
+        oldStates = new BlockState[changesPerFrame];
+        newStates = new BlockState[changesPerFrame];
+        deltas = new ArrayList<>(changesPerFrame);
+        for (int i = 0; i < changesPerFrame; i++) {
+            positions[i] = distinctPositions[random.nextInt(distinct)];
+            oldStates[i] = palette[random.nextInt(palette.length)];
+            newStates[i] = palette[random.nextInt(palette.length)];
+            deltas.add(new BlockDelta(World.OVERWORLD, positions[i], oldStates[i], newStates[i], null, null));
+        }
+
+        blockEntityNbt = new NbtCompound();
+        blockEntityNbt.putString("id", "minecraft:chest");
+        blockEntityNbt.putInt("x", 0);
+        blockEntityNbt.putInt("y", 64);
+        blockEntityNbt.putInt("z", 0);
+
+        entityDeltas = new ArrayList<>(changesPerFrame);
+        blockEntityDeltas = new ArrayList<>(changesPerFrame);
+        for (int i = 0; i < changesPerFrame; i++) {
+            NbtCompound state = new NbtCompound();
+            state.putDouble("X", random.nextDouble());
+            state.putDouble("Y", random.nextDouble());
+            state.putDouble("Z", random.nextDouble());
+            state.putFloat("Health", 20.0f);
+            entityDeltas.add(EntityDelta.update(World.OVERWORLD, i, state, state));
+            blockEntityDeltas.add(BlockEntityDelta.create(World.OVERWORLD, BlockPos.fromLong(positions[i]),
+                    Identifier.of("minecraft", "chest"), blockEntityNbt, blockEntityNbt));
+        }
+    }
+
+    @Benchmark
+    public TickFrame addBlockChangeAndSeal() {
+        TickFrame frame = new TickFrame(World.OVERWORLD, 0, new NbtStore(RewindConfig.BLOCK_ENTITY_NBT_DEFLATE_MIN_BYTES));
+        for (int i = 0; i < changesPerFrame; i++) {
+            frame.addBlockChange(positions[i], oldStates[i], newStates[i], null, null);
+        }
+        frame.seal();
+        return frame;
+    }
+
+    @Benchmark
+    public TickFrame addBlockDeltaAndSeal() {
+        TickFrame frame = new TickFrame(World.OVERWORLD, 0, new NbtStore(RewindConfig.BLOCK_ENTITY_NBT_DEFLATE_MIN_BYTES));
+        for (BlockDelta delta : deltas) {
+            frame.addBlockDelta(delta);
+        }
+        frame.seal();
+        return frame;
+    }
+
+    /**
+     * Every eighth change carries the same block entity NBT, so encoding and interning (hash, then equals on a hit) run on the hot path.
+     */
+    @Benchmark
+    public int addBlockChangeWithBlockEntities() {
+        TickFrame frame = new TickFrame(World.OVERWORLD, 0, new NbtStore(RewindConfig.BLOCK_ENTITY_NBT_DEFLATE_MIN_BYTES));
+        for (int i = 0; i < changesPerFrame; i++) {
+            NbtCompound nbt = (i & 7) == 0 ? blockEntityNbt : null;
+            frame.addBlockChange(positions[i], oldStates[i], newStates[i], nbt, nbt);
+        }
+        frame.seal();
+        return frame.getEstimatedMemoryBytes();
+    }
+
+    @Benchmark
+    public int estimateDeltaMemory() {
+        int total = 0;
+        for (EntityDelta delta : entityDeltas) {
+            total += delta.estimateMemoryBytes();
+        }
+        for (BlockEntityDelta delta : blockEntityDeltas) {
+            total += delta.estimateMemoryBytes();
+        }
+        return total;
+    }
+}
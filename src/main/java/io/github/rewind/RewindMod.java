@@ -1,12 +1,14 @@
 package io.github.rewind;
 
 import io.github.rewind.command.TimelineCommand;
+import io.github.rewind.core.RewindExecutor;
 import io.github.rewind.core.TickRecorder;
 import io.github.rewind.core.TimelineManager;
 import io.github.rewind.network.PreviewPayload;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerBlockEntityEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
@@ -25,6 +27,9 @@ public class RewindMod implements ModInitializer {
     public void onInitialize() {
         LOGGER.info("Initializing Rewind mod...");
 
+        // Chunk ticket used to prefetch the chunks a rewind touches
+        RewindExecutor.registerTicketType();
+
         // Register preview payload for server -> client
         PayloadTypeRegistry.playS2C().register(PreviewPayload.ID, PreviewPayload.PACKET_CODEC);
         
@@ -53,19 +58,40 @@ public class RewindMod implements ModInitializer {
                 // Use overworld time as the canonical game time
                 long gameTime = server.getOverworld().getTime();
                 manager.beginTick(gameTime);
+                // Retake block entity pre-images if recording just resumed
+                TickRecorder.resumeBlockEntityTracking(server);
             }
         });
         
         ServerTickEvents.END_SERVER_TICK.register(server -> {
             TimelineManager manager = TimelineManager.getInstance();
             if (manager != null) {
+                // Entity diffs may still be running off-thread; their deltas belong in this tick's frames
+                TickRecorder.flushEntityTracking();
+                // Continue a rewind spread over several ticks
+                RewindExecutor.tick();
                 manager.endTick();
             }
         });
         
+        // Record spawns (and baseline entities loaded from disk) via Fabric event
+        ServerEntityEvents.ENTITY_LOAD.register((entity, world) -> {
+            TickRecorder.recordEntityLoad(entity, world);
+        });
+        
         // Track entity unloading via Fabric event
         ServerEntityEvents.ENTITY_UNLOAD.register((entity, world) -> {
-            TickRecorder.recordEntityRemoval(entity);
+            TickRecorder.recordEntityRemoval(entity, world);
+        });
+        
+        // Take block entity pre-images when a block entity loads or is placed near a player
+        ServerBlockEntityEvents.BLOCK_ENTITY_LOAD.register((blockEntity, world) -> {
+            TickRecorder.recordBlockEntityLoad(blockEntity, world);
+        });
+        
+        // Forget block entity pre-images when a block entity is removed or unloaded
+        ServerBlockEntityEvents.BLOCK_ENTITY_UNLOAD.register((blockEntity, world) -> {
+            TickRecorder.recordBlockEntityUnload(blockEntity, world);
         });
         
         LOGGER.info("Rewind mod initialized successfully!");
@@ -6,16 +6,23 @@ import com.mojang.brigadier.context.CommandContext;
 import io.github.rewind.core.RewindExecutor;
 import io.github.rewind.core.TimelineManager;
 import io.github.rewind.network.PreviewSender;
+import net.minecraft.command.argument.DimensionArgumentType;
+import net.minecraft.registry.RegistryKey;
 import net.minecraft.server.command.CommandManager;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Commands for the timeline/rewind system.
  *
- * /timeline rewind <seconds> - Rewind the world state
+ * /timeline rewind <seconds> [dimension] - Rewind the world state (optionally one dimension only)
  * /timeline status - Show buffer status
  * /timeline clear - Clear the buffer
  * /timeline pause - Pause recording
@@ -40,12 +47,16 @@ public class TimelineCommand {
                 // Use GAMEMASTERS_CHECK for OP level 2 permission
                 .requires(CommandManager.requirePermissionLevel(CommandManager.GAMEMASTERS_CHECK))
 
-                        // /timeline rewind <seconds>
+                        // /timeline rewind <seconds> [dimension]
                         .then(CommandManager.literal("rewind")
                                 .then(CommandManager
                                         .argument("seconds",
                                                 IntegerArgumentType.integer(MIN_REWIND_SECONDS, MAX_REWIND_SECONDS))
-                                        .executes(TimelineCommand::executeRewind)))
+                                        .executes(context -> executeRewind(context, null))
+                                        .then(CommandManager.argument("dimension", DimensionArgumentType.dimension())
+                                                .executes(context -> executeRewind(context, List.of(
+                                                        DimensionArgumentType.getDimensionArgument(context, "dimension")
+                                                                .getRegistryKey()))))))
 
                         // /timeline status
                         .then(CommandManager.literal("status")
@@ -83,8 +94,10 @@ public class TimelineCommand {
 
     /**
      * Execute the rewind command.
+     * @param dimensions Dimensions to rewind, or null for all
      */
-    private static int executeRewind(CommandContext<ServerCommandSource> context) {
+    private static int executeRewind(CommandContext<ServerCommandSource> context,
+            @Nullable Collection<RegistryKey<World>> dimensions) {
         ServerCommandSource source = context.getSource();
         int seconds = IntegerArgumentType.getInteger(context, "seconds");
 
@@ -95,7 +108,7 @@ public class TimelineCommand {
         }
 
         // Check if we have enough frames
-        int availableSeconds = manager.getAvailableSeconds();
+        int availableSeconds = manager.getAvailableSeconds(dimensions);
         if (availableSeconds < seconds) {
             if (availableSeconds == 0) {
                 source.sendError(Text.literal("No timeline data available yet. Wait a few seconds."));
@@ -123,27 +136,28 @@ public class TimelineCommand {
         LOGGER.info("Player {} requested rewind of {} seconds",
                 source.getName(), seconds);
 
-        RewindExecutor.RewindResult result = RewindExecutor.execute(source.getServer(), seconds);
-
-        // Send result
-        if (result.success()) {
-            source.sendFeedback(() -> result.toText(), true);
-
-            // Broadcast to all players
-            source.getServer().getPlayerManager().broadcast(
-                    Text.literal(String.format("§6[Timeline] §aRewind complete! World restored to %d seconds ago.",
-                            finalSeconds)),
-                    false);
-        } else {
-            source.sendError(result.toText());
-        }
+        // Large rewinds are applied over several ticks; the result arrives when the job finishes
+        boolean started = RewindExecutor.execute(source.getServer(), seconds, dimensions, result -> {
+            // Send result
+            if (result.success()) {
+                source.sendFeedback(() -> result.toText(), true);
+
+                // Broadcast to all players
+                source.getServer().getPlayerManager().broadcast(
+                        Text.literal(String.format("§6[Timeline] §aRewind complete! World restored to %d seconds ago.",
+                                finalSeconds)),
+                        false);
+            } else {
+                source.sendError(result.toText());
+            }
 
-        // Log warnings
-        for (String warning : result.warnings()) {
-            LOGGER.warn("Rewind warning: {}", warning);
-        }
+            // Log warnings
+            for (String warning : result.warnings()) {
+                LOGGER.warn("Rewind warning: {}", warning);
+            }
+        });
 
-        return result.success() ? 1 : 0;
+        return started ? 1 : 0;
     }
 
     /**
@@ -204,6 +218,11 @@ public class TimelineCommand {
             return 0;
         }
 
+        if (manager.isRewinding()) {
+            source.sendError(Text.literal("Cannot pause while rewinding!"));
+            return 0;
+        }
+
         if (!manager.isRecording()) {
             source.sendFeedback(() -> Text.literal("§eTimeline recording is already paused."), false);
             return 0;
@@ -229,6 +248,11 @@ public class TimelineCommand {
             return 0;
         }
 
+        if (manager.isRewinding()) {
+            source.sendError(Text.literal("Cannot resume while rewinding!"));
+            return 0;
+        }
+
         if (manager.isRecording()) {
             source.sendFeedback(() -> Text.literal("§eTimeline recording is already active."), false);
             return 0;
@@ -23,23 +23,38 @@ public final class RewindConfig {
     public static final int TICKS_PER_SECOND = 20;
     
     /**
-     * Maximum number of frames in the ring buffer.
+     * Maximum number of frames in each dimension's ring buffer.
      */
     public static final int MAX_FRAMES = MAX_REWIND_SECONDS * TICKS_PER_SECOND;
     
+    /**
+     * Frames older than this many ticks are merged into segments.
+     */
+    public static final int COMPACT_AFTER_TICKS = 10 * TICKS_PER_SECOND;
+    
+    /**
+     * Ticks merged into one segment (the rewind granularity of the compacted tier).
+     */
+    public static final int SEGMENT_TICKS = TICKS_PER_SECOND;
+    
     // ========== Memory ==========
     
     /**
-     * Maximum memory usage for the timeline buffer in bytes.
+     * Maximum memory usage of the Overworld's timeline in bytes.
      * When exceeded, oldest frames are dropped.
      */
     public static final long MAX_MEMORY_BYTES = 50 * 1024 * 1024; // 50 MB
     
     /**
-     * Minimum frames to keep even under memory pressure.
+     * Maximum memory usage of each other dimension's timeline in bytes.
+     */
+    public static final long SECONDARY_DIMENSION_MAX_MEMORY_BYTES = 25 * 1024 * 1024; // 25 MB
+    
+    /**
+     * Ticks of recent history kept even under memory pressure.
      * Ensures at least some rewind capability.
      */
-    public static final int MIN_FRAMES_UNDER_PRESSURE = 5 * TICKS_PER_SECOND; // 5 seconds
+    public static final int MIN_TICKS_UNDER_PRESSURE = 5 * TICKS_PER_SECOND; // 5 seconds
     
     // ========== Permissions ==========
     
@@ -75,6 +90,84 @@ public final class RewindConfig {
      */
     public static final int RESTORE_BLOCK_FLAGS = 2 | 16; // Block.NOTIFY_LISTENERS | Block.FORCE_STATE
     
+    // ========== Rewind ==========
+    
+    /**
+     * Server thread time a rewind may use per tick, in milliseconds.
+     * Larger rewinds are spread over several ticks; recording stays suspended until done.
+     */
+    public static final long REWIND_TICK_BUDGET_MS = 20;
+    
+    /**
+     * Ticks a rewind waits for the chunks it touches to load before applying anyway.
+     * Changes in chunks that are still not loaded are skipped with a warning.
+     */
+    public static final int CHUNK_PREFETCH_TIMEOUT_TICKS = 10 * TICKS_PER_SECOND;
+    
+    // ========== Entity Tracking ==========
+    
+    /**
+     * Captured entities per world and tick above which the diff runs on the ForkJoin common pool
+     * instead of inline. Below this, handing off costs more than the diff itself.
+     */
+    public static final int ENTITY_DIFF_PARALLEL_THRESHOLD = 256;
+    
+    /**
+     * Position change per axis, in blocks, below which no entity UPDATE is recorded.
+     * Measured against the last recorded state, so slow drift is still recorded once it adds up.
+     */
+    public static final double ENTITY_POSITION_EPSILON = 1.0 / 16.0;
+    
+    /**
+     * Yaw/pitch change, in degrees, below which no entity UPDATE is recorded.
+     * Matches the rotation precision vanilla sends to clients (360/256).
+     */
+    public static final float ENTITY_ROTATION_EPSILON = 360.0f / 256.0f;
+    
+    /**
+     * Velocity change per axis, in blocks per tick, below which no entity UPDATE is recorded.
+     */
+    public static final double ENTITY_VELOCITY_EPSILON = 0.01;
+    
+    /**
+     * Every this many ticks, entities with any unrecorded change are recorded exactly,
+     * regardless of the epsilons, so rewind error from the tolerances stays bounded in time.
+     */
+    public static final int ENTITY_KEYFRAME_INTERVAL_TICKS = TICKS_PER_SECOND;
+    
+    /**
+     * A changing block entity records its full NBT at most this often; other changes only record
+     * the changed keys and list entries, replayed from the nearest full NBT when a rewind needs them.
+     */
+    public static final int BLOCK_ENTITY_KEYFRAME_INTERVAL_TICKS = 5 * TICKS_PER_SECOND;
+    
+    /**
+     * Inventory block entities record changed slots on every change, but the rest of their NBT
+     * (furnace progress, hopper cooldown) at most this often, which bounds its rewind error.
+     */
+    public static final int BLOCK_ENTITY_INVENTORY_NBT_INTERVAL_TICKS = TICKS_PER_SECOND;
+    
+    /**
+     * Recorded block entity NBT is kept serialized; encodings of at least this many bytes are
+     * also deflated (if that makes them smaller). Negative values disable deflating.
+     */
+    public static final int BLOCK_ENTITY_NBT_DEFLATE_MIN_BYTES = 256;
+    
+    /**
+     * Block entities loading (or placed) within this many chunks of a player in the same world take
+     * their pre-image right away, so their first change is recorded. Those farther away only take a
+     * baseline on their first change, which is then not recorded. Each pre-image costs memory from
+     * the dimension's budget. Negative values take pre-images everywhere.
+     */
+    public static final int BLOCK_ENTITY_PRELOAD_RADIUS_CHUNKS = 10;
+    
+    /**
+     * Entities are only recorded within this many chunks of a player in the same world
+     * (default matches the vanilla simulation distance). Entities in spawn chunks or force-loaded
+     * chunks far from every player are not recorded. Negative values record entities everywhere.
+     */
+    public static final int ENTITY_RECORDING_RADIUS_CHUNKS = 10;
+    
     // ========== Limits ==========
     
     /**
@@ -0,0 +1,342 @@
+package io.github.rewind.core;
+
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.BlockEntityDelta;
+import io.github.rewind.data.InventorySlotLog;
+import io.github.rewind.data.NbtBlob;
+import io.github.rewind.data.NbtPatch;
+import io.github.rewind.data.TickFrame;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Block entity recording state for one world: the block entities marked dirty this tick and
+ * the last recorded NBT (pre-image) of each block entity seen dirty.
+ *
+ * markDirty is called after a block entity's data has changed, so the pre-image of a change is
+ * the NBT recorded at the end of the block entity's previous dirty tick. At the end of the world
+ * tick, each dirty block entity is serialized once and compared with its pre-image; a
+ * BlockEntityDelta is only recorded if the NBT actually changed, and the new NBT becomes the next
+ * pre-image. The delta holds a patch of the changed keys; its first delta after a baseline and then
+ * one every BLOCK_ENTITY_KEYFRAME_INTERVAL_TICKS also carries the full pre-image, encoded.
+ *
+ * Pre-images are taken before the first change: when a block entity loads (or is placed) within the
+ * recording radius, and again for every known block entity when recording resumes after a pause or
+ * rewind. A block entity without a pre-image (loaded outside the radius) is serialized on its first
+ * markDirty and only takes a baseline, like the entity baseline.
+ *
+ * Pre-images are kept encoded (NbtBlob), and a keyframe reuses the pre-image blob as its base. A
+ * dirty block entity whose new encoding equals the pre-image is unchanged without decoding it. The
+ * bytes held by pre-images (and slot images) are reported to the dimension's timeline at the end of
+ * each tick and count against its memory budget.
+ *
+ * Inventory block entities (chests, hoppers, furnaces, ...) skip serialization on most ticks:
+ * their slots are compared with a slot pre-image (pooled item prototype and count per slot) and
+ * changed slots go into the frame's InventorySlotLog. Their remaining NBT, without the items, is
+ * diffed at most every BLOCK_ENTITY_INVENTORY_NBT_INTERVAL_TICKS; a change in between is picked
+ * up once the interval has passed, even if the block entity is not dirty again.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+final class BlockEntityTracker {
+    private static final long NO_KEYFRAME = Long.MIN_VALUE;
+    private static final int PRE_IMAGE_OVERHEAD_BYTES = 64; // Map entry, record and blob headers
+    private static final int SLOT_BYTES = 12;               // Prototype reference and count per slot
+
+    private final RegistryKey<World> dimension;
+    private final NbtBlob.Encoder encoder = new NbtBlob.Encoder(RewindConfig.BLOCK_ENTITY_NBT_DEFLATE_MIN_BYTES);
+
+    // Packed pos -> last recorded NBT (shared with recorded deltas as keyframe bases)
+    private final Long2ObjectMap<PreImage> preImages = new Long2ObjectOpenHashMap<>();
+    private long preImageBytes = 0;     // Estimated bytes held by preImages
+    // Block entities marked dirty this tick, by packed pos
+    private final Long2ObjectMap<BlockEntity> dirty = new Long2ObjectOpenHashMap<>();
+    // Inventories whose NBT diff was skipped within the interval, by packed pos
+    private final Long2ObjectMap<BlockEntity> deferred = new Long2ObjectOpenHashMap<>();
+    // Paused since the pre-images were taken: they must be taken again before recording continues
+    private boolean stale = false;
+
+    // keyframeTime: game time of the last delta carrying a full base; NO_KEYFRAME forces one on the next delta.
+    // nbtTime: game time nbt was taken. slots: slot pre-image, for inventories only
+    private record PreImage(BlockEntity blockEntity, NbtBlob nbt, long keyframeTime, long nbtTime,
+                            @Nullable SlotImage slots) {
+        long memoryBytes() {
+            return PRE_IMAGE_OVERHEAD_BYTES + nbt.sizeInBytes() + (slots != null ? (long) slots.counts.length * SLOT_BYTES : 0);
+        }
+    }
+
+    /**
+     * Last recorded stack per slot: pooled prototype (null if empty) and count. Updated in place.
+     * Prototypes are held by reference, so an id freed by the pool can't be mistaken for another item.
+     */
+    private static final class SlotImage {
+        final ItemStack[] prototypes;
+        final int[] counts;
+
+        SlotImage(Inventory inventory, ItemPrototypePool pool) {
+            int size = inventory.size();
+            prototypes = new ItemStack[size];
+            counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                ItemStack stack = inventory.getStack(i);
+                if (!stack.isEmpty()) {
+                    prototypes[i] = pool.prototypeOf(stack);
+                    counts[i] = stack.getCount();
+                }
+            }
+        }
+    }
+
+    BlockEntityTracker(RegistryKey<World> dimension) {
+        this.dimension = dimension;
+    }
+
+    /**
+     * A block entity loaded with its chunk or was placed, within the recording radius: take its
+     * pre-image now, so its first change is recorded.
+     */
+    void load(BlockEntity blockEntity, ServerWorld world, TimelineManager manager) {
+        long packedPos = blockEntity.getPos().asLong();
+        PreImage preImage = preImages.get(packedPos);
+        if (preImage == null || preImage.blockEntity() != blockEntity) {
+            baseline(packedPos, blockEntity, world, manager);
+        }
+    }
+
+    /**
+     * Queue a block entity for this tick's diff. Repeated calls in one tick cost one lookup.
+     */
+    void markDirty(BlockEntity blockEntity, ServerWorld world, TimelineManager manager) {
+        resume(world, manager);
+        long packedPos = blockEntity.getPos().asLong();
+        if (dirty.putIfAbsent(packedPos, blockEntity) != null) {
+            return;
+        }
+        PreImage preImage = preImages.get(packedPos);
+        if (preImage == null || preImage.blockEntity() != blockEntity) {
+            // No earlier state known: the current (already changed) data becomes the baseline
+            baseline(packedPos, blockEntity, world, manager);
+        }
+    }
+
+    private void baseline(long packedPos, BlockEntity blockEntity, ServerWorld world, TimelineManager manager) {
+        putPreImage(packedPos, takePreImage(blockEntity, world, manager));
+        deferred.remove(packedPos);
+    }
+
+    private PreImage takePreImage(BlockEntity blockEntity, ServerWorld world, TimelineManager manager) {
+        SlotImage slots = blockEntity instanceof Inventory inventory
+                ? new SlotImage(inventory, manager.getItemPrototypes()) : null;
+        return new PreImage(blockEntity, encoder.encode(serialize(blockEntity, world, slots != null)),
+                NO_KEYFRAME, world.getTime(), slots);
+    }
+
+    private void putPreImage(long packedPos, PreImage preImage) {
+        PreImage old = preImages.put(packedPos, preImage);
+        preImageBytes += preImage.memoryBytes() - (old != null ? old.memoryBytes() : 0);
+    }
+
+    private void removePreImage(long packedPos) {
+        PreImage old = preImages.remove(packedPos);
+        if (old != null) {
+            preImageBytes -= old.memoryBytes();
+        }
+    }
+
+    /**
+     * Recording continues after a pause: take the pre-images of the known block entities again,
+     * before anything changes them. Costs nothing unless paused since the last call.
+     */
+    void resume(ServerWorld world, TimelineManager manager) {
+        if (!stale) {
+            return;
+        }
+        stale = false;
+        ObjectIterator<Long2ObjectMap.Entry<PreImage>> it = preImages.long2ObjectEntrySet().iterator();
+        while (it.hasNext()) {
+            Long2ObjectMap.Entry<PreImage> entry = it.next();
+            PreImage old = entry.getValue();
+            BlockEntity blockEntity = old.blockEntity();
+            preImageBytes -= old.memoryBytes();
+            if (blockEntity.isRemoved() || world.getBlockEntity(blockEntity.getPos()) != blockEntity) {
+                it.remove();
+                continue;
+            }
+            PreImage preImage = takePreImage(blockEntity, world, manager);
+            preImageBytes += preImage.memoryBytes();
+            entry.setValue(preImage);
+        }
+    }
+
+    /**
+     * Diff each dirty block entity once and record the changes, then the deferred inventory NBT that is due.
+     * Reports the bytes now held by pre-images to the dimension's timeline.
+     */
+    void endTick(ServerWorld world, TimelineManager manager) {
+        resume(world, manager);
+        if (!dirty.isEmpty() || !deferred.isEmpty()) {
+            diffDirty(world, manager);
+        }
+        manager.setTrackerMemoryBytes(dimension, preImageBytes);
+    }
+
+    private void diffDirty(ServerWorld world, TimelineManager manager) {
+        long time = world.getTime();
+        for (Long2ObjectMap.Entry<BlockEntity> entry : dirty.long2ObjectEntrySet()) {
+            long packedPos = entry.getLongKey();
+            BlockEntity blockEntity = entry.getValue();
+            // Replaced or removed this tick: the block change carries its NBT
+            if (blockEntity.isRemoved() || world.getBlockEntity(blockEntity.getPos()) != blockEntity) {
+                removePreImage(packedPos);
+                deferred.remove(packedPos);
+                continue;
+            }
+
+            PreImage preImage = preImages.get(packedPos);
+            if (preImage.slots() != null) {
+                recordSlots(packedPos, (Inventory) blockEntity, preImage.slots(), manager);
+                if (time - preImage.nbtTime() < RewindConfig.BLOCK_ENTITY_INVENTORY_NBT_INTERVAL_TICKS) {
+                    deferred.put(packedPos, blockEntity);
+                    continue;
+                }
+            }
+            recordNbt(packedPos, blockEntity, preImage, world, manager);
+            deferred.remove(packedPos);
+        }
+        dirty.clear();
+
+        ObjectIterator<Long2ObjectMap.Entry<BlockEntity>> it = deferred.long2ObjectEntrySet().iterator();
+        while (it.hasNext()) {
+            Long2ObjectMap.Entry<BlockEntity> entry = it.next();
+            BlockEntity blockEntity = entry.getValue();
+            PreImage preImage = preImages.get(entry.getLongKey());
+            if (preImage == null || preImage.blockEntity() != blockEntity || blockEntity.isRemoved()) {
+                it.remove();
+            } else if (time - preImage.nbtTime() >= RewindConfig.BLOCK_ENTITY_INVENTORY_NBT_INTERVAL_TICKS) {
+                recordNbt(entry.getLongKey(), blockEntity, preImage, world, manager);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Compare an inventory's slots with its slot pre-image and record the changed ones.
+     */
+    private void recordSlots(long packedPos, Inventory inventory, SlotImage slots, TimelineManager manager) {
+        ItemPrototypePool pool = manager.getItemPrototypes();
+        TickFrame frame = null;
+        int size = Math.min(inventory.size(), slots.counts.length);
+        for (int i = 0; i < size; i++) {
+            ItemStack stack = inventory.getStack(i);
+            ItemStack oldPrototype = slots.prototypes[i];
+            int oldCount = slots.counts[i];
+            ItemStack newPrototype;
+            int newCount;
+            if (stack.isEmpty()) {
+                if (oldPrototype == null) {
+                    continue;
+                }
+                newPrototype = null;
+                newCount = 0;
+            } else {
+                boolean sameItem = oldPrototype != null && ItemStack.areItemsAndComponentsEqual(stack, oldPrototype);
+                if (sameItem && stack.getCount() == oldCount) {
+                    continue;
+                }
+                newPrototype = sameItem ? oldPrototype : pool.prototypeOf(stack);
+                newCount = stack.getCount();
+            }
+            slots.prototypes[i] = newPrototype;
+            slots.counts[i] = newCount;
+            if (frame == null) {
+                frame = manager.frameForRecording(dimension);
+            }
+            // Slots are absolute values, so an unrecorded change only leaves a gap
+            if (frame != null) {
+                frame.addSlotChange(packedPos, i,
+                        oldPrototype != null ? pool.intern(oldPrototype) : InventorySlotLog.EMPTY, oldCount,
+                        newPrototype != null ? pool.intern(newPrototype) : InventorySlotLog.EMPTY, newCount);
+            }
+        }
+    }
+
+    /**
+     * Serialize a block entity, compare it with its pre-image and record a BlockEntityDelta if it changed.
+     * An encoding equal to the pre-image's is unchanged; otherwise the pre-image is decoded and diffed.
+     */
+    private void recordNbt(long packedPos, BlockEntity blockEntity, PreImage preImage, ServerWorld world,
+                           TimelineManager manager) {
+        long time = world.getTime();
+        NbtCompound after = serialize(blockEntity, world, preImage.slots() != null);
+        NbtBlob afterBlob = encoder.encode(after);
+        NbtPatch patch = afterBlob.equals(preImage.nbt()) ? null : NbtPatch.diff(preImage.nbt().decode(), after);
+        if (patch == null || patch.isEmpty()) {
+            if (preImage.slots() != null) {
+                // The interval restarts, so the next NBT diff waits again
+                putPreImage(packedPos, new PreImage(blockEntity, preImage.nbt(), preImage.keyframeTime(), time,
+                        preImage.slots()));
+            }
+            return;
+        }
+
+        Identifier type = Registries.BLOCK_ENTITY_TYPE.getId(blockEntity.getType());
+        TickFrame frame = manager.frameForRecording(dimension);
+        if (type == null || frame == null) {
+            // Not recorded, so the chain breaks here: the next recorded delta must be a keyframe
+            putPreImage(packedPos, new PreImage(blockEntity, afterBlob, NO_KEYFRAME, time, preImage.slots()));
+            return;
+        }
+        boolean keyframe = preImage.keyframeTime() == NO_KEYFRAME
+                || time - preImage.keyframeTime() >= RewindConfig.BLOCK_ENTITY_KEYFRAME_INTERVAL_TICKS;
+        putPreImage(packedPos, new PreImage(blockEntity, afterBlob, keyframe ? time : preImage.keyframeTime(), time,
+                preImage.slots()));
+        // The decoded pre-image and createNbt's result are not kept or modified, so the patch shares
+        // their values instead of copying (create() copies). The pre-image blob is the keyframe base as is
+        frame.addBlockEntityDelta(new BlockEntityDelta(dimension, packedPos, type,
+                keyframe ? preImage.nbt() : null, patch));
+    }
+
+    /**
+     * createNbt, without the items for inventories (their slots are recorded separately).
+     */
+    private static NbtCompound serialize(BlockEntity blockEntity, ServerWorld world, boolean inventory) {
+        NbtCompound nbt = blockEntity.createNbt(world.getRegistryManager());
+        if (inventory) {
+            nbt.remove(InventorySlotLog.ITEMS_KEY);
+        }
+        return nbt;
+    }
+
+    /**
+     * A block entity was removed or unloaded with its chunk.
+     */
+    void remove(BlockEntity blockEntity) {
+        long packedPos = blockEntity.getPos().asLong();
+        PreImage preImage = preImages.get(packedPos);
+        if (preImage != null && preImage.blockEntity() == blockEntity) {
+            removePreImage(packedPos);
+            deferred.remove(packedPos);
+        }
+    }
+
+    /**
+     * Recording is paused for this world (or a rewind rewrote block entities): pre-images are no
+     * longer the recorded state, so they are taken again on {@link #resume}.
+     */
+    void pause() {
+        dirty.clear();
+        deferred.clear();
+        stale = true;
+    }
+}
@@ -0,0 +1,473 @@
+package io.github.rewind.core;
+
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.NbtStore;
+import io.github.rewind.data.TickFrame;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Frame history for a single dimension.
+ * Each dimension has its own ring, frame capacity and memory budget, so heavy activity in one
+ * dimension only evicts that dimension's history.
+ *
+ * The timeline is sparse: ticks without changes store nothing, and the ring is ordered by
+ * gameTime so a rewind target tick is resolved by binary search.
+ *
+ * The ring holds two tiers in chronological order: a prefix of compacted segments (older frames
+ * merged into one entry per second) followed by recent frames at full per-tick resolution.
+ *
+ * A WindowIndex over the ring is kept in step with commits and evictions, so rewind plans
+ * do not have to walk every delta in the window.
+ *
+ * Block entity NBT of all frames is kept encoded in one NbtStore, so equal compounds are stored
+ * once; a frame releases its references when it leaves the ring, and the memory budget counts
+ * the store's distinct entries instead of every frame's copy.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+public class DimensionTimeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger("Rewind");
+
+    private final RegistryKey<World> dimension;
+
+    // Ring buffer, ordered by gameTime
+    private final TickFrame[] frames;
+    private final int maxFrames;        // Ring capacity (entries)
+    private final long maxMemoryBytes;  // This dimension's byte budget
+    private int writeHead = 0;          // Next position to write
+    private int frameCount = 0;         // Current number of valid entries (frames and segments)
+    private int compactedCount = 0;     // Leading (oldest) entries that are compacted segments
+
+    // Current frame being recorded (not yet in buffer); created lazily on the first change
+    private TickFrame currentFrame;
+
+    // Oldest old state per position/entity across the whole ring
+    private WindowIndex windowIndex = new WindowIndex();
+    // Block entity NBT shared by the frames (and the current frame)
+    private final NbtStore nbtStore = new NbtStore(RewindConfig.BLOCK_ENTITY_NBT_DEFLATE_MIN_BYTES);
+    private long nextSequence = 0;
+
+    private long evictedUntil = Long.MIN_VALUE; // End time of the newest entry dropped early (capacity/memory)
+    private long totalMemoryUsed = 0;           // Frames only; NBT is counted by nbtStore
+    private long trackerMemoryBytes = 0;        // Recording state outside the frames (block entity pre-images)
+    private long totalCoalescedUpdates = 0;     // Same-tick block updates folded since last clear
+
+    DimensionTimeline(RegistryKey<World> dimension, int maxFrames, long maxMemoryBytes) {
+        this.dimension = dimension;
+        this.maxFrames = maxFrames;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.frames = new TickFrame[maxFrames];
+    }
+
+    /**
+     * Commit any emergency frame recorded between ticks.
+     */
+    void beginTick() {
+        if (currentFrame != null && !currentFrame.isSealed() && !currentFrame.isEmpty()) {
+            commitCurrentFrame();
+        }
+        currentFrame = null;
+    }
+
+    /**
+     * Get the frame to record a change into, creating it stamped with gameTime if needed.
+     */
+    TickFrame frameForRecording(long gameTime) {
+        if (currentFrame == null || currentFrame.isSealed()) {
+            currentFrame = new TickFrame(dimension, gameTime, nbtStore);
+        }
+        return currentFrame;
+    }
+
+    /**
+     * Commit the tick's frame (if anything changed), then evict and compact.
+     * @param gameTime The tick's game time; the rewind window slides with it even when idle
+     */
+    void endTick(long gameTime, int windowTicks) {
+        if (currentFrame != null && !currentFrame.isEmpty()) {
+            commitCurrentFrame();
+        }
+        currentFrame = null;
+
+        evictExpiredFrames(gameTime - windowTicks);
+
+        compactAgingFrames(gameTime);
+
+        // Memory pressure check
+        enforceMemoryLimit(gameTime);
+    }
+
+    /**
+     * Commit a pending frame without ending the tick (used when freezing).
+     */
+    void flush() {
+        if (currentFrame != null && !currentFrame.isSealed() && !currentFrame.isEmpty()) {
+            commitCurrentFrame();
+        }
+    }
+
+    private void commitCurrentFrame() {
+        if (currentFrame == null) {
+            return;
+        }
+
+        currentFrame.seal();
+        currentFrame.assignSequence(nextSequence++);
+
+        if (frameCount == maxFrames) {
+            evictOldest();
+        }
+
+        frames[writeHead] = currentFrame;
+        windowIndex.addFrame(currentFrame);
+        totalMemoryUsed += currentFrame.getEstimatedMemoryBytes();
+        totalCoalescedUpdates += currentFrame.getCoalescedUpdates();
+
+        writeHead = (writeHead + 1) % maxFrames;
+        frameCount++;
+
+        currentFrame = null;
+    }
+
+    /**
+     * Physical ring index of a logical entry (0 = oldest).
+     */
+    private int ringIndex(int logical) {
+        return (writeHead - frameCount + logical + maxFrames) % maxFrames;
+    }
+
+    /**
+     * Drop the oldest entry (frame or segment).
+     * @return The dropped entry
+     */
+    private TickFrame removeOldest() {
+        int oldestIndex = ringIndex(0);
+        TickFrame oldFrame = frames[oldestIndex];
+        windowIndex.evictFrame(oldFrame);
+        totalMemoryUsed -= oldFrame.getEstimatedMemoryBytes();
+        oldFrame.releaseNbt();
+        frames[oldestIndex] = null;
+        frameCount--;
+        if (compactedCount > 0) {
+            compactedCount--;
+        }
+        return oldFrame;
+    }
+
+    /**
+     * Drop the oldest entry before it left the rewind window (capacity or memory pressure).
+     */
+    private void evictOldest() {
+        TickFrame oldFrame = removeOldest();
+        evictedUntil = Math.max(evictedUntil, oldFrame.getGameTime() + oldFrame.getSpanTicks());
+    }
+
+    /**
+     * Drop entries that have fallen entirely out of the rewind window.
+     */
+    private void evictExpiredFrames(long windowStart) {
+        while (frameCount > 0) {
+            TickFrame oldest = frames[ringIndex(0)];
+            if (oldest.getGameTime() + oldest.getSpanTicks() > windowStart) {
+                break;
+            }
+            removeOldest();
+        }
+    }
+
+    /**
+     * Compaction tier: merge the oldest run of full-resolution frames into one segment
+     * once the whole run is older than COMPACT_AFTER_TICKS.
+     * Runs incrementally from endTick (at most one segment per tick) so the work is amortized
+     * across ticks and the ring is only ever touched from the server thread.
+     */
+    private void compactAgingFrames(long gameTime) {
+        if (compactedCount >= frameCount) {
+            return;
+        }
+        TickFrame runStart = frames[ringIndex(compactedCount)];
+        long runEnd = runStart.getGameTime() + RewindConfig.SEGMENT_TICKS;
+        if (runEnd > gameTime - RewindConfig.COMPACT_AFTER_TICKS) {
+            return; // Run not fully aged yet
+        }
+
+        List<TickFrame> run = new ArrayList<>();
+        while (compactedCount + run.size() < frameCount) {
+            TickFrame frame = frames[ringIndex(compactedCount + run.size())];
+            if (frame.getGameTime() >= runEnd) {
+                break;
+            }
+            run.add(frame);
+        }
+
+        // The segment takes its own NBT references before the run drops theirs
+        TickFrame segment = TickFrame.merge(run);
+        windowIndex.compactRun(run, segment);
+        for (TickFrame frame : run) {
+            totalMemoryUsed -= frame.getEstimatedMemoryBytes();
+            frame.releaseNbt();
+        }
+        totalMemoryUsed += segment.getEstimatedMemoryBytes();
+
+        // The segment takes the slot of the run's last frame; shift the older segments
+        // up behind it so the ring stays contiguous and chronological
+        int removed = run.size() - 1;
+        frames[ringIndex(compactedCount + removed)] = segment;
+        for (int i = compactedCount - 1; i >= 0; i--) {
+            frames[ringIndex(i + removed)] = frames[ringIndex(i)];
+        }
+        for (int i = 0; i < removed; i++) {
+            frames[ringIndex(i)] = null;
+        }
+        frameCount -= removed;
+        compactedCount++;
+    }
+
+    /**
+     * Drop oldest frames if this dimension exceeds its memory budget.
+     * Always keeps at least the last MIN_TICKS_UNDER_PRESSURE ticks.
+     */
+    private void enforceMemoryLimit(long gameTime) {
+        long keepFrom = gameTime - RewindConfig.MIN_TICKS_UNDER_PRESSURE;
+        while (getTotalMemoryUsed() > maxMemoryBytes && frameCount > 1
+                && frames[ringIndex(0)].getGameTime() < keepFrom) {
+            evictOldest();
+            LOGGER.warn("Dropped oldest {} frame due to memory pressure ({}MB used)",
+                    dimension.getValue(), getTotalMemoryUsed() / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Logical index of the first entry that ends after the given game time (binary search).
+     * Entries are non-overlapping and ordered by gameTime, so their end times are monotonic.
+     */
+    private int firstEntryEndingAfter(long gameTime) {
+        int low = 0;
+        int high = frameCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            TickFrame frame = frames[ringIndex(mid)];
+            if (frame.getGameTime() + frame.getSpanTicks() > gameTime) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Earliest start of an entry covering targetTime, or targetTime if none straddles it.
+     */
+    long resolveTarget(long targetTime) {
+        int first = firstEntryEndingAfter(targetTime);
+        if (first < frameCount) {
+            return Math.min(targetTime, frames[ringIndex(first)].getGameTime());
+        }
+        return targetTime;
+    }
+
+    /**
+     * Append frames ending after targetTime to result, newest first.
+     */
+    void collectFramesAfter(long targetTime, List<TickFrame> result) {
+        int first = firstEntryEndingAfter(targetTime);
+        for (int i = frameCount - 1; i >= first; i--) {
+            result.add(frames[ringIndex(i)]);
+        }
+    }
+
+    /**
+     * Export the rewind plan for frames ending after targetTime.
+     * The full window is read straight from the maintained index. For a partial window the
+     * cheaper of two routes is taken: copy the index and evict the excluded (older) frames from
+     * the copy, or index just the included frames from scratch.
+     */
+    void exportPlan(long targetTime, PlanBuilder plan) {
+        int first = firstEntryEndingAfter(targetTime);
+        if (first >= frameCount) {
+            return;
+        }
+
+        WindowIndex index;
+        if (first == 0) {
+            index = windowIndex;
+        } else {
+            long excludedChanges = 0;
+            long includedChanges = 0;
+            for (int i = 0; i < frameCount; i++) {
+                int changes = frames[ringIndex(i)].changeCount();
+                if (i < first) {
+                    excludedChanges += changes;
+                } else {
+                    includedChanges += changes;
+                }
+            }
+            if (excludedChanges < includedChanges) {
+                index = windowIndex.copy();
+                for (int i = 0; i < first; i++) {
+                    index.evictFrame(frames[ringIndex(i)]);
+                }
+            } else {
+                index = new WindowIndex();
+                for (int i = first; i < frameCount; i++) {
+                    index.addFrame(frames[ringIndex(i)]);
+                }
+                // Block entity patches may need a keyframe from the excluded frames or from before the window
+                LongSet missing = index.blockEntitiesWithoutKeyframe();
+                for (int i = first - 1; i >= 0 && !missing.isEmpty(); i--) {
+                    index.prependBlockEntityDeltas(frames[ringIndex(i)], missing);
+                }
+                index.prependBlockEntityHistory(windowIndex, missing);
+            }
+        }
+
+        TickFrame newest = frames[ringIndex(frameCount - 1)];
+        plan.includeSpan(frames[ringIndex(first)].getGameTime(), newest.getGameTime() + newest.getSpanTicks());
+        index.exportTo(dimension, plan);
+    }
+
+    /**
+     * Remove frames ending after targetTime (they're no longer valid future).
+     * The window index is rebuilt from the remaining frames; this only happens after a rewind.
+     */
+    void removeFramesAfter(long targetTime) {
+        int first = firstEntryEndingAfter(targetTime);
+        if (first >= frameCount) {
+            return;
+        }
+
+        while (frameCount > first) {
+            writeHead = (writeHead - 1 + maxFrames) % maxFrames;
+            TickFrame frame = frames[writeHead];
+            if (frame != null) {
+                totalMemoryUsed -= frame.getEstimatedMemoryBytes();
+                frame.releaseNbt();
+                frames[writeHead] = null;
+            }
+            frameCount--;
+        }
+        compactedCount = Math.min(compactedCount, frameCount);
+
+        // Keep the evicted block entity history the remaining chains may still be replayed from
+        WindowIndex rebuilt = new WindowIndex();
+        forEachFrame(rebuilt::addFrame);
+        rebuilt.prependBlockEntityHistory(windowIndex, rebuilt.blockEntitiesWithoutKeyframe());
+        windowIndex = rebuilt;
+    }
+
+    /**
+     * Visit every entry in the ring, oldest first.
+     */
+    void forEachFrame(Consumer<TickFrame> action) {
+        for (int i = 0; i < frameCount; i++) {
+            action.accept(frames[ringIndex(i)]);
+        }
+    }
+
+    /**
+     * Clear all recorded frames.
+     */
+    void clear() {
+        for (int i = 0; i < maxFrames; i++) {
+            frames[i] = null;
+        }
+        writeHead = 0;
+        frameCount = 0;
+        compactedCount = 0;
+        totalMemoryUsed = 0;
+        totalCoalescedUpdates = 0;
+        currentFrame = null;
+        windowIndex.clear();
+        nbtStore.clear();
+        evictedUntil = Long.MIN_VALUE;
+    }
+
+    // Status info
+
+    public RegistryKey<World> getDimension() {
+        return dimension;
+    }
+
+    @Nullable
+    public TickFrame getCurrentFrame() {
+        return currentFrame;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    public int getCompactedCount() {
+        return compactedCount;
+    }
+
+    /**
+     * Estimated bytes held by the frames plus the distinct NBT in the store and the recording state
+     * reported by the trackers.
+     */
+    public long getTotalMemoryUsed() {
+        return totalMemoryUsed + nbtStore.getMemoryBytes() + trackerMemoryBytes;
+    }
+
+    /**
+     * Bytes the block entity tracker's pre-images hold. They are not evictable, but count against
+     * the budget so frames make room for them. Kept across clear(), which leaves the trackers alone.
+     */
+    void setTrackerMemoryBytes(long bytes) {
+        trackerMemoryBytes = bytes;
+    }
+
+    /**
+     * Distinct block entity compounds stored, and how many interns reused one.
+     */
+    public int getStoredNbtCount() {
+        return nbtStore.size();
+    }
+
+    public long getNbtInternHits() {
+        return nbtStore.getInternHits();
+    }
+
+    public long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public long getTotalCoalescedUpdates() {
+        return totalCoalescedUpdates;
+    }
+
+    /**
+     * Distinct positions and entities changed within the window.
+     */
+    public int getIndexedChangeCount() {
+        return windowIndex.size();
+    }
+
+    /**
+     * End time of the newest entry dropped before leaving the window, or Long.MIN_VALUE if none.
+     * History for this dimension is incomplete before this time.
+     */
+    public long getEvictedUntil() {
+        return evictedUntil;
+    }
+
+    @Nullable
+    public Long getOldestTickTime() {
+        if (frameCount == 0) return null;
+        return frames[ringIndex(0)].getGameTime();
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.rewind.core;
+
+import net.minecraft.server.world.ServerWorld;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Implemented on every Entity by EntityMixin.
+ * Carries the per-entity recording flags: the dirty flag, so repeated setter calls within a tick
+ * are a single field check, the spawning flag that tells true spawns from entities loaded from disk,
+ * and the entity's cached EntityRegistry handle.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+public interface DirtyTrackedEntity {
+    /**
+     * Mark this entity as changed this tick, queueing it for the end-of-tick diff.
+     */
+    void rewind$markDirty();
+
+    boolean rewind$isDirty();
+
+    void rewind$setDirty(boolean dirty);
+
+    /**
+     * Whether ServerWorld is adding this entity as a new spawn (set until ENTITY_LOAD consumes it).
+     */
+    boolean rewind$isSpawning();
+
+    void rewind$setSpawning(boolean spawning);
+
+    /**
+     * Last handle EntityRegistry assigned to this entity, or -1. May be stale; the registry validates it.
+     */
+    int rewind$getEntityHandle();
+
+    void rewind$setEntityHandle(int handle);
+
+    /**
+     * The entity's world if it is a server world, otherwise null.
+     */
+    @Nullable
+    ServerWorld rewind$getServerWorld();
+}
@@ -0,0 +1,98 @@
+package io.github.rewind.core;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.LivingEntity;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.util.math.Vec3d;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Raw entity fields captured on the server thread at the end of a world tick,
+ * in the same column layout as EntityStateTable.
+ *
+ * Once filled, the buffer is read by the diff task without touching live entities
+ * (the entity references are only passed back to the server thread), so the diff can run
+ * off the server thread.
+ *
+ * Thread safety: Filled on the server thread; read by one diff task at a time, which is
+ * joined before the buffer is filled again.
+ */
+final class EntityCaptureBuffer {
+    private static final int INITIAL_CAPACITY = 256;
+
+    static final byte FLAG_ON_GROUND = 1;
+    static final byte FLAG_LIVING = 2;      // Health column is meaningful
+
+    int size = 0;
+    Entity[] entities = new Entity[INITIAL_CAPACITY];
+    int[] handles = new int[INITIAL_CAPACITY];      // EntityRegistry handles
+    double[] x = new double[INITIAL_CAPACITY];
+    double[] y = new double[INITIAL_CAPACITY];
+    double[] z = new double[INITIAL_CAPACITY];
+    double[] velX = new double[INITIAL_CAPACITY];
+    double[] velY = new double[INITIAL_CAPACITY];
+    double[] velZ = new double[INITIAL_CAPACITY];
+    float[] yaw = new float[INITIAL_CAPACITY];
+    float[] pitch = new float[INITIAL_CAPACITY];
+    float[] health = new float[INITIAL_CAPACITY];
+    byte[] flags = new byte[INITIAL_CAPACITY];
+    NbtCompound[] fullData = new NbtCompound[INITIAL_CAPACITY];    // Only filled on keyframe ticks
+
+    /**
+     * Append the entity's current fields.
+     * @param fullData The entity's full saved data, or null
+     */
+    void add(Entity entity, int handle, @Nullable NbtCompound fullData) {
+        if (size == handles.length) {
+            grow();
+        }
+        int i = size++;
+        Vec3d velocity = entity.getVelocity();
+        entities[i] = entity;
+        handles[i] = handle;
+        x[i] = entity.getX();
+        y[i] = entity.getY();
+        z[i] = entity.getZ();
+        yaw[i] = entity.getYaw();
+        pitch[i] = entity.getPitch();
+        velX[i] = velocity.x;
+        velY[i] = velocity.y;
+        velZ[i] = velocity.z;
+        flags[i] = flagsOf(entity);
+        health[i] = entity instanceof LivingEntity living ? living.getHealth() : 0.0f;
+        this.fullData[i] = fullData;
+    }
+
+    void clear() {
+        // Release references; primitive columns are simply overwritten
+        Arrays.fill(entities, 0, size, null);
+        Arrays.fill(fullData, 0, size, null);
+        size = 0;
+    }
+
+    static byte flagsOf(Entity entity) {
+        byte bits = 0;
+        if (entity.isOnGround()) bits |= FLAG_ON_GROUND;
+        if (entity instanceof LivingEntity) bits |= FLAG_LIVING;
+        return bits;
+    }
+
+    private void grow() {
+        int capacity = handles.length * 2;
+        entities = Arrays.copyOf(entities, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        velX = Arrays.copyOf(velX, capacity);
+        velY = Arrays.copyOf(velY, capacity);
+        velZ = Arrays.copyOf(velZ, capacity);
+        yaw = Arrays.copyOf(yaw, capacity);
+        pitch = Arrays.copyOf(pitch, capacity);
+        health = Arrays.copyOf(health, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        fullData = Arrays.copyOf(fullData, capacity);
+    }
+}
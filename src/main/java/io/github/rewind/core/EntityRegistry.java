@@ -0,0 +1,129 @@
+package io.github.rewind.core;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntPredicate;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.entity.Entity;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Interns entity UUIDs to compact int handles for frames, the window index, rewind plans and the
+ * entity state tables. UUIDs are only resolved back when a rewind looks up or respawns an entity.
+ *
+ * A handle stays valid while anything can still refer to it: it is freed (and later reused) only
+ * once it has not been used for longer than the history window and no tracker holds the entity.
+ * The handle is also cached on the entity (DirtyTrackedEntity), so capturing an entity normally
+ * costs no UUID hashing.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+final class EntityRegistry {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Object2IntOpenHashMap<UUID> handles = new Object2IntOpenHashMap<>();
+    private final IntArrayList freeHandles = new IntArrayList();
+    private int handleLimit = 0;                    // Handles ever handed out (high-water mark)
+
+    private UUID[] uuids = new UUID[INITIAL_CAPACITY];
+    private long[] lastUsed = new long[INITIAL_CAPACITY];
+
+    // Game ticks a handle must stay unused before it may be freed
+    private final long retentionTicks;
+    private long currentTime = 0;
+
+    EntityRegistry(long retentionTicks) {
+        this.retentionTicks = retentionTicks;
+        handles.defaultReturnValue(-1);
+    }
+
+    /**
+     * Set the game time recorded as a handle's last use.
+     */
+    void setTime(long gameTime) {
+        currentTime = gameTime;
+    }
+
+    /**
+     * Handle of a live entity, interned on first use. Marks the handle as used now.
+     */
+    int handleOf(Entity entity) {
+        DirtyTrackedEntity tracked = (DirtyTrackedEntity) entity;
+        int handle = tracked.rewind$getEntityHandle();
+        // The cached handle may belong to another registry or have been freed and reused
+        if (handle < 0 || handle >= handleLimit || !entity.getUuid().equals(uuids[handle])) {
+            handle = intern(entity.getUuid());
+            tracked.rewind$setEntityHandle(handle);
+        }
+        lastUsed[handle] = currentTime;
+        return handle;
+    }
+
+    /**
+     * Handle of a live entity if it has one, or -1. Never interns.
+     */
+    int find(Entity entity) {
+        int handle = ((DirtyTrackedEntity) entity).rewind$getEntityHandle();
+        if (handle >= 0 && handle < handleLimit && entity.getUuid().equals(uuids[handle])) {
+            return handle;
+        }
+        return handles.getInt(entity.getUuid());
+    }
+
+    /**
+     * Handle of a UUID, interned on first use. Marks the handle as used now.
+     */
+    int intern(UUID uuid) {
+        int handle = handles.getInt(uuid);
+        if (handle < 0) {
+            if (!freeHandles.isEmpty()) {
+                handle = freeHandles.popInt();
+            } else {
+                if (handleLimit == uuids.length) {
+                    uuids = Arrays.copyOf(uuids, uuids.length * 2);
+                    lastUsed = Arrays.copyOf(lastUsed, lastUsed.length * 2);
+                }
+                handle = handleLimit++;
+            }
+            uuids[handle] = uuid;
+            handles.put(uuid, handle);
+        }
+        lastUsed[handle] = currentTime;
+        return handle;
+    }
+
+    /**
+     * Resolve a handle back to its UUID, or null if it is not assigned.
+     */
+    @Nullable
+    UUID uuidOf(int handle) {
+        return handle >= 0 && handle < handleLimit ? uuids[handle] : null;
+    }
+
+    /**
+     * Free handles unused for longer than the retention period, unless still held.
+     * @param held Whether a handle is still referenced outside the frames (e.g. by a state table)
+     * @return Number of handles freed
+     */
+    int sweep(IntPredicate held) {
+        long cutoff = currentTime - retentionTicks;
+        int freed = 0;
+        for (int handle = 0; handle < handleLimit; handle++) {
+            UUID uuid = uuids[handle];
+            if (uuid == null || lastUsed[handle] >= cutoff || held.test(handle)) {
+                continue;
+            }
+            handles.removeInt(uuid);
+            uuids[handle] = null;
+            freeHandles.add(handle);
+            freed++;
+        }
+        return freed;
+    }
+
+    int size() {
+        return handles.size();
+    }
+}
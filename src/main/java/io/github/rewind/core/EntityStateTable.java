@@ -0,0 +1,269 @@
+package io.github.rewind.core;
+
+import io.github.rewind.data.EntityUpdateLog;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.LivingEntity;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.storage.NbtWriteView;
+import net.minecraft.util.ErrorReporter;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.Vec3d;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+import static io.github.rewind.config.RewindConfig.ENTITY_POSITION_EPSILON;
+import static io.github.rewind.config.RewindConfig.ENTITY_ROTATION_EPSILON;
+import static io.github.rewind.config.RewindConfig.ENTITY_VELOCITY_EPSILON;
+import static io.github.rewind.core.EntityCaptureBuffer.FLAG_LIVING;
+import static io.github.rewind.core.EntityCaptureBuffer.FLAG_ON_GROUND;
+
+/**
+ * Last recorded state of every tracked entity, stored column-wise in primitive arrays
+ * (one slot per entity) instead of one NbtCompound per entity per tick. Entities are keyed by
+ * their EntityRegistry handle.
+ *
+ * Diffing compares captured fields against a slot field by field; NBT is only built
+ * for entities that actually changed. Slots of removed entities are reused.
+ *
+ * Each slot may also hold the entity's full saved data from its spawn or last keyframe UPDATE.
+ * It is attached to the slot's NBT by reference, so the per-tick cost stays that of the cheap fields.
+ *
+ * Thread safety: Owned by one EntityTracker. Used either by the server thread or by that
+ * tracker's diff task, never both at once.
+ */
+final class EntityStateTable {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Int2IntMap slots = new Int2IntOpenHashMap();
+    private final IntArrayList freeSlots = new IntArrayList();
+    private int slotLimit = 0;                      // Slots ever handed out (high-water mark)
+
+    private double[] x = new double[INITIAL_CAPACITY];
+    private double[] y = new double[INITIAL_CAPACITY];
+    private double[] z = new double[INITIAL_CAPACITY];
+    private double[] velX = new double[INITIAL_CAPACITY];
+    private double[] velY = new double[INITIAL_CAPACITY];
+    private double[] velZ = new double[INITIAL_CAPACITY];
+    private float[] yaw = new float[INITIAL_CAPACITY];
+    private float[] pitch = new float[INITIAL_CAPACITY];
+    private float[] health = new float[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private NbtCompound[] fullData = new NbtCompound[INITIAL_CAPACITY];
+
+    EntityStateTable() {
+        slots.defaultReturnValue(-1);
+    }
+
+    /**
+     * Slot of an entity, or -1 if it is not in the table.
+     */
+    int slotOf(int handle) {
+        return slots.get(handle);
+    }
+
+    boolean contains(int handle) {
+        return slots.containsKey(handle);
+    }
+
+    /**
+     * Assign a slot to an entity and capture its current state.
+     */
+    int add(int handle, Entity entity) {
+        int slot = allocate(handle);
+        capture(slot, entity);
+        return slot;
+    }
+
+    /**
+     * Assign a slot to a captured entity and copy its fields.
+     */
+    int add(EntityCaptureBuffer buffer, int i) {
+        int slot = allocate(buffer.handles[i]);
+        capture(slot, buffer, i);
+        return slot;
+    }
+
+    /**
+     * Drop an entity; its slot is reused by the next add.
+     */
+    void remove(int handle) {
+        int slot = slots.remove(handle);
+        if (slot >= 0) {
+            fullData[slot] = null;
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Attach full saved data to a slot (shared, never modified).
+     */
+    void setFullData(int slot, NbtCompound data) {
+        fullData[slot] = data;
+    }
+
+    /**
+     * Compare captured fields against the recorded state, field by field, exactly.
+     */
+    boolean differs(int slot, EntityCaptureBuffer buffer, int i) {
+        return x[slot] != buffer.x[i] || y[slot] != buffer.y[i] || z[slot] != buffer.z[i]
+                || yaw[slot] != buffer.yaw[i] || pitch[slot] != buffer.pitch[i]
+                || velX[slot] != buffer.velX[i] || velY[slot] != buffer.velY[i] || velZ[slot] != buffer.velZ[i]
+                || flags[slot] != buffer.flags[i]
+                || ((flags[slot] & FLAG_LIVING) != 0 && health[slot] != buffer.health[i]);
+    }
+
+    /**
+     * Whether captured fields moved past the recording tolerances (RewindConfig epsilons).
+     * Flag and health changes always count.
+     */
+    boolean exceedsTolerance(int slot, EntityCaptureBuffer buffer, int i) {
+        return Math.abs(x[slot] - buffer.x[i]) > ENTITY_POSITION_EPSILON
+                || Math.abs(y[slot] - buffer.y[i]) > ENTITY_POSITION_EPSILON
+                || Math.abs(z[slot] - buffer.z[i]) > ENTITY_POSITION_EPSILON
+                || Math.abs(MathHelper.wrapDegrees(yaw[slot] - buffer.yaw[i])) > ENTITY_ROTATION_EPSILON
+                || Math.abs(pitch[slot] - buffer.pitch[i]) > ENTITY_ROTATION_EPSILON
+                || Math.abs(velX[slot] - buffer.velX[i]) > ENTITY_VELOCITY_EPSILON
+                || Math.abs(velY[slot] - buffer.velY[i]) > ENTITY_VELOCITY_EPSILON
+                || Math.abs(velZ[slot] - buffer.velZ[i]) > ENTITY_VELOCITY_EPSILON
+                || flags[slot] != buffer.flags[i]
+                || ((flags[slot] & FLAG_LIVING) != 0 && health[slot] != buffer.health[i]);
+    }
+
+    /**
+     * Overwrite a slot with the entity's current state.
+     */
+    void capture(int slot, Entity entity) {
+        Vec3d velocity = entity.getVelocity();
+        x[slot] = entity.getX();
+        y[slot] = entity.getY();
+        z[slot] = entity.getZ();
+        yaw[slot] = entity.getYaw();
+        pitch[slot] = entity.getPitch();
+        velX[slot] = velocity.x;
+        velY[slot] = velocity.y;
+        velZ[slot] = velocity.z;
+        flags[slot] = EntityCaptureBuffer.flagsOf(entity);
+        health[slot] = entity instanceof LivingEntity living ? living.getHealth() : 0.0f;
+    }
+
+    /**
+     * Overwrite a slot with captured fields, and its full data if the buffer has some.
+     */
+    void capture(int slot, EntityCaptureBuffer buffer, int i) {
+        x[slot] = buffer.x[i];
+        y[slot] = buffer.y[i];
+        z[slot] = buffer.z[i];
+        yaw[slot] = buffer.yaw[i];
+        pitch[slot] = buffer.pitch[i];
+        velX[slot] = buffer.velX[i];
+        velY[slot] = buffer.velY[i];
+        velZ[slot] = buffer.velZ[i];
+        flags[slot] = buffer.flags[i];
+        health[slot] = buffer.health[i];
+        if (buffer.fullData[i] != null) {
+            fullData[slot] = buffer.fullData[i];
+        }
+    }
+
+    /**
+     * Copy a slot, including its full data reference, into a state holder.
+     */
+    void read(int slot, EntityUpdateLog.State out) {
+        write(out, x[slot], y[slot], z[slot], yaw[slot], pitch[slot],
+                velX[slot], velY[slot], velZ[slot], flags[slot], health[slot], fullData[slot]);
+    }
+
+    /**
+     * Materialize a slot as the NBT state stored in EntityDelta.
+     */
+    NbtCompound toNbt(int slot) {
+        EntityUpdateLog.State state = new EntityUpdateLog.State();
+        read(slot, state);
+        return state.toNbt();
+    }
+
+    /**
+     * Serialize an entity's current state with the same layout as toNbt, without a slot,
+     * including its full saved data.
+     */
+    static NbtCompound snapshot(Entity entity) {
+        Vec3d velocity = entity.getVelocity();
+        float health = entity instanceof LivingEntity living ? living.getHealth() : 0.0f;
+        EntityUpdateLog.State state = new EntityUpdateLog.State();
+        write(state, entity.getX(), entity.getY(), entity.getZ(), entity.getYaw(), entity.getPitch(),
+                velocity.x, velocity.y, velocity.z, EntityCaptureBuffer.flagsOf(entity), health, writeFullData(entity));
+        return state.toNbt();
+    }
+
+    /**
+     * The entity's full saved data (equipment, name, trades, AI state, ...), as written to chunk storage.
+     * Server thread only.
+     */
+    static NbtCompound writeFullData(Entity entity) {
+        NbtWriteView view = NbtWriteView.create(ErrorReporter.EMPTY, entity.getRegistryManager());
+        entity.writeData(view);
+        return view.getNbt();
+    }
+
+    private static void write(EntityUpdateLog.State out, double x, double y, double z, float yaw, float pitch,
+                              double velX, double velY, double velZ, byte flags, float health,
+                              @Nullable NbtCompound fullData) {
+        out.x = x;
+        out.y = y;
+        out.z = z;
+        out.yaw = yaw;
+        out.pitch = pitch;
+        out.velX = velX;
+        out.velY = velY;
+        out.velZ = velZ;
+        out.onGround = (flags & FLAG_ON_GROUND) != 0;
+        out.living = (flags & FLAG_LIVING) != 0;
+        out.health = health;
+        out.fullData = fullData;
+    }
+
+    void clear() {
+        Arrays.fill(fullData, 0, slotLimit, null);
+        slots.clear();
+        freeSlots.clear();
+        slotLimit = 0;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    private int allocate(int handle) {
+        int slot;
+        if (!freeSlots.isEmpty()) {
+            slot = freeSlots.popInt();
+        } else {
+            if (slotLimit == x.length) {
+                grow();
+            }
+            slot = slotLimit++;
+        }
+        fullData[slot] = null;
+        slots.put(handle, slot);
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = x.length * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        velX = Arrays.copyOf(velX, capacity);
+        velY = Arrays.copyOf(velY, capacity);
+        velZ = Arrays.copyOf(velZ, capacity);
+        yaw = Arrays.copyOf(yaw, capacity);
+        pitch = Arrays.copyOf(pitch, capacity);
+        health = Arrays.copyOf(health, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        fullData = Arrays.copyOf(fullData, capacity);
+    }
+}
@@ -0,0 +1,459 @@
+package io.github.rewind.core;
+
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.DropLog;
+import io.github.rewind.data.EntityDelta;
+import io.github.rewind.data.EntityUpdateLog;
+import io.github.rewind.data.TickFrame;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.ExperienceOrbEntity;
+import net.minecraft.entity.ItemEntity;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Entity recording state for one world: the last recorded states, the entities marked
+ * dirty this tick, and the diff of the current tick.
+ *
+ * At the end of the world tick, dirty entities' fields are captured into an EntityCaptureBuffer
+ * on the server thread. Large captures are then diffed on the ForkJoin common pool, overlapping
+ * with the remaining worlds' ticks; the resulting updates are added to the frame when the diff
+ * is joined (flush), at the latest before TimelineManager.endTick seals the frame. The diff writes
+ * updates straight into a packed EntityUpdateLog, so no NBT is built per update.
+ *
+ * Thread safety: All methods must be called from the server thread. Methods that touch the
+ * state table flush a pending diff first, so the table is never shared with the diff task.
+ */
+final class EntityTracker {
+    private static final Logger LOGGER = LoggerFactory.getLogger("Rewind");
+
+    // Outside the world border range, so never a real packed chunk position
+    private static final long NO_CHUNK = Long.MIN_VALUE;
+
+    private final RegistryKey<World> dimension;
+    private final EntityStateTable states = new EntityStateTable();
+    private final EntityCaptureBuffer capture = new EntityCaptureBuffer();
+
+    // Entities whose tracked fields changed this tick (deduplicated by the entity's dirty flag)
+    private final ReferenceOpenHashSet<Entity> dirty = new ReferenceOpenHashSet<>();
+
+    // Entities that changed within the recording tolerances since their last recorded state.
+    // Written by the diff, read on the server thread after it is joined
+    // Bucketed by keyframe phase (see keyframePhase)
+    private final ReferenceOpenHashSet<Entity>[] drifting = newDriftingBuckets();
+
+    // Chunks within ENTITY_RECORDING_RADIUS_CHUNKS of a player in this world -> number of players covering them
+    private final Long2IntOpenHashMap recordedChunks = new Long2IntOpenHashMap();
+    // Player -> chunk its coverage was last added for (swapped with scratchPlayerChunks each update)
+    private Object2LongOpenHashMap<UUID> playerChunks = new Object2LongOpenHashMap<>();
+    private Object2LongOpenHashMap<UUID> scratchPlayerChunks = new Object2LongOpenHashMap<>();
+
+    // Whether every entity of the world has a baseline in the state table
+    private boolean synced = false;
+
+    // Counts endTick calls; entities whose phase matches it modulo the interval are keyframed
+    private int tick = 0;
+
+    // Decode holders for the diff (used by one diff at a time)
+    private final EntityUpdateLog.State diffOld = new EntityUpdateLog.State();
+    private final EntityUpdateLog.State diffNew = new EntityUpdateLog.State();
+
+    @Nullable
+    private ForkJoinTask<EntityUpdateLog> pendingDiff = null;
+
+    EntityTracker(RegistryKey<World> dimension) {
+        this.dimension = dimension;
+        playerChunks.defaultReturnValue(NO_CHUNK);
+        scratchPlayerChunks.defaultReturnValue(NO_CHUNK);
+    }
+
+    /**
+     * Queue an entity for this tick's diff.
+     */
+    void markDirty(Entity entity) {
+        ((DirtyTrackedEntity) entity).rewind$setDirty(true);
+        dirty.add(entity);
+    }
+
+    /**
+     * Capture and diff the entities that changed this tick.
+     * Only entities in chunks near a player are captured, except for the baseline: the first
+     * call after a pause or clear captures every entity.
+     * Every ENTITY_KEYFRAME_INTERVAL_TICKS, entities still drifting within the tolerances are
+     * diffed exactly, so unrecorded changes never stay unrecorded for longer than the interval.
+     * Keyframes also capture the full saved data of the entities they diff, which later UPDATEs carry.
+     * Each entity has its keyframe on its own phase of the interval (by handle), so the full data
+     * writes of a busy world are spread over the interval instead of landing on one tick.
+     */
+    void endTick(ServerWorld world, TimelineManager manager) {
+        flush(manager);
+        updateRecordedChunks(world);
+        EntityRegistry registry = manager.getEntityRegistry();
+
+        int phase = Math.floorMod(++tick, RewindConfig.ENTITY_KEYFRAME_INTERVAL_TICKS);
+        ReferenceOpenHashSet<Entity> due = drifting[phase];
+        for (Entity entity : due) {
+            if (!((DirtyTrackedEntity) entity).rewind$isDirty()) {
+                markDirty(entity);
+            }
+        }
+        due.clear();
+
+        boolean baseline = !synced;
+        if (baseline) {
+            synced = true;
+            discardDirty();
+            for (Entity entity : world.iterateEntities()) {
+                if (TickRecorder.shouldTrackEntity(entity)) {
+                    capture.add(entity, registry.handleOf(entity), null);
+                }
+            }
+        } else {
+            for (Entity entity : dirty) {
+                ((DirtyTrackedEntity) entity).rewind$setDirty(false);
+                if (!entity.isRemoved() && isRecorded(entity) && TickRecorder.shouldTrackEntity(entity)) {
+                    int handle = registry.handleOf(entity);
+                    // Full data must be written here on the server thread; the diff may run off-thread
+                    capture.add(entity, handle,
+                            keyframePhase(handle) == phase ? EntityStateTable.writeFullData(entity) : null);
+                }
+            }
+            dirty.clear();
+        }
+
+        if (capture.size == 0) {
+            return;
+        }
+        if (capture.size >= RewindConfig.ENTITY_DIFF_PARALLEL_THRESHOLD) {
+            pendingDiff = ForkJoinPool.commonPool().submit(() -> diff(baseline));
+        } else {
+            addUpdates(manager, diff(baseline));
+        }
+    }
+
+    private static int keyframePhase(int handle) {
+        return Math.floorMod(handle, RewindConfig.ENTITY_KEYFRAME_INTERVAL_TICKS);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ReferenceOpenHashSet<Entity>[] newDriftingBuckets() {
+        ReferenceOpenHashSet<Entity>[] buckets = new ReferenceOpenHashSet[RewindConfig.ENTITY_KEYFRAME_INTERVAL_TICKS];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ReferenceOpenHashSet<>();
+        }
+        return buckets;
+    }
+
+    private void clearDrifting() {
+        for (ReferenceOpenHashSet<Entity> bucket : drifting) {
+            bucket.clear();
+        }
+    }
+
+    /**
+     * Recording is paused for this world: drop this tick's marks and take a fresh baseline on resume.
+     */
+    void pause() {
+        flush(null);
+        discardDirty();
+        clearDrifting();
+        synced = false;
+    }
+
+    /**
+     * Join a pending diff and add its updates to the current frame.
+     * With a null manager (not recording) the updates are dropped.
+     */
+    void flush(@Nullable TimelineManager manager) {
+        if (pendingDiff == null) {
+            return;
+        }
+        EntityUpdateLog updates;
+        try {
+            updates = pendingDiff.join();
+        } catch (RuntimeException e) {
+            LOGGER.error("Entity diff failed for {}", dimension.getValue(), e);
+            return;
+        } finally {
+            pendingDiff = null;
+        }
+        if (manager != null) {
+            addUpdates(manager, updates);
+        }
+    }
+
+    /**
+     * An entity was added to the world. True spawns near a player are recorded; others only get a baseline.
+     */
+    void recordLoad(Entity entity, boolean spawned, TimelineManager manager) {
+        flush(manager);
+
+        int handle = manager.getEntityRegistry().handleOf(entity);
+        int slot = states.slotOf(handle);
+        if (slot < 0) {
+            slot = states.add(handle, entity);
+        } else {
+            states.capture(slot, entity);
+        }
+
+        if (spawned && isRecorded(entity)) {
+            states.setFullData(slot, EntityStateTable.writeFullData(entity));
+            Identifier entityType = Registries.ENTITY_TYPE.getId(entity.getType());
+            addDelta(manager, EntityDelta.spawn(dimension, handle, entityType, states.toNbt(slot)));
+        }
+    }
+
+    /**
+     * An entity left the world. Records a despawn, with the entity's full saved data,
+     * if it was tracked and the manager is recording.
+     */
+    void recordRemoval(Entity entity, boolean despawned, EntityRegistry registry, @Nullable TimelineManager manager) {
+        flush(manager);
+
+        // An entity without a handle was never captured, so it cannot be in the table
+        int handle = registry.find(entity);
+        if (handle < 0 || !states.contains(handle)) {
+            return;
+        }
+        states.remove(handle);
+
+        if (despawned && manager != null) {
+            Identifier entityType = Registries.ENTITY_TYPE.getId(entity.getType());
+            addDelta(manager, EntityDelta.despawn(dimension, handle, entityType, EntityStateTable.snapshot(entity)));
+        }
+    }
+
+    /**
+     * A drop (item or XP orb) was spawned near a player: record it into the frame's DropLog.
+     */
+    void recordDropSpawn(Entity entity, TimelineManager manager) {
+        if (!isRecorded(entity)) {
+            return;
+        }
+        int prototype = dropPrototype(entity, manager);
+        TickFrame frame = manager.frameForRecording(dimension);
+        if (prototype >= 0 && frame != null) {
+            frame.addDropSpawn(manager.getEntityRegistry().handleOf(entity), dropKind(entity), prototype,
+                    ((TrackedDrop) entity).rewind$getDropCount(), entity.getX(), entity.getY(), entity.getZ());
+        }
+    }
+
+    /**
+     * A drop was killed, picked up, merged away or despawned.
+     * A drop emptied by the change that removed it is recorded with its count from before that change.
+     */
+    void recordDropDespawn(Entity entity, TimelineManager manager) {
+        if (!isRecorded(entity)) {
+            return;
+        }
+        TrackedDrop drop = (TrackedDrop) entity;
+        int count = drop.rewind$getDropCount();
+        if (count == 0 && drop.rewind$getCountBefore() > 0) {
+            count = drop.rewind$getCountBefore();
+        }
+        int prototype = dropPrototype(entity, manager);
+        TickFrame frame = manager.frameForRecording(dimension);
+        if (prototype >= 0 && frame != null) {
+            frame.addDropDespawn(manager.getEntityRegistry().handleOf(entity), dropKind(entity), prototype,
+                    count, entity.getX(), entity.getY(), entity.getZ());
+        }
+    }
+
+    /**
+     * A drop's stack size or orb amount changed (merge, partial pickup, hopper).
+     */
+    void recordDropCount(Entity entity, int oldCount, int newCount, TimelineManager manager) {
+        if (!isRecorded(entity)) {
+            return;
+        }
+        int prototype = dropPrototype(entity, manager);
+        TickFrame frame = manager.frameForRecording(dimension);
+        if (prototype >= 0 && frame != null) {
+            frame.addDropCountChange(manager.getEntityRegistry().handleOf(entity), dropKind(entity), prototype,
+                    oldCount, newCount, entity.getX(), entity.getY(), entity.getZ());
+        }
+    }
+
+    private static byte dropKind(Entity entity) {
+        return entity instanceof ExperienceOrbEntity ? DropLog.KIND_ORB : DropLog.KIND_ITEM;
+    }
+
+    /**
+     * Item prototype id (interning the current stack, or the remembered prototype once the stack
+     * is empty), or the XP value of an orb. -1 if an emptied item was never seen intact.
+     */
+    private static int dropPrototype(Entity entity, TimelineManager manager) {
+        if (entity instanceof ExperienceOrbEntity orb) {
+            return orb.getValue();
+        }
+        ItemPrototypePool pool = manager.getItemPrototypes();
+        TrackedDrop drop = (TrackedDrop) entity;
+        ItemStack stack = ((ItemEntity) entity).getStack();
+        if (!stack.isEmpty()) {
+            int id = pool.intern(stack);
+            drop.rewind$setPrototype(pool.get(id));
+            return id;
+        }
+        ItemStack prototype = drop.rewind$getPrototype();
+        return prototype != null ? pool.intern(prototype) : -1;
+    }
+
+    /**
+     * Whether the entity with this handle has a recorded state. Call only with no diff pending (after flush).
+     */
+    boolean isTracked(int handle) {
+        return states.contains(handle);
+    }
+
+    /**
+     * Drop all state, including a pending diff.
+     */
+    void clear() {
+        flush(null);
+        states.clear();
+        discardDirty();
+        clearDrifting();
+        recordedChunks.clear();
+        playerChunks.clear();
+        synced = false;
+    }
+
+    /**
+     * Whether the entity's chunk is near a player (or recording is not restricted).
+     */
+    private boolean isRecorded(Entity entity) {
+        return isChunkRecorded(ChunkPos.toLong(ChunkSectionPos.getSectionCoord(entity.getBlockX()),
+                ChunkSectionPos.getSectionCoord(entity.getBlockZ())));
+    }
+
+    /**
+     * Whether a chunk is near a player (or recording is not restricted).
+     */
+    private boolean isChunkRecorded(long chunk) {
+        return RewindConfig.ENTITY_RECORDING_RADIUS_CHUNKS < 0 || recordedChunks.containsKey(chunk);
+    }
+
+    /**
+     * Move each player's coverage square when the player changed chunk, joined or left the world.
+     * Costs nothing while players stay within their chunks.
+     */
+    private void updateRecordedChunks(ServerWorld world) {
+        if (RewindConfig.ENTITY_RECORDING_RADIUS_CHUNKS < 0) {
+            return;
+        }
+        Object2LongOpenHashMap<UUID> current = scratchPlayerChunks;
+        for (ServerPlayerEntity player : world.getPlayers()) {
+            UUID uuid = player.getUuid();
+            long chunk = player.getChunkPos().toLong();
+            long previous = playerChunks.removeLong(uuid);
+            if (previous != chunk) {
+                if (previous != NO_CHUNK) {
+                    cover(previous, -1);
+                }
+                cover(chunk, 1);
+            }
+            current.put(uuid, chunk);
+        }
+        // Whoever is left did not tick in this world
+        LongIterator left = playerChunks.values().iterator();
+        while (left.hasNext()) {
+            cover(left.nextLong(), -1);
+        }
+        playerChunks.clear();
+        scratchPlayerChunks = playerChunks;
+        playerChunks = current;
+    }
+
+    private void cover(long center, int delta) {
+        int radius = RewindConfig.ENTITY_RECORDING_RADIUS_CHUNKS;
+        int centerX = ChunkPos.getPackedX(center);
+        int centerZ = ChunkPos.getPackedZ(center);
+        for (int x = centerX - radius; x <= centerX + radius; x++) {
+            for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                long chunk = ChunkPos.toLong(x, z);
+                if (recordedChunks.addTo(chunk, delta) + delta == 0) {
+                    recordedChunks.remove(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Diff the capture buffer against the state table. Runs on the diff task or inline.
+     * Outside keyframes, changes within the tolerances are not recorded; the entity is
+     * remembered as drifting instead and compared again at its next keyframe.
+     * An entry is a keyframe if it was captured with its full data.
+     */
+    private EntityUpdateLog diff(boolean baseline) {
+        EntityUpdateLog updates = new EntityUpdateLog();
+        try {
+            for (int i = 0; i < capture.size; i++) {
+                int slot = states.slotOf(capture.handles[i]);
+                if (slot < 0) {
+                    // Entity seen for the first time (e.g. recording just started) - baseline only.
+                    // Outside the baseline pass this is an entity that was constructed but never added to the world
+                    if (baseline) {
+                        states.add(capture, i);
+                    }
+                    continue;
+                }
+                boolean keyframe = capture.fullData[i] != null;
+                if (keyframe ? states.differs(slot, capture, i) : states.exceedsTolerance(slot, capture, i)) {
+                    // Existing entity changed - pack both sides into the log
+                    states.read(slot, diffOld);
+                    states.capture(slot, capture, i);
+                    states.read(slot, diffNew);
+                    updates.add(capture.handles[i], diffOld, diffNew);
+                } else if (!keyframe && states.differs(slot, capture, i)) {
+                    drifting[keyframePhase(capture.handles[i])].add(capture.entities[i]);
+                }
+            }
+        } finally {
+            capture.clear();
+        }
+        return updates;
+    }
+
+    private void addUpdates(TimelineManager manager, EntityUpdateLog updates) {
+        if (updates.size() == 0) {
+            return;
+        }
+        // Frames are created lazily on the first change, so idle ticks never allocate one
+        TickFrame frame = manager.frameForRecording(dimension);
+        if (frame != null) {
+            frame.addEntityUpdates(updates);
+        }
+    }
+
+    private void addDelta(TimelineManager manager, EntityDelta delta) {
+        TickFrame frame = manager.frameForRecording(dimension);
+        if (frame != null) {
+            frame.addEntityDelta(delta);
+        }
+    }
+
+    private void discardDirty() {
+        for (Entity entity : dirty) {
+            ((DirtyTrackedEntity) entity).rewind$setDirty(false);
+        }
+        dirty.clear();
+    }
+}
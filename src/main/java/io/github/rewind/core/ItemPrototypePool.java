@@ -0,0 +1,115 @@
+package io.github.rewind.core;
+
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenCustomHashMap;
+import net.minecraft.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Pool of ItemStack prototypes (item + components, count 1) referenced by id from DropLog entries,
+ * so a recorded item drop stores an int instead of a stack or its NBT.
+ *
+ * Stacks are keyed by item and component hash; ids are freed, like EntityRegistry handles, once
+ * unused for longer than the history window.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+final class ItemPrototypePool {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final Hash.Strategy<ItemStack> ITEM_AND_COMPONENTS = new Hash.Strategy<>() {
+        @Override
+        public int hashCode(@Nullable ItemStack stack) {
+            return ItemStack.hashCode(stack);
+        }
+
+        @Override
+        public boolean equals(@Nullable ItemStack a, @Nullable ItemStack b) {
+            return a == b || (a != null && b != null && ItemStack.areItemsAndComponentsEqual(a, b));
+        }
+    };
+
+    private final Object2IntOpenCustomHashMap<ItemStack> ids = new Object2IntOpenCustomHashMap<>(ITEM_AND_COMPONENTS);
+    private final IntArrayList freeIds = new IntArrayList();
+    private int idLimit = 0;                        // Ids ever handed out (high-water mark)
+
+    private ItemStack[] prototypes = new ItemStack[INITIAL_CAPACITY];
+    private long[] lastUsed = new long[INITIAL_CAPACITY];
+
+    private final long retentionTicks;
+    private long currentTime = 0;
+
+    ItemPrototypePool(long retentionTicks) {
+        this.retentionTicks = retentionTicks;
+        ids.defaultReturnValue(-1);
+    }
+
+    void setTime(long gameTime) {
+        currentTime = gameTime;
+    }
+
+    /**
+     * The pooled count-1 copy of a stack's item and components. The result must not be modified.
+     */
+    ItemStack prototypeOf(ItemStack stack) {
+        return prototypes[intern(stack)];
+    }
+
+    /**
+     * Id of a stack's item and components, pooled on first use. Marks the id as used now.
+     */
+    int intern(ItemStack stack) {
+        int id = ids.getInt(stack);
+        if (id < 0) {
+            if (!freeIds.isEmpty()) {
+                id = freeIds.popInt();
+            } else {
+                if (idLimit == prototypes.length) {
+                    prototypes = Arrays.copyOf(prototypes, prototypes.length * 2);
+                    lastUsed = Arrays.copyOf(lastUsed, lastUsed.length * 2);
+                }
+                id = idLimit++;
+            }
+            ItemStack prototype = stack.copyWithCount(1);
+            prototypes[id] = prototype;
+            ids.put(prototype, id);
+        }
+        lastUsed[id] = currentTime;
+        return id;
+    }
+
+    /**
+     * Prototype for an id, or null if it is not assigned. The result must not be modified.
+     */
+    @Nullable
+    ItemStack get(int id) {
+        return id >= 0 && id < idLimit ? prototypes[id] : null;
+    }
+
+    /**
+     * Free ids unused for longer than the retention period.
+     * @return Number of ids freed
+     */
+    int sweep() {
+        long cutoff = currentTime - retentionTicks;
+        int freed = 0;
+        for (int id = 0; id < idLimit; id++) {
+            ItemStack prototype = prototypes[id];
+            if (prototype == null || lastUsed[id] >= cutoff) {
+                continue;
+            }
+            ids.removeInt(prototype);
+            prototypes[id] = null;
+            freeIds.add(id);
+            freed++;
+        }
+        return freed;
+    }
+
+    int size() {
+        return ids.size();
+    }
+}
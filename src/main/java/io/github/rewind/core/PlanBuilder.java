@@ -0,0 +1,144 @@
+package io.github.rewind.core;
+
+import io.github.rewind.data.EntityUpdateLog;
+import io.github.rewind.data.NbtBlob;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.block.BlockState;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mutable accumulator for a RewindPlan spanning one or more dimensions.
+ * Each dimension's WindowIndex exports into it; {@link #build()} freezes the result.
+ */
+final class PlanBuilder {
+    final Map<RewindPlan.BlockKey, BlockState> blockTargetStates = new LinkedHashMap<>();
+    final Map<RewindPlan.BlockKey, NbtBlob> blockEntityTargetNbts = new LinkedHashMap<>();
+    final Map<RewindPlan.BlockKey, NbtCompound> standaloneBeTargetNbts = new LinkedHashMap<>();
+    final Map<RewindPlan.BlockKey, List<RewindPlan.SlotTarget>> inventorySlotTargets = new LinkedHashMap<>();
+    final IntSet entitiesToRemove = new IntOpenHashSet();
+    private final Int2ObjectMap<RewindPlan.EntitySpawnInfo> entitiesToRespawn = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectMap<NbtCompound> entityTargetStates = new Int2ObjectOpenHashMap<>();
+    // Game time of each entity's chosen respawn and target state; an entity can have both in several dimensions
+    private final Int2LongMap respawnTimes = new Int2LongOpenHashMap();
+    private final Int2LongMap targetTimes = new Int2LongOpenHashMap();
+    // Game time of each entity's oldest spawn in any dimension
+    private final Int2LongMap spawnTimes = new Int2LongOpenHashMap();
+    final Map<RewindPlan.ChunkKey, List<RewindPlan.DropSpawn>> dropsToRespawn = new LinkedHashMap<>();
+    final Int2IntMap dropTargetCounts = new Int2IntOpenHashMap();
+
+    private long spanStart = Long.MAX_VALUE;
+    private long spanEnd = Long.MIN_VALUE;
+
+    /**
+     * Widen the planned span to cover [start, end) in game ticks.
+     */
+    void includeSpan(long start, long end) {
+        spanStart = Math.min(spanStart, start);
+        spanEnd = Math.max(spanEnd, end);
+    }
+
+    /**
+     * Add a drop to respawn, batched with the other drops of its chunk.
+     */
+    void addDropRespawn(RegistryKey<World> dimension, RewindPlan.DropSpawn drop) {
+        long chunk = ChunkPos.toLong(ChunkSectionPos.getSectionCoord(MathHelper.floor(drop.x())),
+                ChunkSectionPos.getSectionCoord(MathHelper.floor(drop.z())));
+        dropsToRespawn.computeIfAbsent(new RewindPlan.ChunkKey(dimension, chunk), key -> new ArrayList<>()).add(drop);
+    }
+
+    /**
+     * Add the oldest spawn of an entity in one dimension.
+     */
+    void addEntitySpawn(int handle, long gameTime) {
+        if (!spawnTimes.containsKey(handle) || gameTime < spawnTimes.get(handle)) {
+            spawnTimes.put(handle, gameTime);
+        }
+    }
+
+    /**
+     * Add the oldest despawn of an entity in one dimension. An entity that changed dimension has
+     * despawns in several; the oldest across all of them is respawned.
+     */
+    void addEntityRespawn(int handle, long gameTime, RewindPlan.EntitySpawnInfo info) {
+        if (!respawnTimes.containsKey(handle) || gameTime < respawnTimes.get(handle)) {
+            respawnTimes.put(handle, gameTime);
+            entitiesToRespawn.put(handle, info);
+        }
+    }
+
+    /**
+     * Add the oldest recorded state of an entity in one dimension; the oldest across all dimensions
+     * is its target. Only the chosen one is turned into NBT.
+     */
+    void addEntityTarget(int handle, long gameTime, EntityUpdateLog.State state) {
+        if (!targetTimes.containsKey(handle) || gameTime < targetTimes.get(handle)) {
+            targetTimes.put(handle, gameTime);
+            entityTargetStates.put(handle, state.toNbt());
+        }
+    }
+
+    /**
+     * Add a slot to restore, grouped with the other slots of its block entity.
+     */
+    void addSlotTarget(RewindPlan.BlockKey key, RewindPlan.SlotTarget slot) {
+        inventorySlotTargets.computeIfAbsent(key, k -> new ArrayList<>()).add(slot);
+    }
+
+    /**
+     * Order each entity's spawns and despawns across dimensions. A spawned entity is removed; if it
+     * despawned no later than its oldest spawn (a dimension change despawns and spawns in the same
+     * tick), it existed before the window and its original is respawned in its source dimension.
+     * A target state only applies to the respawned entity if it predates the despawn.
+     */
+    private void resolveEntities() {
+        for (Int2LongMap.Entry e : spawnTimes.int2LongEntrySet()) {
+            int handle = e.getIntKey();
+            entitiesToRemove.add(handle);
+            if (respawnTimes.containsKey(handle) && respawnTimes.get(handle) > e.getLongValue()) {
+                entitiesToRespawn.remove(handle);
+                entityTargetStates.remove(handle);
+            }
+        }
+        for (Int2LongMap.Entry e : respawnTimes.int2LongEntrySet()) {
+            int handle = e.getIntKey();
+            if (entitiesToRespawn.containsKey(handle) && targetTimes.containsKey(handle)
+                    && targetTimes.get(handle) >= e.getLongValue()) {
+                entityTargetStates.remove(handle);
+            }
+        }
+    }
+
+    RewindPlan build() {
+        resolveEntities();
+        int tickCount = spanStart <= spanEnd ? (int) (spanEnd - spanStart) : 0;
+        return new RewindPlan(
+                tickCount,
+                blockTargetStates,
+                blockEntityTargetNbts,
+                standaloneBeTargetNbts,
+                inventorySlotTargets,
+                entitiesToRemove,
+                entitiesToRespawn,
+                entityTargetStates,
+                dropsToRespawn,
+                dropTargetCounts
+        );
+    }
+}
@@ -1,41 +1,50 @@
 package io.github.rewind.core;
 
-import io.github.rewind.data.BlockDelta;
-import io.github.rewind.data.BlockEntityDelta;
+import io.github.rewind.RewindMod;
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.DropLog;
 import io.github.rewind.data.EntityDelta;
-import io.github.rewind.data.TickFrame;
-import net.minecraft.block.Block;
-import net.minecraft.block.BlockState;
-import net.minecraft.block.entity.BlockEntity;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityType;
+import net.minecraft.entity.ExperienceOrbEntity;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.entity.SpawnReason;
+import net.minecraft.entity.ItemEntity;
+import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.registry.Registries;
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKey;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ChunkTicketType;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.storage.NbtReadView;
-import net.minecraft.storage.ReadView;
 import net.minecraft.text.Text;
 import net.minecraft.util.ErrorReporter;
+import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
 import net.minecraft.util.math.Vec3d;
-import net.minecraft.world.chunk.WorldChunk;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Executes the rewind operation by applying deltas in reverse order.
  * Handles all the complexity of restoring world state safely.
- * Supports plan-only mode for preview (dry-run).
+ * Plans are built by TimelineManager.buildRewindPlan, which preview (dry-run) shares,
+ * and applied incrementally by a RewindJob.
  */
 public class RewindExecutor {
     private static final Logger LOGGER = LoggerFactory.getLogger("Rewind");
 
+    // Chunk ticket keeping chunks a rewind touches loaded until the job finishes (no expiry; removed explicitly)
+    private static ChunkTicketType prefetchTicketType;
+
     /**
      * Result of a rewind operation.
      */
@@ -64,206 +73,105 @@ public class RewindExecutor {
     }
 
     /**
-     * Build a rewind plan from frames (no world modification).
+     * Start a rewind operation.
+     * The plan is applied by a RewindJob over successive ticks, at most
+     * RewindConfig.REWIND_TICK_BUDGET_MS per tick; recording stays suspended until it finishes.
+     * The first slice runs immediately, so small plans complete before this returns.
+     *
+     * @param server  The Minecraft server
+     * @param seconds Number of seconds to rewind (1-30)
+     * @param dimensions Dimensions to rewind, or null for all
+     * @param onComplete Receives the result once the rewind finishes or is rejected
+     * @return True if the rewind was started
      */
-    public static RewindPlan buildPlan(List<TickFrame> frames) {
-        Set<UUID> entitiesToRemove = new HashSet<>();
-        Map<UUID, RewindPlan.EntitySpawnInfo> entitiesToRespawn = new HashMap<>();
-        Map<UUID, NbtCompound> entityTargetStates = new HashMap<>();
-
-        for (TickFrame frame : frames) {
-            for (EntityDelta delta : frame.getEntityDeltas()) {
-                switch (delta.type()) {
-                    case SPAWN -> entitiesToRemove.add(delta.entityId());
-                    case DESPAWN -> {
-                        if (delta.oldState() != null && delta.entityType() != null) {
-                            entitiesToRespawn.put(delta.entityId(),
-                                    new RewindPlan.EntitySpawnInfo(delta.dimension(), delta.entityType(), delta.oldState()));
-                        }
-                    }
-                    case UPDATE -> {
-                        if (delta.oldState() != null) {
-                            entityTargetStates.put(delta.entityId(), delta.oldState());
-                        }
-                    }
-                }
-            }
+    public static boolean execute(MinecraftServer server, int seconds,
+            @Nullable Collection<RegistryKey<World>> dimensions, Consumer<RewindResult> onComplete) {
+        TimelineManager manager = TimelineManager.getInstance();
+        if (manager == null) {
+            onComplete.accept(new RewindResult(false, 0, 0, 0, 0, 0, List.of("Timeline system not initialized")));
+            return false;
         }
 
-        Map<RewindPlan.BlockKey, BlockState> blockTargetStates = new LinkedHashMap<>();
-        Map<RewindPlan.BlockKey, NbtCompound> blockEntityTargetNbts = new LinkedHashMap<>();
-        for (TickFrame frame : frames) {
-            for (BlockDelta delta : frame.getBlockDeltas()) {
-                RewindPlan.BlockKey key = new RewindPlan.BlockKey(delta.dimension(), delta.packedPos());
-                blockTargetStates.put(key, delta.oldState());
-                if (delta.oldBlockEntityNbt() != null) {
-                    blockEntityTargetNbts.put(key, delta.oldBlockEntityNbt());
-                }
-            }
+        if (manager.isRewinding()) {
+            onComplete.accept(new RewindResult(false, 0, 0, 0, 0, 0, List.of("Rewind already in progress")));
+            return false;
         }
 
-        Map<RewindPlan.BlockKey, NbtCompound> standaloneBeTargetNbts = new LinkedHashMap<>();
-        for (TickFrame frame : frames) {
-            for (BlockEntityDelta delta : frame.getBlockEntityDeltas()) {
-                RewindPlan.BlockKey key = new RewindPlan.BlockKey(delta.dimension(), delta.packedPos());
-                standaloneBeTargetNbts.put(key, delta.oldNbt());
+        int ticksToRewind = seconds * RewindConfig.TICKS_PER_SECOND;
+        RewindPlan plan = manager.buildRewindPlan(ticksToRewind, dimensions);
+        // Exact target tick; earlier than requested only if a compacted segment straddles it
+        long targetTime = manager.resolveRewindTarget(ticksToRewind, dimensions);
+        int ticksRewound = (int) (manager.getCurrentTickTime() - targetTime);
+
+        if (plan.tickCount() == 0) {
+            if (manager.getBufferedTicks(dimensions) >= ticksToRewind) {
+                // Recorded throughout, nothing changed: already at the target
+                onComplete.accept(new RewindResult(true, ticksRewound, 0, 0, 0, 0, List.of()));
+                return true;
             }
+            onComplete.accept(new RewindResult(false, 0, 0, 0, 0, 0, List.of("No frames available to rewind")));
+            return false;
         }
 
-        return new RewindPlan(
-                frames.size(),
-                blockTargetStates,
-                blockEntityTargetNbts,
-                standaloneBeTargetNbts,
-                entitiesToRemove,
-                entitiesToRespawn,
-                entityTargetStates
-        );
+        LOGGER.info("Starting rewind of {} blocks ({} seconds, to tick {})",
+                plan.blockTargetStates().size(), seconds, targetTime);
+        // The rewound frames stay until the job is done; nothing is recorded in between
+        boolean wasRecording = manager.isRecording();
+        manager.setRewinding(true);
+        manager.setRecording(false);
+
+        RewindJob job = new RewindJob(server, plan, manager.getEntityRegistry(), manager.getItemPrototypes(),
+                ticksRewound, targetTime, dimensions, wasRecording, onComplete);
+        manager.setRewindJob(job);
+        runSlice(manager, job);
+        return true;
     }
 
     /**
-     * Apply a rewind plan to the world.
+     * Continue the active rewind job, if any.
+     * Called once per server tick.
      */
-    public static RewindResult applyPlan(MinecraftServer server, RewindPlan plan) {
-        List<String> warnings = new ArrayList<>();
-        int blocksRestored = 0;
-        int blockEntitiesRestored = 0;
-        int entitiesRestored = 0;
-        int entitiesRemoved = 0;
-
-        for (UUID entityId : plan.entitiesToRemove()) {
-            for (ServerWorld world : server.getWorlds()) {
-                Entity entity = world.getEntity(entityId);
-                if (entity != null) {
-                    entity.discard();
-                    entitiesRemoved++;
-                    break;
-                }
-            }
-        }
-
-        for (Map.Entry<UUID, NbtCompound> entry : plan.entityTargetStates().entrySet()) {
-            UUID entityId = entry.getKey();
-            if (plan.entitiesToRemove().contains(entityId)) continue;
-            Entity entity = findEntity(server, entityId);
-            if (entity != null) {
-                restoreEntityState(entity, entry.getValue());
-                entitiesRestored++;
-            }
-        }
-
-        for (Map.Entry<UUID, RewindPlan.EntitySpawnInfo> entry : plan.entitiesToRespawn().entrySet()) {
-            UUID entityId = entry.getKey();
-            if (plan.entitiesToRemove().contains(entityId)) continue;
-            RewindPlan.EntitySpawnInfo info = entry.getValue();
-            ServerWorld world = server.getWorld(info.dimension());
-            if (world == null) {
-                warnings.add("Cannot respawn entity: dimension not loaded");
-                continue;
-            }
-            if (world.getEntity(entityId) != null) continue;
-            Entity respawned = respawnEntity(world, info.entityType(), info.state(), entityId);
-            if (respawned != null) entitiesRestored++;
-            else warnings.add("Failed to respawn entity " + entityId);
-        }
-
-        for (Map.Entry<RewindPlan.BlockKey, BlockState> e : plan.blockTargetStates().entrySet()) {
-            RewindPlan.BlockKey key = e.getKey();
-            ServerWorld world = server.getWorld(key.dimension());
-            if (world == null) {
-                warnings.add("Cannot restore block: dimension not loaded");
-                continue;
-            }
-            BlockPos pos = BlockPos.fromLong(key.packedPos());
-            if (!ensureChunkLoaded(world, pos)) {
-                warnings.add("Cannot restore block at " + pos.toShortString() + ": chunk not loaded");
-                continue;
-            }
-            if (world.setBlockState(pos, e.getValue(), Block.NOTIFY_ALL | Block.FORCE_STATE)) {
-                blocksRestored++;
-            }
-            NbtCompound targetNbt = plan.blockEntityTargetNbts().get(key);
-            if (targetNbt != null) {
-                BlockEntity be = world.getBlockEntity(pos);
-                if (be != null) {
-                    ReadView readView = NbtReadView.create(ErrorReporter.EMPTY, world.getRegistryManager(), targetNbt);
-                    be.read(readView);
-                    be.markDirty();
-                    blockEntitiesRestored++;
-                }
-            }
-        }
-
-        for (Map.Entry<RewindPlan.BlockKey, NbtCompound> entry : plan.standaloneBeTargetNbts().entrySet()) {
-            RewindPlan.BlockKey key = entry.getKey();
-            if (plan.blockEntityTargetNbts().containsKey(key)) continue;
-            ServerWorld world = server.getWorld(key.dimension());
-            if (world == null) continue;
-            BlockPos pos = BlockPos.fromLong(key.packedPos());
-            if (!ensureChunkLoaded(world, pos)) continue;
-            BlockEntity be = world.getBlockEntity(pos);
-            if (be != null) {
-                ReadView readView = NbtReadView.create(ErrorReporter.EMPTY, world.getRegistryManager(), entry.getValue());
-                be.read(readView);
-                be.markDirty();
-                blockEntitiesRestored++;
-            }
+    public static void tick() {
+        TimelineManager manager = TimelineManager.getInstance();
+        if (manager == null || manager.getRewindJob() == null) {
+            return;
         }
-
-        return new RewindResult(true, plan.frameCount(), blocksRestored, blockEntitiesRestored,
-                entitiesRestored, entitiesRemoved, warnings);
+        runSlice(manager, manager.getRewindJob());
     }
 
     /**
-     * Execute a rewind operation.
-     *
-     * @param server  The Minecraft server
-     * @param seconds Number of seconds to rewind (1-30)
-     * @return Result of the operation
+     * Run one budgeted slice of a job. Once the plan is applied (or the job failed), the rewound
+     * frames are dropped, since the world no longer matches them either way, and recording
+     * returns to what it was before the rewind.
      */
-    public static RewindResult execute(MinecraftServer server, int seconds) {
-        TimelineManager manager = TimelineManager.getInstance();
-        if (manager == null) {
-            return new RewindResult(false, 0, 0, 0, 0, 0, List.of("Timeline system not initialized"));
-        }
-
-        if (manager.isRewinding()) {
-            return new RewindResult(false, 0, 0, 0, 0, 0, List.of("Rewind already in progress"));
-        }
-
-        int ticksToRewind = seconds * TimelineManager.TICKS_PER_SECOND;
-        List<TickFrame> frames = manager.getFramesForRewind(ticksToRewind);
-
-        if (frames.isEmpty()) {
-            return new RewindResult(false, 0, 0, 0, 0, 0, List.of("No frames available to rewind"));
-        }
-
-        LOGGER.info("Starting rewind of {} frames ({} seconds)", frames.size(), seconds);
-        RewindPlan plan = buildPlan(frames);
-        manager.setRewinding(true);
-        manager.setRecording(false);
-
+    private static void runSlice(TimelineManager manager, RewindJob job) {
+        RewindResult result;
         try {
-            RewindResult result = applyPlan(server, plan);
-            manager.removeRecentFrames(frames.size());
-            LOGGER.info("Rewind complete: {} blocks, {} BEs, {} entities restored, {} entities removed",
-                    result.blocksRestored(), result.blockEntitiesRestored(), result.entitiesRestored(), result.entitiesRemoved());
-            return result;
+            if (!job.step(RewindConfig.REWIND_TICK_BUDGET_MS * 1_000_000L)) {
+                return;
+            }
+            result = job.toResult();
+            LOGGER.info("Rewind complete over {} ticks: {} blocks, {} BEs, {} entities restored, {} entities removed",
+                    job.getTicksRun(), result.blocksRestored(), result.blockEntitiesRestored(),
+                    result.entitiesRestored(), result.entitiesRemoved());
         } catch (Exception e) {
             LOGGER.error("Rewind failed with exception", e);
-            return new RewindResult(false, 0, 0, 0, 0, 0, List.of("Exception: " + e.getMessage()));
-        } finally {
-            manager.setRewinding(false);
-            manager.setRecording(true);
-            TickRecorder.clearTrackingData();
+            result = new RewindResult(false, 0, 0, 0, 0, 0, List.of("Exception: " + e.getMessage()));
         }
-    }
 
+        job.releaseChunks();
+        manager.removeFramesAfter(job.getTargetTime(), job.getDimensions());
+        manager.setRewindJob(null);
+        manager.setRewinding(false);
+        manager.setRecording(job.wasRecording());
+        TickRecorder.clearTrackingData();
+        job.complete(result);
+    }
 
     /**
      * Find an entity by UUID across all worlds.
      */
-    private static Entity findEntity(MinecraftServer server, UUID entityId) {
+    static Entity findEntity(MinecraftServer server, UUID entityId) {
         for (ServerWorld world : server.getWorlds()) {
             Entity entity = world.getEntity(entityId);
             if (entity != null) {
@@ -275,8 +183,13 @@ public class RewindExecutor {
 
     /**
      * Restore an entity's state from NBT.
+     * Full saved data, when the state has it, is read first (equipment, name, AI state, ...);
+     * the recorded fields are then applied on top, since they may be newer.
      */
-    private static void restoreEntityState(Entity entity, NbtCompound state) {
+    static void restoreEntityState(Entity entity, NbtCompound state) {
+        state.getCompound(EntityDelta.FULL_DATA_KEY).ifPresent(fullData ->
+                entity.readData(NbtReadView.create(ErrorReporter.EMPTY, entity.getRegistryManager(), fullData)));
+
         // Restore position
         if (state.contains("X") && state.contains("Y") && state.contains("Z")) {
             double x = state.getDouble("X").orElse(entity.getX());
@@ -304,17 +217,14 @@ public class RewindExecutor {
             state.getFloat("Health").ifPresent(living::setHealth);
         }
 
-        // Note: For v1, we only restore position/velocity/health.
-        // Full NBT restoration (inventory, AI state, etc.) is deferred to v2.
-
         // Sync to clients
         entity.velocityDirty = true;
     }
 
     /**
-     * Respawn an entity that was despawned.
+     * Respawn an entity that was despawned, under its original UUID.
      */
-    private static Entity respawnEntity(ServerWorld world, net.minecraft.util.Identifier entityTypeId,
+    static Entity respawnEntity(ServerWorld world, Identifier entityTypeId,
             NbtCompound state, UUID targetUuid) {
         try {
             EntityType<?> entityType = Registries.ENTITY_TYPE.get(entityTypeId);
@@ -328,9 +238,9 @@ public class RewindExecutor {
             double y = state.getDouble("Y").orElse(64.0);
             double z = state.getDouble("Z").orElse(0.0);
 
-            // Ensure chunk is loaded
+            // The job prefetched this chunk; never load it synchronously here
             BlockPos pos = BlockPos.ofFloored(x, y, z);
-            if (!ensureChunkLoaded(world, pos)) {
+            if (!isChunkLoaded(world, pos)) {
                 LOGGER.warn("Cannot respawn entity: chunk not loaded at {}", pos);
                 return null;
             }
@@ -345,8 +255,9 @@ public class RewindExecutor {
             // Set position first
             entity.setPosition(x, y, z);
 
-            // Restore state
+            // Restore state (full data from the DESPAWN delta includes the UUID; older states may not)
             restoreEntityState(entity, state);
+            entity.setUuid(targetUuid);
 
             // Spawn the entity
             world.spawnEntity(entity);
@@ -360,17 +271,55 @@ public class RewindExecutor {
     }
 
     /**
-     * Ensure a chunk is loaded, force-loading if necessary.
+     * Recreate a recorded item entity or XP orb. The caller checks that its chunk is loaded.
+     * @param prototype Pooled item prototype (items only; copied, never modified)
+     * @return The spawned drop, or null if it could not be spawned
+     */
+    @Nullable
+    static Entity respawnDrop(ServerWorld world, RewindPlan.DropSpawn drop, int count,
+            @Nullable ItemStack prototype, UUID targetUuid) {
+        Entity entity;
+        if (drop.kind() == DropLog.KIND_ORB) {
+            entity = new ExperienceOrbEntity(world, drop.x(), drop.y(), drop.z(), drop.prototype());
+            ((TrackedDrop) entity).rewind$setDropCount(count);
+        } else {
+            if (prototype == null) {
+                return null;
+            }
+            entity = new ItemEntity(world, drop.x(), drop.y(), drop.z(), prototype.copyWithCount(count));
+        }
+        // Both constructors add a random toss velocity
+        entity.setVelocity(Vec3d.ZERO);
+        entity.setUuid(targetUuid);
+        return world.spawnEntity(entity) ? entity : null;
+    }
+
+    /**
+     * Check whether a chunk is loaded. Never loads it: rewind jobs prefetch the chunks they touch
+     * with tickets first, so a chunk still missing here could not be loaded in time.
+     */
+    static boolean isChunkLoaded(ServerWorld world, BlockPos pos) {
+        return world.getChunkManager().getWorldChunk(
+                ChunkSectionPos.getSectionCoord(pos.getX()), ChunkSectionPos.getSectionCoord(pos.getZ())) != null;
+    }
+
+    /**
+     * Register the chunk ticket type used to prefetch chunks for rewinds.
+     * Must be called once during mod initialization, before registries freeze.
      */
-    private static boolean ensureChunkLoaded(ServerWorld world, BlockPos pos) {
-        ChunkPos chunkPos = new ChunkPos(pos);
-        WorldChunk chunk = world.getChunkManager().getWorldChunk(chunkPos.x, chunkPos.z);
-        if (chunk != null) {
-            return true;
+    public static void registerTicketType() {
+        if (prefetchTicketType != null) {
+            throw new IllegalStateException("Rewind prefetch ticket type already registered");
         }
+        prefetchTicketType = Registry.register(Registries.TICKET_TYPE,
+                Identifier.of(RewindMod.MOD_ID, "rewind_prefetch"),
+                new ChunkTicketType(0L, ChunkTicketType.FOR_LOADING));
+    }
 
-        // Try to load the chunk
-        chunk = world.getChunk(chunkPos.x, chunkPos.z);
-        return chunk != null;
+    static ChunkTicketType getPrefetchTicketType() {
+        if (prefetchTicketType == null) {
+            throw new IllegalStateException("Rewind prefetch ticket type not registered; RewindMod.onInitialize has not run");
+        }
+        return prefetchTicketType;
     }
 }
@@ -0,0 +1,785 @@
+package io.github.rewind.core;
+
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.InventorySlotLog;
+import io.github.rewind.data.NbtBlob;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.entity.Entity;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.storage.NbtReadView;
+import net.minecraft.storage.ReadView;
+import net.minecraft.util.ErrorReporter;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.WorldChunk;
+import net.minecraft.world.chunk.light.ChunkLightProvider;
+import net.minecraft.world.chunk.light.LightingProvider;
+import net.minecraft.world.poi.PointOfInterestTypes;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * A rewind in progress: applies a RewindPlan over successive server ticks under a time budget.
+ * Phases run in the same order as a one-shot apply (entities first, then blocks, then
+ * standalone block entities), and each phase resumes where the previous slice stopped.
+ *
+ * Inventory block entities get their recorded slots restored through setStack in a last phase,
+ * after their other NBT (which is recorded without the items).
+ *
+ * Drops (item entities, XP orbs) get their own phases: counts of live drops are restored after
+ * entity states, and despawned drops are respawned one chunk batch at a time.
+ *
+ * Blocks are restored one chunk section at a time, written straight into the section's palette.
+ * Once the section is written, heightmaps are updated once per touched column, light checks are
+ * queued only where opacity or luminance changed, POIs are updated only where a point of interest
+ * state is involved, and clients are synced through the chunk holder, which batches the section's
+ * changes into one section-delta packet. Block callbacks, neighbor updates and shape updates then
+ * run, the latter two only at the edges of the written set. Positions where the old or new state
+ * has a block entity go through World.setBlockState in a second pass, so the block entity is
+ * created/removed the vanilla way next to its final neighbors.
+ *
+ * Before anything is applied, every chunk the plan touches is requested with a temporary chunk
+ * ticket and the job waits (without blocking the server thread) until they are all loaded, so
+ * loading runs on the chunk workers and the apply phases never hit disk. Tickets are released
+ * when the job finishes.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+public final class RewindJob {
+    private static final int OPERATIONS_PER_CLOCK_CHECK = 16;
+    private static final int PREFETCH_TICKET_RADIUS = 1; // Neighbors too, so light can propagate across the border
+    private static final int SHAPE_UPDATE_DEPTH = 511;  // What setBlockState's default depth of 512 passes on to neighbors
+
+    private enum Phase {
+        PREFETCH_CHUNKS,
+        REMOVE_ENTITIES,
+        RESTORE_ENTITIES,
+        RESTORE_DROP_COUNTS,
+        RESPAWN_ENTITIES,
+        RESPAWN_DROPS,
+        RESTORE_BLOCKS,
+        RESTORE_BLOCK_ENTITIES,
+        RESTORE_INVENTORIES,
+        DONE
+    }
+
+    private final MinecraftServer server;
+    private final RewindPlan plan;
+    private final EntityRegistry entityRegistry;    // Resolves the plan's entity handles
+    private final ItemPrototypePool itemPrototypes; // Resolves the plan's item drop prototypes
+    private final int ticksRewound;
+    private final long targetTime;  // Frames after this are dropped once the job is done
+    @Nullable
+    private final Collection<RegistryKey<World>> dimensions;    // Rewound dimensions, null for all
+    private final boolean wasRecording;                         // Recording flag to restore afterwards
+    private final Consumer<RewindExecutor.RewindResult> onComplete;
+
+    private final IntIterator removals;
+    private final Iterator<Int2ObjectMap.Entry<NbtCompound>> entityRestores;
+    private final Iterator<Int2IntMap.Entry> dropCountRestores;
+    private final Iterator<Int2ObjectMap.Entry<RewindPlan.EntitySpawnInfo>> respawns;
+    private final Iterator<Map.Entry<RewindPlan.ChunkKey, List<RewindPlan.DropSpawn>>> dropRespawns;
+    private final Iterator<SectionBatch> sectionRestores;
+    private final Iterator<Map.Entry<RewindPlan.BlockKey, NbtCompound>> blockEntityRestores;
+    private final Iterator<Map.Entry<RewindPlan.BlockKey, List<RewindPlan.SlotTarget>>> inventoryRestores;
+
+    // Chunks the plan touches, per dimension (ChunkPos longs); pending = not loaded yet
+    private final Map<RegistryKey<World>, LongSet> chunks;
+    private final Map<RegistryKey<World>, LongSet> pendingChunks = new HashMap<>();
+    private boolean ticketsAdded = false;
+    private int prefetchTicks = 0;
+
+    private Phase phase = Phase.PREFETCH_CHUNKS;
+    private final int totalOperations;
+    private int completedOperations = 0;
+    private int ticksRun = 0;
+
+    private final List<String> warnings = new ArrayList<>();
+    private int blocksRestored = 0;
+    private int blockEntitiesRestored = 0;
+    private int entitiesRestored = 0;
+    private int entitiesRemoved = 0;
+
+    RewindJob(MinecraftServer server, RewindPlan plan, EntityRegistry entityRegistry, ItemPrototypePool itemPrototypes,
+            int ticksRewound, long targetTime, @Nullable Collection<RegistryKey<World>> dimensions,
+            boolean wasRecording, Consumer<RewindExecutor.RewindResult> onComplete) {
+        this.server = server;
+        this.plan = plan;
+        this.entityRegistry = entityRegistry;
+        this.itemPrototypes = itemPrototypes;
+        this.ticksRewound = ticksRewound;
+        this.targetTime = targetTime;
+        this.dimensions = dimensions;
+        this.wasRecording = wasRecording;
+        this.onComplete = onComplete;
+        this.removals = plan.entitiesToRemove().iterator();
+        this.entityRestores = plan.entityTargetStates().int2ObjectEntrySet().iterator();
+        this.dropCountRestores = plan.dropTargetCounts().int2IntEntrySet().iterator();
+        this.respawns = plan.entitiesToRespawn().int2ObjectEntrySet().iterator();
+        this.dropRespawns = plan.dropsToRespawn().entrySet().iterator();
+        this.sectionRestores = groupBySection(plan.blockTargetStates()).iterator();
+        this.blockEntityRestores = plan.standaloneBeTargetNbts().entrySet().iterator();
+        this.inventoryRestores = plan.inventorySlotTargets().entrySet().iterator();
+        this.chunks = collectChunks(plan);
+        int dropCount = 0;
+        for (List<RewindPlan.DropSpawn> batch : plan.dropsToRespawn().values()) {
+            dropCount += batch.size();
+        }
+        int slotCount = 0;
+        for (List<RewindPlan.SlotTarget> slots : plan.inventorySlotTargets().values()) {
+            slotCount += slots.size();
+        }
+        this.totalOperations = plan.entitiesToRemove().size() + plan.entityTargetStates().size()
+                + plan.dropTargetCounts().size() + plan.entitiesToRespawn().size() + dropCount
+                + plan.blockTargetStates().size() + plan.standaloneBeTargetNbts().size() + slotCount;
+    }
+
+    /**
+     * Apply operations until the plan is done or the budget is used up.
+     * At least one operation is applied per call, so every slice makes progress.
+     * @param budgetNanos Time allowed for this slice
+     * @return True once the whole plan has been applied
+     */
+    boolean step(long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        ticksRun++;
+        if (phase == Phase.PREFETCH_CHUNKS) {
+            if (!prefetchChunks()) {
+                return false;
+            }
+            phase = Phase.REMOVE_ENTITIES;
+        }
+        int sinceClockCheck = 0;
+        while (phase != Phase.DONE) {
+            int applied = applyNext();
+            if (applied == 0) {
+                phase = Phase.values()[phase.ordinal() + 1];
+                continue;
+            }
+            completedOperations += applied;
+            sinceClockCheck += applied;
+            if (sinceClockCheck >= OPERATIONS_PER_CLOCK_CHECK) {
+                sinceClockCheck = 0;
+                if (System.nanoTime() >= deadline) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply the next operation of the current phase (a whole section for blocks, a whole chunk for drops,
+     * a whole block entity for inventory slots).
+     * @return Number of plan entries handled, 0 if the current phase has nothing left
+     */
+    private int applyNext() {
+        switch (phase) {
+            case REMOVE_ENTITIES -> {
+                if (!removals.hasNext()) return 0;
+                removeEntity(removals.nextInt());
+            }
+            case RESTORE_ENTITIES -> {
+                if (!entityRestores.hasNext()) return 0;
+                Int2ObjectMap.Entry<NbtCompound> entry = entityRestores.next();
+                restoreEntity(entry.getIntKey(), entry.getValue());
+            }
+            case RESTORE_DROP_COUNTS -> {
+                if (!dropCountRestores.hasNext()) return 0;
+                Int2IntMap.Entry entry = dropCountRestores.next();
+                restoreDropCount(entry.getIntKey(), entry.getIntValue());
+            }
+            case RESPAWN_ENTITIES -> {
+                if (!respawns.hasNext()) return 0;
+                Int2ObjectMap.Entry<RewindPlan.EntitySpawnInfo> entry = respawns.next();
+                respawnEntity(entry.getIntKey(), entry.getValue());
+            }
+            case RESPAWN_DROPS -> {
+                if (!dropRespawns.hasNext()) return 0;
+                Map.Entry<RewindPlan.ChunkKey, List<RewindPlan.DropSpawn>> entry = dropRespawns.next();
+                respawnDrops(entry.getKey(), entry.getValue());
+                return Math.max(1, entry.getValue().size());
+            }
+            case RESTORE_BLOCKS -> {
+                if (!sectionRestores.hasNext()) return 0;
+                SectionBatch batch = sectionRestores.next();
+                restoreSection(batch);
+                return batch.size();
+            }
+            case RESTORE_BLOCK_ENTITIES -> {
+                if (!blockEntityRestores.hasNext()) return 0;
+                Map.Entry<RewindPlan.BlockKey, NbtCompound> entry = blockEntityRestores.next();
+                restoreStandaloneBlockEntity(entry.getKey(), entry.getValue());
+            }
+            case RESTORE_INVENTORIES -> {
+                if (!inventoryRestores.hasNext()) return 0;
+                Map.Entry<RewindPlan.BlockKey, List<RewindPlan.SlotTarget>> entry = inventoryRestores.next();
+                restoreInventory(entry.getKey(), entry.getValue());
+                return Math.max(1, entry.getValue().size());
+            }
+            case PREFETCH_CHUNKS, DONE -> {
+                return 0;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Chunks every planned block, block entity, respawn and drop respawn falls in, per dimension.
+     */
+    private static Map<RegistryKey<World>, LongSet> collectChunks(RewindPlan plan) {
+        Map<RegistryKey<World>, LongSet> chunks = new HashMap<>();
+        for (RewindPlan.BlockKey key : plan.blockTargetStates().keySet()) {
+            addChunk(chunks, key.dimension(), key.packedPos());
+        }
+        for (RewindPlan.BlockKey key : plan.standaloneBeTargetNbts().keySet()) {
+            addChunk(chunks, key.dimension(), key.packedPos());
+        }
+        for (RewindPlan.BlockKey key : plan.inventorySlotTargets().keySet()) {
+            addChunk(chunks, key.dimension(), key.packedPos());
+        }
+        for (RewindPlan.EntitySpawnInfo info : plan.entitiesToRespawn().values()) {
+            int x = MathHelper.floor(info.state().getDouble("X").orElse(0.0));
+            int z = MathHelper.floor(info.state().getDouble("Z").orElse(0.0));
+            chunks.computeIfAbsent(info.dimension(), key -> new LongOpenHashSet())
+                    .add(ChunkPos.toLong(ChunkSectionPos.getSectionCoord(x), ChunkSectionPos.getSectionCoord(z)));
+        }
+        for (RewindPlan.ChunkKey key : plan.dropsToRespawn().keySet()) {
+            chunks.computeIfAbsent(key.dimension(), dimension -> new LongOpenHashSet()).add(key.packedChunkPos());
+        }
+        return chunks;
+    }
+
+    private static void addChunk(Map<RegistryKey<World>, LongSet> chunks, RegistryKey<World> dimension, long packedPos) {
+        chunks.computeIfAbsent(dimension, key -> new LongOpenHashSet()).add(ChunkPos.toLong(
+                ChunkSectionPos.getSectionCoord(BlockPos.unpackLongX(packedPos)),
+                ChunkSectionPos.getSectionCoord(BlockPos.unpackLongZ(packedPos))));
+    }
+
+    /**
+     * Ticket the plan's chunks on the first call, then check which have finished loading.
+     * Gives up waiting after RewindConfig.CHUNK_PREFETCH_TIMEOUT_TICKS; positions in chunks
+     * that are still missing are then skipped with a warning.
+     * @return True once every chunk is loaded (or the wait timed out)
+     */
+    private boolean prefetchChunks() {
+        if (!ticketsAdded) {
+            ticketsAdded = true;
+            for (Map.Entry<RegistryKey<World>, LongSet> entry : chunks.entrySet()) {
+                ServerWorld world = server.getWorld(entry.getKey());
+                if (world == null) {
+                    continue;
+                }
+                LongSet pending = new LongOpenHashSet();
+                LongIterator it = entry.getValue().iterator();
+                while (it.hasNext()) {
+                    long chunk = it.nextLong();
+                    int x = ChunkPos.getPackedX(chunk);
+                    int z = ChunkPos.getPackedZ(chunk);
+                    world.getChunkManager().addTicket(RewindExecutor.getPrefetchTicketType(), new ChunkPos(x, z), PREFETCH_TICKET_RADIUS);
+                    if (!world.getChunkManager().isChunkLoaded(x, z)) {
+                        pending.add(chunk);
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    pendingChunks.put(entry.getKey(), pending);
+                }
+            }
+        }
+
+        Iterator<Map.Entry<RegistryKey<World>, LongSet>> dimensions = pendingChunks.entrySet().iterator();
+        while (dimensions.hasNext()) {
+            Map.Entry<RegistryKey<World>, LongSet> entry = dimensions.next();
+            ServerWorld world = server.getWorld(entry.getKey());
+            if (world != null) {
+                entry.getValue().removeIf((long chunk) ->
+                        world.getChunkManager().isChunkLoaded(ChunkPos.getPackedX(chunk), ChunkPos.getPackedZ(chunk)));
+            }
+            if (world == null || entry.getValue().isEmpty()) {
+                dimensions.remove();
+            }
+        }
+
+        if (pendingChunks.isEmpty()) {
+            return true;
+        }
+        if (++prefetchTicks >= RewindConfig.CHUNK_PREFETCH_TIMEOUT_TICKS) {
+            warnings.add("Timed out waiting for " + getPendingChunkCount() + " chunks to load");
+            pendingChunks.clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove the prefetch tickets. Safe to call more than once.
+     */
+    void releaseChunks() {
+        if (!ticketsAdded) {
+            return;
+        }
+        ticketsAdded = false;
+        for (Map.Entry<RegistryKey<World>, LongSet> entry : chunks.entrySet()) {
+            ServerWorld world = server.getWorld(entry.getKey());
+            if (world == null) {
+                continue;
+            }
+            LongIterator it = entry.getValue().iterator();
+            while (it.hasNext()) {
+                world.getChunkManager().removeTicket(RewindExecutor.getPrefetchTicketType(),
+                        new ChunkPos(it.nextLong()), PREFETCH_TICKET_RADIUS);
+            }
+        }
+        pendingChunks.clear();
+    }
+
+    private void removeEntity(int handle) {
+        UUID entityId = entityRegistry.uuidOf(handle);
+        if (entityId == null) return;
+        for (ServerWorld world : server.getWorlds()) {
+            Entity entity = world.getEntity(entityId);
+            if (entity != null) {
+                entity.discard();
+                entitiesRemoved++;
+                break;
+            }
+        }
+    }
+
+    private void restoreEntity(int handle, NbtCompound state) {
+        if (plan.entitiesToRemove().contains(handle)) return;
+        UUID entityId = entityRegistry.uuidOf(handle);
+        if (entityId == null) return;
+        Entity entity = RewindExecutor.findEntity(server, entityId);
+        if (entity != null) {
+            RewindExecutor.restoreEntityState(entity, state);
+            entitiesRestored++;
+        }
+    }
+
+    /**
+     * Respawn an entity that existed before the window. If it came back later (e.g. through a portal),
+     * the plan also removes that copy, which REMOVE_ENTITIES already discarded.
+     */
+    private void respawnEntity(int handle, RewindPlan.EntitySpawnInfo info) {
+        UUID entityId = entityRegistry.uuidOf(handle);
+        if (entityId == null) {
+            warnings.add("Cannot respawn entity: unknown handle " + handle);
+            return;
+        }
+        ServerWorld world = server.getWorld(info.dimension());
+        if (world == null) {
+            warnings.add("Cannot respawn entity: dimension not loaded");
+            return;
+        }
+        if (world.getEntity(entityId) != null) return;
+        Entity respawned = RewindExecutor.respawnEntity(world, info.entityType(), info.state(), entityId);
+        if (respawned == null) {
+            warnings.add("Failed to respawn entity " + entityId);
+            return;
+        }
+        // The DESPAWN state is the entity at removal (e.g. dead); its oldest recorded state in the window
+        // was skipped by RESTORE_ENTITIES because the entity did not exist yet
+        NbtCompound target = plan.entityTargetStates().get(handle);
+        if (target != null) {
+            RewindExecutor.restoreEntityState(respawned, target);
+        }
+        entitiesRestored++;
+    }
+
+    private void restoreDropCount(int handle, int count) {
+        if (plan.entitiesToRemove().contains(handle)) return;
+        UUID entityId = entityRegistry.uuidOf(handle);
+        if (entityId == null) return;
+        Entity entity = RewindExecutor.findEntity(server, entityId);
+        if (entity instanceof TrackedDrop drop && count > 0) {
+            drop.rewind$setDropCount(count);
+            entitiesRestored++;
+        }
+    }
+
+    /**
+     * Respawn the despawned drops of one chunk.
+     */
+    private void respawnDrops(RewindPlan.ChunkKey key, List<RewindPlan.DropSpawn> drops) {
+        ServerWorld world = server.getWorld(key.dimension());
+        if (world == null) {
+            warnings.add("Cannot respawn drops: dimension not loaded");
+            return;
+        }
+        int chunkX = ChunkPos.getPackedX(key.packedChunkPos());
+        int chunkZ = ChunkPos.getPackedZ(key.packedChunkPos());
+        if (world.getChunkManager().getWorldChunk(chunkX, chunkZ) == null) {
+            warnings.add("Cannot respawn " + drops.size() + " drops in chunk " + chunkX + ", " + chunkZ
+                    + ": chunk not loaded");
+            return;
+        }
+        int failed = 0;
+        for (RewindPlan.DropSpawn drop : drops) {
+            if (plan.entitiesToRemove().contains(drop.entityHandle())) continue;
+            UUID entityId = entityRegistry.uuidOf(drop.entityHandle());
+            if (entityId == null || world.getEntity(entityId) != null) continue;
+            int count = plan.dropTargetCounts().getOrDefault(drop.entityHandle(), drop.count());
+            ItemStack prototype = itemPrototypes.get(drop.prototype());
+            if (RewindExecutor.respawnDrop(world, drop, count, prototype, entityId) != null) {
+                entitiesRestored++;
+            } else {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            warnings.add("Failed to respawn " + failed + " drops in chunk " + chunkX + ", " + chunkZ);
+        }
+    }
+
+    /**
+     * Group the plan's block targets by (dimension, chunk section), keeping plan order within each.
+     */
+    private static List<SectionBatch> groupBySection(Map<RewindPlan.BlockKey, BlockState> targets) {
+        Map<SectionKey, SectionBatch> batches = new LinkedHashMap<>();
+        for (Map.Entry<RewindPlan.BlockKey, BlockState> entry : targets.entrySet()) {
+            RewindPlan.BlockKey key = entry.getKey();
+            SectionKey sectionKey = new SectionKey(key.dimension(), ChunkSectionPos.fromBlockPos(key.packedPos()));
+            batches.computeIfAbsent(sectionKey, SectionBatch::new).add(key.packedPos(), entry.getValue());
+        }
+        return new ArrayList<>(batches.values());
+    }
+
+    /**
+     * Restore every planned block of one chunk section.
+     * The palette writes come first; the section-wide bookkeeping (heightmaps, light, POIs, client
+     * sync) then runs over the written positions, then the block callbacks and neighbor updates,
+     * and positions with block entities go through World.setBlockState last.
+     */
+    private void restoreSection(SectionBatch batch) {
+        ServerWorld world = server.getWorld(batch.key.dimension());
+        if (world == null) {
+            warnings.add("Cannot restore block: dimension not loaded");
+            return;
+        }
+        ChunkSectionPos sectionPos = ChunkSectionPos.from(batch.key.sectionPos());
+        if (!RewindExecutor.isChunkLoaded(world, sectionPos.getMinPos())) {
+            warnings.add("Cannot restore " + batch.size() + " blocks in section " + sectionPos.getMinPos().toShortString()
+                    + ": chunk not loaded");
+            return;
+        }
+
+        WorldChunk chunk = world.getChunk(sectionPos.getSectionX(), sectionPos.getSectionZ());
+        ChunkSection section = chunk.getSection(chunk.sectionCoordToIndex(sectionPos.getSectionY()));
+        boolean wasEmpty = section.isEmpty();
+
+        // Per column (z * 16 + x): highest changed local y + 1, or 0 if untouched
+        byte[] columnTops = new byte[16 * 16];
+        LongArrayList written = new LongArrayList();
+        List<BlockState> replaced = new ArrayList<>();
+        BitSet writtenInSection = new BitSet(16 * 16 * 16);
+        IntArrayList blockEntityPositions = new IntArrayList();    // Batch indices left for the second pass
+
+        for (int i = 0; i < batch.size(); i++) {
+            long packedPos = batch.positions.getLong(i);
+            BlockState state = batch.states.get(i);
+            int localX = BlockPos.unpackLongX(packedPos) & 15;
+            int localY = BlockPos.unpackLongY(packedPos) & 15;
+            int localZ = BlockPos.unpackLongZ(packedPos) & 15;
+
+            BlockState current = section.getBlockState(localX, localY, localZ);
+            if (current.hasBlockEntity() || state.hasBlockEntity()) {
+                blockEntityPositions.add(i);
+                continue;
+            }
+            if (current == state) {
+                continue;
+            }
+
+            section.setBlockState(localX, localY, localZ, state);   // Locks the palette like WorldChunk.setBlockState
+            written.add(packedPos);
+            replaced.add(current);
+            writtenInSection.set(sectionIndex(localX, localY, localZ));
+            blocksRestored++;
+
+            int column = localZ * 16 + localX;
+            columnTops[column] = (byte) Math.max(columnTops[column], localY + 1);
+        }
+
+        if (!written.isEmpty()) {
+            updateWrittenSection(world, chunk, section, sectionPos, wasEmpty, columnTops, written, replaced);
+            notifyWrittenBlocks(world, written, replaced, writtenInSection);
+        }
+
+        // Block entities need vanilla's create/remove handling; with the palette written they see
+        // their final neighbors
+        for (int j = 0; j < blockEntityPositions.size(); j++) {
+            int i = blockEntityPositions.getInt(j);
+            long packedPos = batch.positions.getLong(i);
+            BlockState state = batch.states.get(i);
+            BlockPos pos = BlockPos.fromLong(packedPos);
+            if (world.getBlockState(pos) != state && world.setBlockState(pos, state, Block.NOTIFY_ALL | Block.FORCE_STATE)) {
+                blocksRestored++;
+            }
+            // Also when the state already matches: a chest broken and placed back still needs its contents.
+            // Recorded snapshots stay encoded until here
+            NbtBlob targetNbt = plan.blockEntityTargetNbts().get(new RewindPlan.BlockKey(batch.key.dimension(), packedPos));
+            if (targetNbt != null && readBlockEntity(world, pos, targetNbt.decode())) {
+                blockEntitiesRestored++;
+            }
+        }
+    }
+
+    /**
+     * Section-wide bookkeeping after the palette writes of one section: heightmaps once per touched
+     * column (from its topmost change), the section's empty status, light checks where opacity or
+     * luminance changed, POI updates where either state is a point of interest, and the chunk
+     * holder marks that batch the section's changes into one section-delta packet.
+     */
+    private static void updateWrittenSection(ServerWorld world, WorldChunk chunk, ChunkSection section,
+                                             ChunkSectionPos sectionPos, boolean wasEmpty, byte[] columnTops,
+                                             LongArrayList written, List<BlockState> replaced) {
+        int minY = sectionPos.getMinY();
+        for (int column = 0; column < columnTops.length; column++) {
+            if (columnTops[column] == 0) {
+                continue;
+            }
+            int localX = column & 15;
+            int localZ = column >> 4;
+            int localY = columnTops[column] - 1;
+            BlockState top = section.getBlockState(localX, localY, localZ);
+            for (Map.Entry<Heightmap.Type, Heightmap> heightmap : chunk.getHeightmaps()) {
+                heightmap.getValue().trackUpdate(localX, minY + localY, localZ, top);
+            }
+        }
+
+        LightingProvider lighting = world.getChunkManager().getLightingProvider();
+        boolean isEmpty = section.isEmpty();
+        if (wasEmpty != isEmpty) {
+            lighting.setSectionStatus(sectionPos, isEmpty);
+        }
+
+        BlockPos.Mutable pos = new BlockPos.Mutable();
+        for (int i = 0; i < written.size(); i++) {
+            pos.set(written.getLong(i));
+            BlockState current = replaced.get(i);
+            BlockState state = section.getBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+            if (ChunkLightProvider.needsLightUpdate(current, state)) {
+                lighting.checkBlock(pos.toImmutable());
+            }
+            if (PointOfInterestTypes.isPointOfInterest(current) || PointOfInterestTypes.isPointOfInterest(state)) {
+                world.onBlockStateChanged(pos.toImmutable(), current, state);
+            }
+            world.getChunkManager().markForUpdate(pos);
+        }
+        chunk.markNeedsSaving();
+    }
+
+    /**
+     * The block callbacks and neighbor updates a NOTIFY_ALL setBlockState would have run, once the
+     * whole section is written: replaced/added callbacks (fluids and falling blocks schedule their
+     * ticks there), a fluid tick for every restored fluid, and a neighbor and shape update for each
+     * neighbor that was not itself written in this section. Neighbors inside the batch already hold
+     * their target state, shapes included, so only the batch's edges update.
+     */
+    private static void notifyWrittenBlocks(ServerWorld world, LongArrayList written, List<BlockState> replaced,
+                                            BitSet writtenInSection) {
+        BlockPos.Mutable neighbor = new BlockPos.Mutable();
+        for (int i = 0; i < written.size(); i++) {
+            BlockPos pos = BlockPos.fromLong(written.getLong(i));
+            BlockState current = replaced.get(i);
+            BlockState state = world.getBlockState(pos);
+
+            current.onStateReplaced(world, pos, false);
+            state.onBlockAdded(world, pos, current, false);
+            FluidState fluid = state.getFluidState();
+            if (!fluid.isEmpty()) {
+                world.scheduleFluidTick(pos, fluid.getFluid(), fluid.getFluid().getTickRate(world));
+            }
+
+            for (Direction direction : Direction.values()) {
+                neighbor.set(pos, direction);
+                if (ChunkSectionPos.getSectionCoord(neighbor.getX()) == ChunkSectionPos.getSectionCoord(pos.getX())
+                        && ChunkSectionPos.getSectionCoord(neighbor.getY()) == ChunkSectionPos.getSectionCoord(pos.getY())
+                        && ChunkSectionPos.getSectionCoord(neighbor.getZ()) == ChunkSectionPos.getSectionCoord(pos.getZ())
+                        && writtenInSection.get(sectionIndex(neighbor.getX() & 15, neighbor.getY() & 15, neighbor.getZ() & 15))) {
+                    continue;
+                }
+                world.updateNeighbor(neighbor, state.getBlock(), null);
+                // The shape update setBlockState skips under FORCE_STATE (fences, walls, stairs outside the batch)
+                world.replaceWithStateForNeighborUpdate(direction.getOpposite(), neighbor, pos, state,
+                        Block.NOTIFY_LISTENERS, SHAPE_UPDATE_DEPTH);
+            }
+        }
+    }
+
+    private static int sectionIndex(int localX, int localY, int localZ) {
+        return (localY << 8) | (localZ << 4) | localX;
+    }
+
+    /**
+     * Restore the NBT of a block entity edited in place. At positions whose block is restored too,
+     * the plan only has this target if the edits predate the block change, so it goes on top.
+     */
+    private void restoreStandaloneBlockEntity(RewindPlan.BlockKey key, NbtCompound nbt) {
+        ServerWorld world = server.getWorld(key.dimension());
+        if (world == null) return;
+        BlockPos pos = BlockPos.fromLong(key.packedPos());
+        if (!RewindExecutor.isChunkLoaded(world, pos)) return;
+        if (readBlockEntity(world, pos, nbt)) {
+            blockEntitiesRestored++;
+        }
+    }
+
+    /**
+     * Restore the recorded slots of one inventory block entity. At positions whose block is restored too,
+     * the plan only has slot targets if the slot changes predate the block change, so they go on top.
+     */
+    private void restoreInventory(RewindPlan.BlockKey key, List<RewindPlan.SlotTarget> slots) {
+        ServerWorld world = server.getWorld(key.dimension());
+        if (world == null) return;
+        BlockPos pos = BlockPos.fromLong(key.packedPos());
+        if (!RewindExecutor.isChunkLoaded(world, pos)) return;
+        if (!(world.getBlockEntity(pos) instanceof Inventory inventory)) return;
+        for (RewindPlan.SlotTarget slot : slots) {
+            if (slot.slot() >= inventory.size()) continue;
+            ItemStack prototype = slot.prototype() != InventorySlotLog.EMPTY ? itemPrototypes.get(slot.prototype()) : null;
+            inventory.setStack(slot.slot(), prototype != null ? prototype.copyWithCount(slot.count()) : ItemStack.EMPTY);
+        }
+        inventory.markDirty();
+        if (!plan.standaloneBeTargetNbts().containsKey(key)) {
+            blockEntitiesRestored++;
+        }
+    }
+
+    private static boolean readBlockEntity(ServerWorld world, BlockPos pos, NbtCompound nbt) {
+        BlockEntity be = world.getBlockEntity(pos);
+        if (be == null) {
+            return false;
+        }
+        // Inventory NBT is recorded without its items (see InventorySlotLog); keep the live stacks,
+        // since reading would otherwise empty the inventory. Recorded slots are restored afterwards.
+        List<ItemStack> stacks = null;
+        if (be instanceof Inventory inventory && !nbt.contains(InventorySlotLog.ITEMS_KEY)) {
+            stacks = new ArrayList<>(inventory.size());
+            for (int i = 0; i < inventory.size(); i++) {
+                stacks.add(inventory.getStack(i));
+            }
+        }
+        ReadView readView = NbtReadView.create(ErrorReporter.EMPTY, world.getRegistryManager(), nbt);
+        be.read(readView);
+        if (stacks != null) {
+            Inventory inventory = (Inventory) be;
+            for (int i = 0; i < stacks.size() && i < inventory.size(); i++) {
+                inventory.setStack(i, stacks.get(i));
+            }
+        }
+        be.markDirty();
+        return true;
+    }
+
+    /**
+     * Result so far (final once step has returned true).
+     */
+    RewindExecutor.RewindResult toResult() {
+        return new RewindExecutor.RewindResult(true, ticksRewound, blocksRestored, blockEntitiesRestored,
+                entitiesRestored, entitiesRemoved, warnings);
+    }
+
+    void complete(RewindExecutor.RewindResult result) {
+        onComplete.accept(result);
+    }
+
+    private record SectionKey(RegistryKey<World> dimension, long sectionPos) {}
+
+    /**
+     * Planned block targets within one chunk section.
+     */
+    private static final class SectionBatch {
+        final SectionKey key;
+        final LongArrayList positions = new LongArrayList();
+        final List<BlockState> states = new ArrayList<>();
+
+        SectionBatch(SectionKey key) {
+            this.key = key;
+        }
+
+        void add(long packedPos, BlockState state) {
+            positions.add(packedPos);
+            states.add(state);
+        }
+
+        int size() {
+            return positions.size();
+        }
+    }
+
+    // Progress info
+
+    public int getTotalOperations() {
+        return totalOperations;
+    }
+
+    public int getCompletedOperations() {
+        return completedOperations;
+    }
+
+    /**
+     * Chunks still loading before the apply phases can start.
+     */
+    public int getPendingChunkCount() {
+        int count = 0;
+        for (LongSet pending : pendingChunks.values()) {
+            count += pending.size();
+        }
+        return count;
+    }
+
+    public int getTicksRun() {
+        return ticksRun;
+    }
+
+    public int getTicksRewound() {
+        return ticksRewound;
+    }
+
+    long getTargetTime() {
+        return targetTime;
+    }
+
+    @Nullable
+    Collection<RegistryKey<World>> getDimensions() {
+        return dimensions;
+    }
+
+    boolean wasRecording() {
+        return wasRecording;
+    }
+}
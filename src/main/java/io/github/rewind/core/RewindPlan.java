@@ -1,30 +1,51 @@
 package io.github.rewind.core;
 
+import io.github.rewind.data.NbtBlob;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import net.minecraft.block.BlockState;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.registry.RegistryKey;
 import net.minecraft.util.Identifier;
 import net.minecraft.world.World;
 
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
 
 /**
  * Immutable plan describing what a rewind would do (block targets, entity ops).
  * Used for both execution and preview (dry-run).
+ * Entities are keyed by their EntityRegistry handle; the executor resolves UUIDs when it applies the plan.
+ * Spawned drops are removed through entitiesToRemove; despawned ones are respawned in per-chunk batches.
+ * Inventory block entities get their changed slots restored after their other NBT.
  */
 public record RewindPlan(
-        int frameCount,
+        int tickCount,                 // Ticks spanned by the planned frames (oldest start to newest end)
         Map<BlockKey, BlockState> blockTargetStates,
-        Map<BlockKey, NbtCompound> blockEntityTargetNbts,
+        Map<BlockKey, NbtBlob> blockEntityTargetNbts,   // Decoded when the block is restored
         Map<BlockKey, NbtCompound> standaloneBeTargetNbts,
-        Set<UUID> entitiesToRemove,
-        Map<UUID, EntitySpawnInfo> entitiesToRespawn,
-        Map<UUID, NbtCompound> entityTargetStates
+        Map<BlockKey, List<SlotTarget>> inventorySlotTargets,
+        IntSet entitiesToRemove,
+        Int2ObjectMap<EntitySpawnInfo> entitiesToRespawn,
+        Int2ObjectMap<NbtCompound> entityTargetStates,
+        Map<ChunkKey, List<DropSpawn>> dropsToRespawn,
+        Int2IntMap dropTargetCounts     // Drop handle -> stack size / orb amount to restore
 ) {
     public record BlockKey(RegistryKey<World> dimension, long packedPos) {}
 
+    /**
+     * An inventory slot to restore; prototype is an ItemStack pool id or InventorySlotLog.EMPTY.
+     */
+    public record SlotTarget(int slot, int prototype, int count) {}
+
+    public record ChunkKey(RegistryKey<World> dimension, long packedChunkPos) {}
+
+    /**
+     * An item entity or XP orb to recreate (see DropLog for kind and prototype).
+     */
+    public record DropSpawn(int entityHandle, byte kind, int prototype, int count, double x, double y, double z) {}
+
     public record EntitySpawnInfo(
             RegistryKey<World> dimension,
             Identifier entityType,
@@ -1,20 +1,23 @@
 package io.github.rewind.core;
 
-import io.github.rewind.data.BlockDelta;
-import io.github.rewind.data.BlockEntityDelta;
-import io.github.rewind.data.EntityDelta;
+import io.github.rewind.config.RewindConfig;
 import io.github.rewind.data.TickFrame;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.entity.BlockEntity;
 import net.minecraft.entity.Entity;
-import net.minecraft.entity.LivingEntity;
+import net.minecraft.entity.ItemEntity;
 import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.registry.Registries;
 import net.minecraft.registry.RegistryKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
 import net.minecraft.world.World;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -23,8 +26,6 @@ import org.slf4j.LoggerFactory;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Handles recording of world changes into TickFrames.
@@ -33,14 +34,14 @@ import java.util.concurrent.ConcurrentHashMap;
 public class TickRecorder {
     private static final Logger LOGGER = LoggerFactory.getLogger("Rewind");
     
-    // Track entity states from previous tick for diffing
-    private static final Map<UUID, NbtCompound> previousEntityStates = new HashMap<>();
+    // Entity recording state, one tracker per world
+    private static final Map<RegistryKey<World>, EntityTracker> entityTrackers = new HashMap<>();
+    // Block entity dirty sets and pre-images, one tracker per world
+    private static final Map<RegistryKey<World>, BlockEntityTracker> blockEntityTrackers = new HashMap<>();
     
-    // Track which entities existed at start of tick (for spawn detection)
-    private static final Set<UUID> entitiesAtTickStart = ConcurrentHashMap.newKeySet();
-    
-    // Track entities that were removed this tick (for despawn detection)
-    private static final Map<UUID, EntityRemovalInfo> removedEntitiesThisTick = new ConcurrentHashMap<>();
+    // How often unused entity handles are returned to the registry
+    private static final int HANDLE_SWEEP_INTERVAL_TICKS = 10 * RewindConfig.TICKS_PER_SECOND;
+    private static int ticksSinceHandleSweep = 0;
     
     // Entity types we exclude from tracking (players handled separately, some don't serialize well)
     private static final Set<String> EXCLUDED_ENTITY_TYPES = Set.of(
@@ -67,184 +68,343 @@ public class TickRecorder {
             return;
         }
         
-        TickFrame frame = manager.getCurrentFrame();
-        if (frame == null) {
-            manager.ensureCurrentFrame();
-            frame = manager.getCurrentFrame();
-            if (frame == null) {
-                return;
-            }
-        }
-        if (frame.isSealed()) {
+        if (oldState.equals(newState)) {
             return;
         }
         
-        if (oldState.equals(newState)) {
+        RegistryKey<World> dimension = world.getRegistryKey();
+        TickFrame frame = manager.frameForRecording(dimension);
+        if (frame == null) {
             return;
         }
         
         NbtCompound oldBENbt = null;
         NbtCompound newBENbt = null;
         
-        if (oldBlockEntity != null) {
+        // A repeat change to this position is folded into the frame's existing slot, which keeps
+        // the first old state - so only serialize the old block entity for the first change
+        boolean firstChangeThisTick = !frame.hasBlockChange(pos.asLong());
+        if (oldBlockEntity != null && firstChangeThisTick) {
             oldBENbt = oldBlockEntity.createNbt(world.getRegistryManager());
         }
         if (newBlockEntity != null) {
             newBENbt = newBlockEntity.createNbt(world.getRegistryManager());
         }
         
-        RegistryKey<World> dimension = world.getRegistryKey();
-        BlockDelta delta = BlockDelta.create(dimension, pos, oldState, newState, oldBENbt, newBENbt);
-        frame.addBlockDelta(delta);
+        // The frame encodes the compounds right away (no copy), so the trees are short-lived
+        frame.addBlockChange(pos.asLong(), oldState, newState, oldBENbt, newBENbt);
     }
 
     /**
-     * Record a block entity NBT change (in-place modification).
-     * Called when a block entity's data changes without a block state change.
+     * Queue a block entity for the end-of-tick diff of its world (in-place modification,
+     * e.g. chest contents or furnace progress).
+     * Called from BlockEntityMixin on the first markDirty of a tick.
      */
-    public static void recordBlockEntityChange(
-            World world,
-            BlockPos pos,
-            BlockEntity blockEntity,
-            NbtCompound oldNbt,
-            NbtCompound newNbt
-    ) {
-        if (world.isClient()) return;
-        
-        TimelineManager manager = TimelineManager.getInstance();
-        if (manager == null || !manager.isRecording() || manager.isRewinding() || manager.isFrozen()) {
+    public static void markBlockEntityDirty(ServerWorld world, BlockEntity blockEntity) {
+        TimelineManager manager = recordingManager();
+        if (manager == null) {
             return;
         }
+        blockEntityTrackerFor(world.getRegistryKey()).markDirty(blockEntity, world, manager);
+    }
+
+    /**
+     * Called at the end of each world tick: record the dirty block entities whose NBT or slots changed.
+     */
+    public static void endTickBlockEntityTracking(ServerWorld world) {
+        BlockEntityTracker tracker = blockEntityTrackerFor(world.getRegistryKey());
         
-        TickFrame frame = manager.getCurrentFrame();
-        if (frame == null || frame.isSealed()) {
+        TimelineManager manager = recordingManager();
+        if (manager == null) {
+            // Block entities may change unrecorded (or be rewound) now, so the pre-images go stale
+            tracker.pause();
             return;
         }
         
-        // Skip if NBT didn't actually change
-        if (oldNbt.equals(newNbt)) {
+        tracker.endTick(world, manager);
+    }
+
+    /**
+     * A block entity loaded with its chunk or was placed (BLOCK_ENTITY_LOAD): take its pre-image if it
+     * is within BLOCK_ENTITY_PRELOAD_RADIUS_CHUNKS of a player. Also while paused, since recording
+     * resumes from these pre-images.
+     */
+    public static void recordBlockEntityLoad(BlockEntity blockEntity, ServerWorld world) {
+        TimelineManager manager = TimelineManager.getInstance();
+        if (manager == null) {
             return;
         }
-        
-        Identifier beType = Registries.BLOCK_ENTITY_TYPE.getId(blockEntity.getType());
-        if (beType == null) {
+        if (!isNearPlayer(world, blockEntity.getPos(), RewindConfig.BLOCK_ENTITY_PRELOAD_RADIUS_CHUNKS)) {
             return;
         }
-        
-        RegistryKey<World> dimension = world.getRegistryKey();
-        BlockEntityDelta delta = BlockEntityDelta.create(dimension, pos, beType, oldNbt, newNbt);
-        frame.addBlockEntityDelta(delta);
+        blockEntityTrackerFor(world.getRegistryKey()).load(blockEntity, world, manager);
+    }
+
+    /**
+     * Whether a position is within radiusChunks chunks (square) of a player in the world; always
+     * true for a negative radius. Loops over the world's players, which chunk loads can afford.
+     */
+    private static boolean isNearPlayer(ServerWorld world, BlockPos pos, int radiusChunks) {
+        if (radiusChunks < 0) {
+            return true;
+        }
+        int chunkX = ChunkSectionPos.getSectionCoord(pos.getX());
+        int chunkZ = ChunkSectionPos.getSectionCoord(pos.getZ());
+        for (ServerPlayerEntity player : world.getPlayers()) {
+            long playerChunk = player.getChunkPos().toLong();
+            if (Math.abs(ChunkPos.getPackedX(playerChunk) - chunkX) <= radiusChunks
+                    && Math.abs(ChunkPos.getPackedZ(playerChunk) - chunkZ) <= radiusChunks) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Called at the start of each server tick to snapshot entity states.
+     * Called at the start of each server tick: once recording resumes, take the block entity pre-images
+     * again before the worlds tick, so the first change after a pause or rewind is recorded.
      */
-    public static void beginTickEntityTracking(ServerWorld world) {
+    public static void resumeBlockEntityTracking(MinecraftServer server) {
+        TimelineManager manager = recordingManager();
+        if (manager == null) {
+            return;
+        }
+        for (Map.Entry<RegistryKey<World>, BlockEntityTracker> entry : blockEntityTrackers.entrySet()) {
+            ServerWorld world = server.getWorld(entry.getKey());
+            if (world != null) {
+                entry.getValue().resume(world, manager);
+            }
+        }
+    }
+
+    /**
+     * A block entity was removed or its chunk unloaded: forget its pre-image.
+     */
+    public static void recordBlockEntityUnload(BlockEntity blockEntity, ServerWorld world) {
+        BlockEntityTracker tracker = blockEntityTrackers.get(world.getRegistryKey());
+        if (tracker != null) {
+            tracker.remove(blockEntity);
+        }
+    }
+
+    /**
+     * Called at the end of each world tick to detect entity changes.
+     * Only entities marked dirty this tick are diffed; large diffs run off-thread until flushEntityTracking.
+     */
+    public static void endTickEntityTracking(ServerWorld world) {
+        EntityTracker tracker = trackerFor(world.getRegistryKey());
+        
         TimelineManager manager = TimelineManager.getInstance();
         if (manager == null || !manager.isRecording() || manager.isRewinding() || manager.isFrozen()) {
+            // Changes made now are not recorded, so drop the marks and take a fresh baseline later
+            tracker.pause();
             return;
         }
         
-        // Record which entities exist at tick start
-        entitiesAtTickStart.clear();
-        removedEntitiesThisTick.clear();
+        tracker.endTick(world, manager);
+    }
+
+    /**
+     * Join every world's pending entity diff and add the deltas to the current frames.
+     * Called at the end of the server tick, before TimelineManager.endTick seals the frames.
+     * Periodically frees entity handles that no frame or tracker can refer to anymore.
+     */
+    public static void flushEntityTracking() {
+        TimelineManager manager = recordingManager();
+        for (EntityTracker tracker : entityTrackers.values()) {
+            tracker.flush(manager);
+        }
         
-        for (Entity entity : world.iterateEntities()) {
-            if (shouldTrackEntity(entity)) {
-                entitiesAtTickStart.add(entity.getUuid());
+        // Only while recording: a rewind in progress still resolves handles from its plan
+        if (manager != null && ++ticksSinceHandleSweep >= HANDLE_SWEEP_INTERVAL_TICKS) {
+            ticksSinceHandleSweep = 0;
+            int freed = manager.getEntityRegistry().sweep(TickRecorder::isEntityTracked);
+            int freedPrototypes = manager.getItemPrototypes().sweep();
+            if (freed > 0 || freedPrototypes > 0) {
+                LOGGER.debug("Freed {} entity handles and {} item prototypes", freed, freedPrototypes);
             }
         }
     }
 
     /**
-     * Called at the end of each server tick to detect entity changes.
+     * Queue an entity for the end-of-tick diff of its world.
+     * Called from EntityMixin the first time a tracked field changes in a tick.
      */
-    public static void endTickEntityTracking(ServerWorld world) {
-        TimelineManager manager = TimelineManager.getInstance();
-        if (manager == null || !manager.isRecording() || manager.isRewinding() || manager.isFrozen()) {
+    public static void markEntityDirty(ServerWorld world, Entity entity) {
+        if (TimelineManager.getInstance() == null) {
             return;
         }
+        if (entity instanceof TrackedDrop) {
+            // Drops are recorded through the DropLog, never diffed; leaving the flag set
+            // makes their setters skip this call from now on
+            ((DirtyTrackedEntity) entity).rewind$setDirty(true);
+            return;
+        }
+        trackerFor(world.getRegistryKey()).markDirty(entity);
+    }
+
+    /**
+     * Mark an entity as newly spawned before ServerWorld adds it.
+     * Called from ServerWorldMixin; entities loaded from chunk storage never pass through here.
+     */
+    public static void markEntitySpawning(Entity entity, boolean spawning) {
+        ((DirtyTrackedEntity) entity).rewind$setSpawning(spawning);
+    }
+
+    /**
+     * Called when an entity is added to a world (ENTITY_LOAD).
+     * True spawns are recorded into the current frame; entities loaded from disk only get a baseline.
+     */
+    public static void recordEntityLoad(Entity entity, ServerWorld world) {
+        DirtyTrackedEntity tracked = (DirtyTrackedEntity) entity;
+        boolean spawned = tracked.rewind$isSpawning();
+        tracked.rewind$setSpawning(false);
         
-        TickFrame frame = manager.getCurrentFrame();
-        if (frame == null || frame.isSealed()) {
+        if (entity instanceof TrackedDrop) {
+            // Drops loaded from disk need no baseline
+            TimelineManager manager = recordingManager();
+            if (spawned && manager != null) {
+                trackerFor(world.getRegistryKey()).recordDropSpawn(entity, manager);
+            }
             return;
         }
         
-        RegistryKey<World> dimension = world.getRegistryKey();
+        if (!shouldTrackEntity(entity)) return;
         
-        // Check for new entities (spawns) and state changes
-        for (Entity entity : world.iterateEntities()) {
-            if (!shouldTrackEntity(entity)) continue;
-            
-            UUID uuid = entity.getUuid();
-            NbtCompound currentState = serializeEntityState(entity);
-            
-            if (!entitiesAtTickStart.contains(uuid)) {
-                // New entity this tick - record spawn
-                Identifier entityType = Registries.ENTITY_TYPE.getId(entity.getType());
-                frame.addEntityDelta(EntityDelta.spawn(dimension, uuid, entityType, currentState));
-            } else {
-                // Existing entity - check for state change
-                NbtCompound previousState = previousEntityStates.get(uuid);
-                if (previousState != null && !previousState.equals(currentState)) {
-                    frame.addEntityDelta(EntityDelta.update(dimension, uuid, previousState, currentState));
-                }
+        TimelineManager manager = recordingManager();
+        if (manager == null) {
+            return;
+        }
+        
+        trackerFor(world.getRegistryKey()).recordLoad(entity, spawned, manager);
+    }
+
+    /**
+     * Called when an entity is removed from the world (ENTITY_UNLOAD).
+     * Killed, discarded and dimension-changing entities are recorded as despawns;
+     * entities unloaded with their chunk are only dropped from the state table.
+     */
+    public static void recordEntityRemoval(Entity entity, ServerWorld world) {
+        if (!shouldTrackEntity(entity) && !(entity instanceof TrackedDrop)) return;
+        
+        Entity.RemovalReason reason = entity.getRemovalReason();
+        boolean despawned = reason != null
+                && (reason.shouldDestroy() || reason == Entity.RemovalReason.CHANGED_DIMENSION);
+        
+        if (entity instanceof TrackedDrop) {
+            TimelineManager manager = recordingManager();
+            if (despawned && manager != null) {
+                trackerFor(world.getRegistryKey()).recordDropDespawn(entity, manager);
             }
-            
-            // Update previous state for next tick
-            previousEntityStates.put(uuid, currentState);
+            return;
         }
         
-        // Process removed entities (despawns)
-        for (Map.Entry<UUID, EntityRemovalInfo> entry : removedEntitiesThisTick.entrySet()) {
-            UUID uuid = entry.getKey();
-            EntityRemovalInfo info = entry.getValue();
-            
-            // Only record despawn if entity existed at tick start
-            if (entitiesAtTickStart.contains(uuid)) {
-                frame.addEntityDelta(EntityDelta.despawn(dimension, uuid, info.entityType, info.finalState));
+        TimelineManager manager = TimelineManager.getInstance();
+        if (manager == null) {
+            return;
+        }
+        
+        trackerFor(world.getRegistryKey()).recordRemoval(entity, despawned, manager.getEntityRegistry(), recordingManager());
+    }
+
+    /**
+     * Remember a drop's count before a change that may shrink or grow it.
+     * Called from the drop mixins at the start of merges, pickups and stack replacements.
+     */
+    public static void beginDropChange(Entity entity) {
+        TrackedDrop drop = (TrackedDrop) entity;
+        drop.rewind$setCountBefore(drop.rewind$getDropCount());
+        
+        // Keep the item's prototype while the stack is still intact; an emptied stack has no item
+        if (entity instanceof ItemEntity item) {
+            TimelineManager manager = recordingManager();
+            ItemStack stack = item.getStack();
+            ItemStack prototype = drop.rewind$getPrototype();
+            if (manager != null && !stack.isEmpty()
+                    && (prototype == null || !ItemStack.areItemsAndComponentsEqual(prototype, stack))) {
+                drop.rewind$setPrototype(manager.getItemPrototypes().prototypeOf(stack));
             }
-            
-            // Clean up tracking data
-            previousEntityStates.remove(uuid);
         }
     }
 
     /**
-     * Called when an entity is removed from the world.
+     * Record a drop's count change, if any, once the change is done.
+     * Drops removed by the change (fully merged or picked up) are recorded as despawns instead.
      */
-    public static void recordEntityRemoval(Entity entity) {
-        if (!shouldTrackEntity(entity)) return;
+    public static void endDropChange(Entity entity) {
+        TrackedDrop drop = (TrackedDrop) entity;
+        int before = drop.rewind$getCountBefore();
+        drop.rewind$setCountBefore(-1);
+        int after = drop.rewind$getDropCount();
         
-        TimelineManager manager = TimelineManager.getInstance();
-        if (manager == null || !manager.isRecording() || manager.isRewinding() || manager.isFrozen()) {
+        // A count of 0 before means the stack is being set up (constructor, loading), not changed
+        if (before <= 0 || before == after || entity.isRemoved()) {
             return;
         }
         
-        Identifier entityType = Registries.ENTITY_TYPE.getId(entity.getType());
-        NbtCompound finalState = serializeEntityState(entity);
-        
-        removedEntitiesThisTick.put(entity.getUuid(), new EntityRemovalInfo(entityType, finalState));
+        TimelineManager manager = recordingManager();
+        ServerWorld world = ((DirtyTrackedEntity) entity).rewind$getServerWorld();
+        if (manager == null || world == null) {
+            return;
+        }
+        trackerFor(world.getRegistryKey()).recordDropCount(entity, before, after, manager);
     }
 
     /**
      * Clear all tracking data.
      */
     public static void clearTrackingData() {
-        previousEntityStates.clear();
-        entitiesAtTickStart.clear();
-        removedEntitiesThisTick.clear();
+        for (EntityTracker tracker : entityTrackers.values()) {
+            tracker.clear();
+        }
+        entityTrackers.clear();
+        blockEntityTrackers.clear();
+        ticksSinceHandleSweep = 0;
+    }
+
+    private static EntityTracker trackerFor(RegistryKey<World> dimension) {
+        return entityTrackers.computeIfAbsent(dimension, EntityTracker::new);
+    }
+
+    private static BlockEntityTracker blockEntityTrackerFor(RegistryKey<World> dimension) {
+        return blockEntityTrackers.computeIfAbsent(dimension, BlockEntityTracker::new);
+    }
+
+    private static boolean isEntityTracked(int handle) {
+        for (EntityTracker tracker : entityTrackers.values()) {
+            if (tracker.isTracked(handle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The timeline manager if changes are currently being recorded, otherwise null.
+     */
+    @Nullable
+    private static TimelineManager recordingManager() {
+        TimelineManager manager = TimelineManager.getInstance();
+        if (manager == null || !manager.isRecording() || manager.isRewinding() || manager.isFrozen()) {
+            return null;
+        }
+        return manager;
     }
 
     /**
      * Determine if we should track this entity.
      */
-    private static boolean shouldTrackEntity(Entity entity) {
+    static boolean shouldTrackEntity(Entity entity) {
         // Don't track players (handled separately if at all)
         if (entity instanceof PlayerEntity) {
             return false;
         }
         
+        // Items and XP orbs are recorded into the DropLog instead
+        if (entity instanceof TrackedDrop) {
+            return false;
+        }
+        
         Identifier entityType = Registries.ENTITY_TYPE.getId(entity.getType());
         if (entityType != null && EXCLUDED_ENTITY_TYPES.contains(entityType.toString())) {
             return false;
@@ -252,47 +412,4 @@ public class TickRecorder {
         
         return true;
     }
-
-    /**
-     * Serialize entity state to NBT for storage.
-     * Captures position, rotation, velocity, and entity-specific data.
-     */
-    private static NbtCompound serializeEntityState(Entity entity) {
-        NbtCompound nbt = new NbtCompound();
-        
-        // Position
-        nbt.putDouble("X", entity.getX());
-        nbt.putDouble("Y", entity.getY());
-        nbt.putDouble("Z", entity.getZ());
-        
-        // Rotation
-        nbt.putFloat("Yaw", entity.getYaw());
-        nbt.putFloat("Pitch", entity.getPitch());
-        
-        // Velocity
-        nbt.putDouble("VelX", entity.getVelocity().x);
-        nbt.putDouble("VelY", entity.getVelocity().y);
-        nbt.putDouble("VelZ", entity.getVelocity().z);
-        
-        // On ground
-        nbt.putBoolean("OnGround", entity.isOnGround());
-        
-        // Living entity specific
-        if (entity instanceof LivingEntity living) {
-            nbt.putFloat("Health", living.getHealth());
-            nbt.putInt("HurtTime", living.hurtTime);
-            nbt.putInt("DeathTime", living.deathTime);
-        }
-        
-        // Note: For v1, we only track position/velocity/health.
-        // Full NBT serialization (inventory, AI state, etc.) is deferred to v2
-        // as it requires careful handling of different entity types.
-        
-        return nbt;
-    }
-
-    /**
-     * Info about a removed entity, stored until end of tick.
-     */
-    private record EntityRemovalInfo(Identifier entityType, NbtCompound finalState) {}
 }
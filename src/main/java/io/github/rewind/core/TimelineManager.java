@@ -1,54 +1,64 @@
 package io.github.rewind.core;
 
+import io.github.rewind.config.RewindConfig;
 import io.github.rewind.data.TickFrame;
+import net.minecraft.registry.RegistryKey;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.World;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Central manager for the timeline rewind system.
- * Maintains a ring buffer of TickFrames and coordinates recording/rewinding.
- * 
+ * Keeps one DimensionTimeline (ring buffer of TickFrames) per dimension and coordinates
+ * recording/rewinding across them.
+ *
+ * Each dimension has its own frame capacity and memory budget, so a busy Nether farm cannot
+ * evict Overworld history. Rewinds limited to some dimensions only walk those dimensions' frames.
+ *
  * Thread safety: All operations should be called from the server thread only.
  */
 public class TimelineManager {
     private static final Logger LOGGER = LoggerFactory.getLogger("Rewind");
-    
-    // Configuration
-    public static final int DEFAULT_MAX_FRAMES = 600;  // 30 seconds at 20 TPS
-    public static final int TICKS_PER_SECOND = 20;
-    public static final long MAX_MEMORY_BYTES = 50 * 1024 * 1024; // 50MB hard cap
-    
+
     // Singleton instance (per server lifecycle)
     private static TimelineManager instance;
-    
-    // Ring buffer
-    private final TickFrame[] frames;
-    private final int maxFrames;
-    private int writeHead = 0;      // Next position to write
-    private int frameCount = 0;     // Current number of valid frames
-    
-    // Current frame being recorded (not yet in buffer)
-    private TickFrame currentFrame;
-    
+
+    // Per-dimension history, created on a dimension's first recorded change
+    private final Map<RegistryKey<World>, DimensionTimeline> timelines = new LinkedHashMap<>();
+    private final int maxFrames;    // Ring capacity per dimension (entries)
+    private final int windowTicks;  // History kept, in game ticks
+    private final EntityRegistry entityRegistry;    // Entity UUID <-> handle used in frames and plans
+    private final ItemPrototypePool itemPrototypes; // Item stacks referenced by recorded drops
+
+    private long currentTickTime = 0;       // gameTime of the tick in progress (or last tick)
+    private boolean tickInProgress = false;
+    private long historyStartTime = Long.MIN_VALUE; // Game time recording (re)started
+
     // State
     private boolean recording = true;
     private boolean rewinding = false;
     private boolean frozen = false;
-    private long totalMemoryUsed = 0;
-    
+    private RewindJob rewindJob;    // Rewind being applied over several ticks, if any
+
     // Server reference
     private MinecraftServer server;
 
-    private TimelineManager(int maxFrames) {
+    private TimelineManager(int maxFrames, int windowTicks) {
         this.maxFrames = maxFrames;
-        this.frames = new TickFrame[maxFrames];
-        LOGGER.info("TimelineManager initialized with {} frame capacity ({} seconds)",
-                maxFrames, maxFrames / TICKS_PER_SECOND);
+        this.windowTicks = windowTicks;
+        // A segment can hold a handle until its newest tick leaves the window, so keep a margin
+        this.entityRegistry = new EntityRegistry(windowTicks + 2L * RewindConfig.SEGMENT_TICKS);
+        this.itemPrototypes = new ItemPrototypePool(windowTicks + 2L * RewindConfig.SEGMENT_TICKS);
+        LOGGER.info("TimelineManager initialized with {} frame capacity per dimension ({} second window)",
+                maxFrames, windowTicks / RewindConfig.TICKS_PER_SECOND);
     }
 
     /**
@@ -56,7 +66,7 @@ public class TimelineManager {
      * Should be called when server starts.
      */
     public static void initialize(MinecraftServer server) {
-        instance = new TimelineManager(DEFAULT_MAX_FRAMES);
+        instance = new TimelineManager(RewindConfig.MAX_FRAMES, RewindConfig.MAX_FRAMES);
         instance.server = server;
         LOGGER.info("Timeline recording started");
     }
@@ -68,6 +78,10 @@ public class TimelineManager {
     public static void shutdown() {
         if (instance != null) {
             instance.clear();
+            if (instance.rewindJob != null) {
+                instance.rewindJob.releaseChunks();
+                instance.rewindJob = null;
+            }
             instance.server = null;
             instance = null;
             LOGGER.info("Timeline recording stopped");
@@ -83,167 +97,209 @@ public class TimelineManager {
     }
 
     /**
-     * Start recording a new tick frame.
+     * Memory budget for a dimension's history.
      */
-    public void beginTick(long gameTime) {
-        if (!recording || rewinding || frozen) {
-            return;
-        }
-        
-        if (currentFrame != null && !currentFrame.isSealed() && !currentFrame.isEmpty()) {
-            commitCurrentFrame();
+    private static long memoryBudgetFor(RegistryKey<World> dimension) {
+        return dimension == World.OVERWORLD
+                ? RewindConfig.MAX_MEMORY_BYTES : RewindConfig.SECONDARY_DIMENSION_MAX_MEMORY_BYTES;
+    }
+
+    /**
+     * Report the bytes a dimension's recording state holds outside its frames (block entity
+     * pre-images), so they count against the dimension's memory budget.
+     */
+    public void setTrackerMemoryBytes(RegistryKey<World> dimension, long bytes) {
+        DimensionTimeline timeline = bytes > 0 ? timelineFor(dimension) : timelines.get(dimension);
+        if (timeline != null) {
+            timeline.setTrackerMemoryBytes(bytes);
         }
-        
-        currentFrame = new TickFrame(gameTime);
     }
-    
-    private void commitCurrentFrame() {
-        if (currentFrame == null) {
+
+    private DimensionTimeline timelineFor(RegistryKey<World> dimension) {
+        return timelines.computeIfAbsent(dimension,
+                key -> new DimensionTimeline(key, maxFrames, memoryBudgetFor(key)));
+    }
+
+    /**
+     * Start recording a new tick.
+     * No frame is allocated here; one is created on the first recorded change.
+     */
+    public void beginTick(long gameTime) {
+        currentTickTime = gameTime;
+        tickInProgress = true;
+        entityRegistry.setTime(gameTime);
+        itemPrototypes.setTime(gameTime);
+        if (!recording || rewinding || frozen) {
             return;
         }
-        
-        currentFrame.seal();
-        
-        if (frameCount == maxFrames) {
-            TickFrame oldFrame = frames[writeHead];
-            if (oldFrame != null) {
-                totalMemoryUsed -= oldFrame.getEstimatedMemoryBytes();
-            }
+
+        // Commit any emergency frames recorded between ticks
+        for (DimensionTimeline timeline : timelines.values()) {
+            timeline.beginTick();
         }
-        
-        frames[writeHead] = currentFrame;
-        totalMemoryUsed += currentFrame.getEstimatedMemoryBytes();
-        
-        writeHead = (writeHead + 1) % maxFrames;
-        if (frameCount < maxFrames) {
-            frameCount++;
+
+        if (historyStartTime == Long.MIN_VALUE) {
+            historyStartTime = gameTime;
         }
-        
-        currentFrame = null;
     }
 
     /**
-     * Ensure a current frame exists for recording.
+     * Get the frame to record a change in the given dimension into, creating it if this is the
+     * dimension's first change this tick. Inside a tick the frame is stamped with the tick's
+     * gameTime; between ticks (emergency frames, e.g. player breaks during packet handling)
+     * with the overworld time.
+     * Returns null if recording is not active.
      */
-    public void ensureCurrentFrame() {
+    @Nullable
+    public TickFrame frameForRecording(RegistryKey<World> dimension) {
         if (!recording || rewinding || frozen) {
-            return;
-        }
-        if (currentFrame == null || currentFrame.isSealed()) {
-            long gameTime = server != null ? server.getOverworld().getTime() : 0;
-            currentFrame = new TickFrame(gameTime);
+            return null;
         }
+        long gameTime = tickInProgress || server == null ? currentTickTime : server.getOverworld().getTime();
+        return timelineFor(dimension).frameForRecording(gameTime);
     }
 
     /**
-     * Finish recording the current tick frame and add to buffer.
-     * Called at the END of each server tick.
+     * Finish recording the current tick frames and add them to their buffers.
+     * Called at the END of each server tick. Ticks without changes store nothing.
      */
     public void endTick() {
-        if (!recording || rewinding || frozen || currentFrame == null) {
+        tickInProgress = false;
+        if (!recording || rewinding || frozen) {
             return;
         }
-        
-        commitCurrentFrame();
-        
-        // Memory pressure check
-        enforceMemoryLimit();
+
+        for (DimensionTimeline timeline : timelines.values()) {
+            timeline.endTick(currentTickTime, windowTicks);
+        }
     }
 
     /**
-     * Get the current frame being recorded.
-     * Returns null if not currently recording a tick.
+     * Get the current frame being recorded for a dimension.
+     * Returns null if no change has been recorded there yet this tick.
      */
     @Nullable
-    public TickFrame getCurrentFrame() {
-        return currentFrame;
+    public TickFrame getCurrentFrame(RegistryKey<World> dimension) {
+        DimensionTimeline timeline = timelines.get(dimension);
+        return timeline != null ? timeline.getCurrentFrame() : null;
     }
 
     /**
-     * Get frames for rewinding, from newest to oldest.
-     * @param tickCount Number of ticks to rewind
-     * @return List of frames in reverse chronological order (newest first)
+     * Timelines selected by a rewind.
+     * @param dimensions Dimensions to include, or null for all
      */
-    public List<TickFrame> getFramesForRewind(int tickCount) {
-        int count = Math.min(tickCount, frameCount);
-        List<TickFrame> result = new ArrayList<>(count);
-        
-        // Start from most recent frame (one before writeHead)
-        int readIndex = (writeHead - 1 + maxFrames) % maxFrames;
-        
-        for (int i = 0; i < count; i++) {
-            TickFrame frame = frames[readIndex];
-            if (frame != null) {
-                result.add(frame);
+    private Collection<DimensionTimeline> selectTimelines(@Nullable Collection<RegistryKey<World>> dimensions) {
+        if (dimensions == null) {
+            return timelines.values();
+        }
+        List<DimensionTimeline> selected = new ArrayList<>(dimensions.size());
+        for (RegistryKey<World> dimension : dimensions) {
+            DimensionTimeline timeline = timelines.get(dimension);
+            if (timeline != null) {
+                selected.add(timeline);
             }
-            readIndex = (readIndex - 1 + maxFrames) % maxFrames;
         }
-        
+        return selected;
+    }
+
+    /**
+     * Resolve the game time a rewind of tickCount ticks restores to.
+     * A compacted segment straddling the target cannot be split, so the target moves back
+     * to that segment's start (rewinds into the compacted tier have SEGMENT_TICKS granularity).
+     * The same target is used for every selected dimension so they stay consistent.
+     */
+    public long resolveRewindTarget(int tickCount, @Nullable Collection<RegistryKey<World>> dimensions) {
+        long target = currentTickTime - tickCount;
+        for (DimensionTimeline timeline : selectTimelines(dimensions)) {
+            target = Math.min(target, timeline.resolveTarget(target));
+        }
+        return target;
+    }
+
+    public long resolveRewindTarget(int tickCount) {
+        return resolveRewindTarget(tickCount, null);
+    }
+
+    /**
+     * Get frames for rewinding: every frame at or after the resolved target tick.
+     * Frames are grouped by dimension, newest to oldest within each dimension.
+     * @param tickCount Number of game ticks to rewind
+     * @param dimensions Dimensions to include, or null for all
+     */
+    public List<TickFrame> getFramesForRewind(int tickCount, @Nullable Collection<RegistryKey<World>> dimensions) {
+        long target = resolveRewindTarget(tickCount, dimensions);
+        List<TickFrame> result = new ArrayList<>();
+        for (DimensionTimeline timeline : selectTimelines(dimensions)) {
+            timeline.collectFramesAfter(target, result);
+        }
         return result;
     }
 
+    public List<TickFrame> getFramesForRewind(int tickCount) {
+        return getFramesForRewind(tickCount, null);
+    }
+
     /**
-     * Remove frames that have been rewound (they're no longer valid future).
-     * @param tickCount Number of frames to remove from the buffer
+     * Build the rewind plan for the last tickCount ticks from the per-dimension window indexes.
+     * Cost is proportional to the distinct positions/entities changed, not to the number of deltas.
+     * @param tickCount Number of game ticks to rewind
+     * @param dimensions Dimensions to include, or null for all
      */
-    public void removeRecentFrames(int tickCount) {
-        int count = Math.min(tickCount, frameCount);
-        
-        for (int i = 0; i < count; i++) {
-            writeHead = (writeHead - 1 + maxFrames) % maxFrames;
-            TickFrame frame = frames[writeHead];
-            if (frame != null) {
-                totalMemoryUsed -= frame.getEstimatedMemoryBytes();
-                frames[writeHead] = null;
-            }
-            frameCount--;
+    public RewindPlan buildRewindPlan(int tickCount, @Nullable Collection<RegistryKey<World>> dimensions) {
+        long target = resolveRewindTarget(tickCount, dimensions);
+        PlanBuilder plan = new PlanBuilder();
+        for (DimensionTimeline timeline : selectTimelines(dimensions)) {
+            timeline.exportPlan(target, plan);
         }
+        return plan.build();
+    }
+
+    public RewindPlan buildRewindPlan(int tickCount) {
+        return buildRewindPlan(tickCount, null);
     }
 
     /**
-     * Clear all recorded frames.
+     * Remove frames that have been rewound (they're no longer valid future).
+     * @param tickCount Number of game ticks rewound; removes the same frames getFramesForRewind returned
+     * @param dimensions Dimensions to include, or null for all
      */
+    public void removeRecentFrames(int tickCount, @Nullable Collection<RegistryKey<World>> dimensions) {
+        removeFramesAfter(resolveRewindTarget(tickCount, dimensions), dimensions);
+    }
+
+    /**
+     * Remove frames after a rewind target resolved earlier (by resolveRewindTarget).
+     * @param dimensions Dimensions to include, or null for all
+     */
+    public void removeFramesAfter(long targetTime, @Nullable Collection<RegistryKey<World>> dimensions) {
+        for (DimensionTimeline timeline : selectTimelines(dimensions)) {
+            timeline.removeFramesAfter(targetTime);
+        }
+    }
+
     /**
      * Freeze the timeline: stop recording (no new frames, no emergency frames).
-     * Commits any pending frame first. History is preserved; rewind still works.
+     * Commits any pending frames first. History is preserved; rewind still works.
      */
     public void freeze() {
-        if (currentFrame != null && !currentFrame.isSealed() && !currentFrame.isEmpty()) {
-            commitCurrentFrame();
+        for (DimensionTimeline timeline : timelines.values()) {
+            timeline.flush();
         }
         this.frozen = true;
     }
 
+    /**
+     * Clear all recorded frames.
+     */
     public void clear() {
-        for (int i = 0; i < maxFrames; i++) {
-            frames[i] = null;
+        for (DimensionTimeline timeline : timelines.values()) {
+            timeline.clear();
         }
-        writeHead = 0;
-        frameCount = 0;
-        totalMemoryUsed = 0;
-        currentFrame = null;
+        historyStartTime = Long.MIN_VALUE;
         frozen = false;
         LOGGER.info("Timeline buffer cleared");
     }
 
-    /**
-     * Drop oldest frames if memory exceeds limit.
-     */
-    private void enforceMemoryLimit() {
-        while (totalMemoryUsed > MAX_MEMORY_BYTES && frameCount > TICKS_PER_SECOND * 5) {
-            // Find oldest frame and remove it
-            int oldestIndex = (writeHead - frameCount + maxFrames) % maxFrames;
-            TickFrame oldFrame = frames[oldestIndex];
-            if (oldFrame != null) {
-                totalMemoryUsed -= oldFrame.getEstimatedMemoryBytes();
-                frames[oldestIndex] = null;
-            }
-            frameCount--;
-            LOGGER.warn("Dropped oldest frame due to memory pressure ({}MB used)",
-                    totalMemoryUsed / (1024 * 1024));
-        }
-    }
-
     // State management
 
     public void setRecording(boolean recording) {
@@ -270,30 +326,94 @@ public class TimelineManager {
         return frozen;
     }
 
+    @Nullable
+    public RewindJob getRewindJob() {
+        return rewindJob;
+    }
+
+    public void setRewindJob(@Nullable RewindJob rewindJob) {
+        this.rewindJob = rewindJob;
+    }
+
+    EntityRegistry getEntityRegistry() {
+        return entityRegistry;
+    }
+
+    ItemPrototypePool getItemPrototypes() {
+        return itemPrototypes;
+    }
+
     // Status info
 
+    public Collection<DimensionTimeline> getTimelines() {
+        return timelines.values();
+    }
+
     public int getFrameCount() {
-        return frameCount;
+        int count = 0;
+        for (DimensionTimeline timeline : timelines.values()) {
+            count += timeline.getFrameCount();
+        }
+        return count;
     }
 
     public int getMaxFrames() {
         return maxFrames;
     }
 
+    public long getCurrentTickTime() {
+        return currentTickTime;
+    }
+
+    /**
+     * Game ticks of history covered in all of the given dimensions (including idle ticks that stored nothing).
+     * @param dimensions Dimensions to include, or null for all
+     */
+    public int getBufferedTicks(@Nullable Collection<RegistryKey<World>> dimensions) {
+        if (historyStartTime == Long.MIN_VALUE) {
+            return 0;
+        }
+        long start = Math.max(historyStartTime, currentTickTime - windowTicks);
+        for (DimensionTimeline timeline : selectTimelines(dimensions)) {
+            start = Math.max(start, timeline.getEvictedUntil());
+        }
+        return (int) Math.max(0, currentTickTime - start);
+    }
+
+    public int getAvailableSeconds(@Nullable Collection<RegistryKey<World>> dimensions) {
+        return getBufferedTicks(dimensions) / RewindConfig.TICKS_PER_SECOND;
+    }
+
     public int getAvailableSeconds() {
-        return frameCount / TICKS_PER_SECOND;
+        return getAvailableSeconds(null);
     }
 
     public long getTotalMemoryUsed() {
-        return totalMemoryUsed;
+        long total = 0;
+        for (DimensionTimeline timeline : timelines.values()) {
+            total += timeline.getTotalMemoryUsed();
+        }
+        return total;
+    }
+
+    public long getTotalCoalescedUpdates() {
+        long total = 0;
+        for (DimensionTimeline timeline : timelines.values()) {
+            total += timeline.getTotalCoalescedUpdates();
+        }
+        return total;
     }
 
     @Nullable
     public Long getOldestTickTime() {
-        if (frameCount == 0) return null;
-        int oldestIndex = (writeHead - frameCount + maxFrames) % maxFrames;
-        TickFrame oldestFrame = frames[oldestIndex];
-        return oldestFrame != null ? oldestFrame.getGameTime() : null;
+        Long oldest = null;
+        for (DimensionTimeline timeline : timelines.values()) {
+            Long time = timeline.getOldestTickTime();
+            if (time != null && (oldest == null || time < oldest)) {
+                oldest = time;
+            }
+        }
+        return oldest;
     }
 
     @Nullable
@@ -305,18 +425,35 @@ public class TimelineManager {
      * Get status summary for the /timeline status command.
      */
     public String getStatusSummary() {
-        return String.format(
+        StringBuilder summary = new StringBuilder(String.format(
                 "Timeline Status:\n" +
                 "  Recording: %s\n" +
                 "  Frozen: %s\n" +
-                "  Frames: %d / %d (%.1f seconds)\n" +
-                "  Memory: %.2f MB / %.2f MB\n" +
+                "  History: %.1f seconds\n" +
+                "  Coalesced block updates: %d\n" +
                 "  Oldest tick: %s",
                 recording ? "Active" : "Paused",
                 frozen ? "Yes" : "No",
-                frameCount, maxFrames, frameCount / (float) TICKS_PER_SECOND,
-                totalMemoryUsed / (1024.0 * 1024.0), MAX_MEMORY_BYTES / (1024.0 * 1024.0),
+                getBufferedTicks(null) / (float) RewindConfig.TICKS_PER_SECOND,
+                getTotalCoalescedUpdates(),
                 getOldestTickTime() != null ? getOldestTickTime().toString() : "N/A"
-        );
+        ));
+        if (rewindJob != null) {
+            summary.append(String.format("\n  Rewind in progress: %d / %d operations (%d ticks so far)",
+                    rewindJob.getCompletedOperations(), rewindJob.getTotalOperations(), rewindJob.getTicksRun()));
+            if (rewindJob.getPendingChunkCount() > 0) {
+                summary.append(String.format("\n  Waiting for %d chunks to load", rewindJob.getPendingChunkCount()));
+            }
+        }
+        for (DimensionTimeline timeline : timelines.values()) {
+            summary.append(String.format(
+                    "\n  %s: %d / %d frames (%d compacted), %d indexed changes, %d stored NBT (%d shared), %.2f MB / %.2f MB",
+                    timeline.getDimension().getValue(),
+                    timeline.getFrameCount(), timeline.getMaxFrames(), timeline.getCompactedCount(),
+                    timeline.getIndexedChangeCount(), timeline.getStoredNbtCount(), timeline.getNbtInternHits(),
+                    timeline.getTotalMemoryUsed() / (1024.0 * 1024.0),
+                    timeline.getMaxMemoryBytes() / (1024.0 * 1024.0)));
+        }
+        return summary.toString();
     }
 }
@@ -0,0 +1,40 @@
+package io.github.rewind.core;
+
+import net.minecraft.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Implemented on ItemEntity and ExperienceOrbEntity by their mixins.
+ * Drops are recorded into the frame's DropLog instead of as entity deltas; this exposes the
+ * count (stack size or orb amount) and the bookkeeping needed to record count changes.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+public interface TrackedDrop {
+    /**
+     * Current stack size (items) or number of merged orbs (XP orbs).
+     */
+    int rewind$getDropCount();
+
+    /**
+     * Set the count of a drop being respawned.
+     */
+    void rewind$setDropCount(int count);
+
+    /**
+     * Count when the change in progress started, or -1 outside a change.
+     * A drop emptied by a merge or pickup is removed before the change ends, so its despawn uses this.
+     */
+    int rewind$getCountBefore();
+
+    void rewind$setCountBefore(int count);
+
+    /**
+     * Pooled prototype of the item, kept so a despawn can still be recorded once the stack is empty.
+     * Always null for XP orbs.
+     */
+    @Nullable
+    ItemStack rewind$getPrototype();
+
+    void rewind$setPrototype(@Nullable ItemStack prototype);
+}
@@ -0,0 +1,795 @@
+package io.github.rewind.core;
+
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.BlockEntityDelta;
+import io.github.rewind.data.DropLog;
+import io.github.rewind.data.EntityDelta;
+import io.github.rewind.data.EntityUpdateLog;
+import io.github.rewind.data.InventorySlotLog;
+import io.github.rewind.data.NbtBlob;
+import io.github.rewind.data.TickFrame;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.block.Block;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Incrementally maintained rewind plan for one dimension's frame window.
+ * Holds the oldest old state per changed position and entity, updated when a frame is
+ * committed and when one is evicted, so a full-window plan costs O(distinct changes)
+ * instead of a walk over every delta of every frame.
+ *
+ * Each entry remembers the sequence of the newest frame that touched it. When the oldest
+ * frame is evicted, an entry it touched last is dropped; otherwise the evicted change's new
+ * state becomes the oldest old state (the next change to that key started from it).
+ * Block changes record no new block entity NBT, so block entries keep every change in window
+ * and the next change's old state and NBT take over instead.
+ *
+ * Block entity changes are patches, so their entries keep the position's delta chain instead
+ * and resolve the oldest old NBT from a keyframe on export. Evicted deltas are kept as history
+ * while the chain has no keyframe of its own, back to the newest evicted keyframe, and for a while
+ * after the whole chain was evicted, in case the next delta at that position continues it.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+final class WindowIndex {
+    // Block changes: packed pos -> oldest old state
+    private final Long2ObjectMap<BlockEntry> blocks = new Long2ObjectOpenHashMap<>();
+    // Standalone block entity changes: packed pos -> delta chain in window (NBT resolved on export)
+    private final Long2ObjectMap<BlockEntityEntry> blockEntities = new Long2ObjectOpenHashMap<>();
+    // Block entity positions whose chain was evicted entirely, kept while a non-keyframe delta may still follow
+    private final Long2ObjectMap<BlockEntityEntry> dormantBlockEntities = new Long2ObjectOpenHashMap<>();
+    private final ArrayDeque<DormantExpiry> dormantExpiry = new ArrayDeque<>();
+    // Inventory slot changes: packed pos -> slot -> oldest old stack
+    private final Long2ObjectMap<InventoryEntry> inventorySlots = new Long2ObjectOpenHashMap<>();
+    // Entity updates: entity handle -> oldest old state (decoded fields; NBT is built on export)
+    private final Int2ObjectMap<UpdateEntry> entityUpdates = new Int2ObjectOpenHashMap<>();
+    // Spawns: entity handle -> sequence of the newest frame spawning it
+    private final Int2LongMap spawns = new Int2LongOpenHashMap();
+    // Entity (not drop) spawns: entity handle -> game time of the oldest spawn in window
+    private final Int2LongMap spawnTimes = new Int2LongOpenHashMap();
+    // Despawns: entity handle -> despawns in window, oldest first (the oldest one is respawned)
+    private final Int2ObjectMap<ArrayDeque<Despawn>> despawns = new Int2ObjectOpenHashMap<>();
+    // Drop despawns: entity handle -> despawns in window, oldest first (drop spawns share the spawns map)
+    private final Int2ObjectMap<ArrayDeque<DropDespawn>> dropDespawns = new Int2ObjectOpenHashMap<>();
+    // Drop count changes: entity handle -> oldest old count
+    private final Int2ObjectMap<CountEntry> dropCounts = new Int2ObjectOpenHashMap<>();
+
+    private static final class BlockEntry {
+        BlockLink oldest;
+        // Later changes in window, oldest first; null while the position changed once
+        @Nullable ArrayDeque<BlockLink> newer;
+
+        BlockEntry(BlockLink oldest) {
+            this.oldest = oldest;
+        }
+
+        long lastSequence() {
+            return newer != null ? newer.peekLast().sequence() : oldest.sequence();
+        }
+
+        void add(BlockLink link) {
+            if (newer == null) {
+                newer = new ArrayDeque<>(2);
+            }
+            newer.addLast(link);
+        }
+
+        /**
+         * Drop the changes up to sequence. The next change's old state and NBT become the oldest:
+         * block changes don't record the new block entity NBT, so it can't come from the evicted delta.
+         */
+        void evictThrough(long sequence) {
+            while (oldest.sequence() <= sequence) {
+                oldest = newer.pollFirst();
+            }
+            if (newer.isEmpty()) {
+                newer = null;
+            }
+        }
+
+        BlockEntry copy() {
+            BlockEntry copy = new BlockEntry(oldest);
+            if (newer != null) {
+                copy.newer = new ArrayDeque<>(newer);
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * One block change in window: the sequence of the frame that recorded it and what it replaced.
+     */
+    private record BlockLink(long sequence, int oldStateId, @Nullable NbtBlob oldNbt) {}
+
+    private static final class BlockEntityEntry {
+        // Deltas in window with the sequence of the frame that recorded them, oldest first
+        final ArrayDeque<ChainLink> chain = new ArrayDeque<>();
+        // Older deltas starting at a keyframe, kept only while chain has no keyframe
+        final ArrayDeque<BlockEntityDelta> history = new ArrayDeque<>();
+        int chainKeyframes;
+        int historyKeyframes;
+
+        BlockEntityEntry copy() {
+            BlockEntityEntry copy = new BlockEntityEntry();
+            copy.chain.addAll(chain);
+            copy.history.addAll(history);
+            copy.chainKeyframes = chainKeyframes;
+            copy.historyKeyframes = historyKeyframes;
+            return copy;
+        }
+
+        void prependHistory(BlockEntityDelta delta) {
+            history.addFirst(delta);
+            if (delta.isKeyframe()) {
+                historyKeyframes++;
+            }
+        }
+
+        /**
+         * Old NBT of the oldest delta in window, or null if no keyframe is in reach.
+         */
+        @Nullable
+        NbtCompound resolveOldest() {
+            BlockEntityDelta oldest = chain.peekFirst().delta();
+            if (oldest.isKeyframe()) {
+                return oldest.base().decode();
+            }
+            List<BlockEntityDelta> deltas = new ArrayList<>(history.size() + chain.size());
+            deltas.addAll(history);
+            for (ChainLink link : chain) {
+                deltas.add(link.delta());
+            }
+            return BlockEntityDelta.resolveOldNbt(deltas, history.size());
+        }
+    }
+
+    /**
+     * The chain keeps the deltas of the frames as committed. Once those frames are compacted, the
+     * evicted segment holds merged deltas instead, so links are evicted by sequence, not identity.
+     */
+    private record ChainLink(long sequence, BlockEntityDelta delta) {}
+
+    private static final class SlotEntry {
+        int oldPrototype;
+        int oldCount;
+        // Sequences of the frames in window that changed this slot, oldest first
+        final LongArrayFIFOQueue sequences = new LongArrayFIFOQueue(2);
+
+        SlotEntry(int oldPrototype, int oldCount) {
+            this.oldPrototype = oldPrototype;
+            this.oldCount = oldCount;
+        }
+
+        void touch(long sequence) {
+            if (sequences.isEmpty() || sequences.lastLong() != sequence) {
+                sequences.enqueue(sequence);
+            }
+        }
+
+        SlotEntry copy() {
+            SlotEntry copy = new SlotEntry(oldPrototype, oldCount);
+            for (int i = sequences.size(); i > 0; i--) {
+                long sequence = sequences.dequeueLong();
+                sequences.enqueue(sequence);
+                copy.sequences.enqueue(sequence);
+            }
+            return copy;
+        }
+    }
+
+    private static final class InventoryEntry {
+        final Int2ObjectMap<SlotEntry> slots = new Int2ObjectOpenHashMap<>();
+
+        /**
+         * Sequence of the oldest slot change here in window.
+         */
+        long firstSequence() {
+            long first = Long.MAX_VALUE;
+            for (SlotEntry entry : slots.values()) {
+                first = Math.min(first, entry.sequences.firstLong());
+            }
+            return first;
+        }
+
+        InventoryEntry copy() {
+            InventoryEntry copy = new InventoryEntry();
+            for (Int2ObjectMap.Entry<SlotEntry> slot : slots.int2ObjectEntrySet()) {
+                copy.slots.put(slot.getIntKey(), slot.getValue().copy());
+            }
+            return copy;
+        }
+    }
+
+    private static final class UpdateEntry {
+        final EntityUpdateLog.State oldState = new EntityUpdateLog.State();
+        long oldGameTime;   // Game time of the oldest update, or a lower bound for it once advanced by an eviction
+        long lastSequence;
+
+        UpdateEntry(EntityUpdateLog.State oldState, long oldGameTime, long lastSequence) {
+            this.oldState.copyFrom(oldState);
+            this.oldGameTime = oldGameTime;
+            this.lastSequence = lastSequence;
+        }
+    }
+
+    private static final class CountEntry {
+        int oldCount;
+        long lastSequence;
+
+        CountEntry(int oldCount, long lastSequence) {
+            this.oldCount = oldCount;
+            this.lastSequence = lastSequence;
+        }
+    }
+
+    private record Despawn(long sequence, long gameTime, RegistryKey<World> dimension, Identifier entityType,
+                           NbtCompound state) {}
+
+    private record DropDespawn(long sequence, RewindPlan.DropSpawn drop) {}
+
+    private record DormantExpiry(long packedPos, BlockEntityEntry entry, long expiresAt) {}
+
+    /**
+     * Add a newly committed frame (must be newer than every indexed frame).
+     */
+    void addFrame(TickFrame frame) {
+        long sequence = frame.getSequence();
+
+        TickFrame.BlockDeltaCursor delta = frame.getBlockDeltas();
+        while (delta.next()) {
+            BlockLink link = new BlockLink(sequence, delta.oldStateId(), delta.oldBlockEntityBlob());
+            BlockEntry entry = blocks.get(delta.packedPos());
+            if (entry == null) {
+                blocks.put(delta.packedPos(), new BlockEntry(link));
+            } else {
+                entry.add(link);
+            }
+        }
+
+        for (BlockEntityDelta beDelta : frame.getBlockEntityDeltas()) {
+            BlockEntityEntry entry = blockEntities.get(beDelta.packedPos());
+            if (entry == null) {
+                entry = dormantBlockEntities.remove(beDelta.packedPos());
+                if (entry == null) {
+                    entry = new BlockEntityEntry();
+                }
+                blockEntities.put(beDelta.packedPos(), entry);
+            }
+            entry.chain.addLast(new ChainLink(sequence, beDelta));
+            if (beDelta.isKeyframe()) {
+                entry.chainKeyframes++;
+                entry.history.clear();
+                entry.historyKeyframes = 0;
+            }
+        }
+
+        InventorySlotLog.Cursor slot = frame.getSlotChanges();
+        while (slot.next()) {
+            InventoryEntry inventory = inventorySlots.computeIfAbsent(slot.packedPos(), pos -> new InventoryEntry());
+            SlotEntry entry = inventory.slots.get(slot.slot());
+            if (entry == null) {
+                entry = new SlotEntry(slot.oldPrototype(), slot.oldCount());
+                inventory.slots.put(slot.slot(), entry);
+            }
+            entry.touch(sequence);
+        }
+
+        for (EntityDelta entityDelta : frame.getEntityDeltas()) {
+            int handle = entityDelta.entityHandle();
+            switch (entityDelta.type()) {
+                case SPAWN -> {
+                    spawns.put(handle, sequence);
+                    spawnTimes.putIfAbsent(handle, frame.getGameTime());
+                }
+                case DESPAWN -> {
+                    if (entityDelta.oldState() != null && entityDelta.entityType() != null) {
+                        despawns.computeIfAbsent(handle, key -> new ArrayDeque<>()).addLast(new Despawn(sequence,
+                                frame.getGameTime(), entityDelta.dimension(), entityDelta.entityType(), entityDelta.oldState()));
+                    }
+                }
+                case UPDATE -> {
+                    // Updates are read from the frame's EntityUpdateLog below
+                }
+            }
+        }
+
+        EntityUpdateLog.Cursor update = frame.getEntityUpdates();
+        while (update.next()) {
+            UpdateEntry entry = entityUpdates.get(update.handle());
+            if (entry == null) {
+                entityUpdates.put(update.handle(), new UpdateEntry(update.oldState(), frame.getGameTime(), sequence));
+            } else {
+                entry.lastSequence = sequence;
+            }
+        }
+
+        DropLog.Cursor drop = frame.getDrops();
+        while (drop.next()) {
+            int handle = drop.handle();
+            switch (drop.op()) {
+                case DropLog.OP_SPAWN -> spawns.put(handle, sequence);
+                case DropLog.OP_DESPAWN -> dropDespawns.computeIfAbsent(handle, key -> new ArrayDeque<>()).addLast(
+                        new DropDespawn(sequence, new RewindPlan.DropSpawn(handle, drop.kind(), drop.prototype(),
+                                drop.oldCount(), drop.x(), drop.y(), drop.z())));
+                case DropLog.OP_COUNT -> {
+                    CountEntry entry = dropCounts.get(handle);
+                    if (entry == null) {
+                        dropCounts.put(handle, new CountEntry(drop.oldCount(), sequence));
+                    } else {
+                        entry.lastSequence = sequence;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest indexed frame (must be older than every other indexed frame).
+     */
+    void evictFrame(TickFrame frame) {
+        long sequence = frame.getSequence();
+
+        TickFrame.BlockDeltaCursor delta = frame.getBlockDeltas();
+        while (delta.next()) {
+            BlockEntry entry = blocks.get(delta.packedPos());
+            if (entry == null) {
+                continue;
+            }
+            if (entry.lastSequence() <= sequence) {
+                blocks.remove(delta.packedPos());
+            } else {
+                entry.evictThrough(sequence);
+            }
+        }
+
+        for (BlockEntityDelta beDelta : frame.getBlockEntityDeltas()) {
+            BlockEntityEntry entry = blockEntities.get(beDelta.packedPos());
+            if (entry == null) {
+                continue;
+            }
+            // A segment evicts every delta of the frames merged into it
+            while (!entry.chain.isEmpty() && entry.chain.peekFirst().sequence() <= sequence) {
+                evictBlockEntityDelta(entry, entry.chain.pollFirst().delta());
+            }
+            if (entry.chain.isEmpty()) {
+                blockEntities.remove(beDelta.packedPos());
+                if (entry.historyKeyframes > 0) {
+                    dormantBlockEntities.put(beDelta.packedPos(), entry);
+                    dormantExpiry.addLast(new DormantExpiry(beDelta.packedPos(), entry,
+                            frame.getGameTime() + RewindConfig.BLOCK_ENTITY_KEYFRAME_INTERVAL_TICKS));
+                }
+            }
+        }
+        // Past the keyframe interval, the next delta of a dormant position is a keyframe itself
+        while (!dormantExpiry.isEmpty() && dormantExpiry.peekFirst().expiresAt() <= frame.getGameTime()) {
+            DormantExpiry expired = dormantExpiry.pollFirst();
+            dormantBlockEntities.remove(expired.packedPos(), expired.entry());
+        }
+
+        InventorySlotLog.Cursor slot = frame.getSlotChanges();
+        while (slot.next()) {
+            InventoryEntry inventory = inventorySlots.get(slot.packedPos());
+            SlotEntry entry = inventory != null ? inventory.slots.get(slot.slot()) : null;
+            if (entry == null) {
+                continue;
+            }
+            while (!entry.sequences.isEmpty() && entry.sequences.firstLong() <= sequence) {
+                entry.sequences.dequeueLong();
+            }
+            if (entry.sequences.isEmpty()) {
+                inventory.slots.remove(slot.slot());
+                if (inventory.slots.isEmpty()) {
+                    inventorySlots.remove(slot.packedPos());
+                }
+            } else {
+                entry.oldPrototype = slot.newPrototype();
+                entry.oldCount = slot.newCount();
+            }
+        }
+
+        for (EntityDelta entityDelta : frame.getEntityDeltas()) {
+            int handle = entityDelta.entityHandle();
+            switch (entityDelta.type()) {
+                case SPAWN -> {
+                    if (spawns.containsKey(handle) && spawns.get(handle) <= sequence) {
+                        spawns.remove(handle);
+                        spawnTimes.remove(handle);
+                    } else if (spawnTimes.containsKey(handle)) {
+                        // The later spawn here follows a despawn from here, which is now the oldest event
+                        spawnTimes.put(handle, Long.MAX_VALUE);
+                    }
+                }
+                case DESPAWN -> {
+                    ArrayDeque<Despawn> queue = despawns.get(handle);
+                    if (queue == null) {
+                        continue;
+                    }
+                    while (!queue.isEmpty() && queue.peekFirst().sequence() <= sequence) {
+                        queue.pollFirst();
+                    }
+                    if (queue.isEmpty()) {
+                        despawns.remove(handle);
+                    }
+                }
+                case UPDATE -> {
+                    // Updates are read from the frame's EntityUpdateLog below
+                }
+            }
+        }
+
+        EntityUpdateLog.Cursor update = frame.getEntityUpdates();
+        while (update.next()) {
+            UpdateEntry entry = entityUpdates.get(update.handle());
+            if (entry == null) {
+                continue;
+            }
+            if (entry.lastSequence <= sequence) {
+                entityUpdates.remove(update.handle());
+            } else {
+                entry.oldState.copyFrom(update.newState());
+                entry.oldGameTime = frame.getGameTime() + frame.getSpanTicks();
+            }
+        }
+
+        DropLog.Cursor drop = frame.getDrops();
+        while (drop.next()) {
+            int handle = drop.handle();
+            switch (drop.op()) {
+                case DropLog.OP_SPAWN -> {
+                    if (spawns.containsKey(handle) && spawns.get(handle) <= sequence) {
+                        spawns.remove(handle);
+                    }
+                }
+                case DropLog.OP_DESPAWN -> {
+                    ArrayDeque<DropDespawn> queue = dropDespawns.get(handle);
+                    if (queue == null) {
+                        continue;
+                    }
+                    while (!queue.isEmpty() && queue.peekFirst().sequence() <= sequence) {
+                        queue.pollFirst();
+                    }
+                    if (queue.isEmpty()) {
+                        dropDespawns.remove(handle);
+                    }
+                }
+                case DropLog.OP_COUNT -> {
+                    CountEntry entry = dropCounts.get(handle);
+                    if (entry == null) {
+                        continue;
+                    }
+                    if (entry.lastSequence <= sequence) {
+                        dropCounts.remove(handle);
+                    } else {
+                        entry.oldCount = drop.newCount();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget what the frames of a compacted run recorded that their segment folded away, which
+     * evicting the segment can't reach: a drop spawned and despawned within the run, count changes
+     * folded into its spawn, a slot changed back to where it started, or the despawns of an entity
+     * that spawned first in the run. A rewind removes such a drop or entity anyway and finds such a
+     * slot at its target, so plans are unchanged. Only the run's own events are forgotten; older
+     * frames still carry theirs.
+     */
+    void compactRun(List<TickFrame> run, TickFrame segment) {
+        long runStart = run.get(0).getSequence();
+        long sequence = segment.getSequence();
+
+        // Entity despawns the merge dropped
+        IntSet segmentDespawns = new IntOpenHashSet();
+        for (EntityDelta entityDelta : segment.getEntityDeltas()) {
+            if (entityDelta.type() == EntityDelta.EntityDeltaType.DESPAWN) {
+                segmentDespawns.add(entityDelta.entityHandle());
+            }
+        }
+        for (TickFrame frame : run) {
+            for (EntityDelta entityDelta : frame.getEntityDeltas()) {
+                int handle = entityDelta.entityHandle();
+                ArrayDeque<Despawn> queue = despawns.get(handle);
+                if (entityDelta.type() != EntityDelta.EntityDeltaType.DESPAWN || segmentDespawns.contains(handle)
+                        || queue == null) {
+                    continue;
+                }
+                queue.removeIf(despawn -> despawn.sequence() >= runStart && despawn.sequence() <= sequence);
+                if (queue.isEmpty()) {
+                    despawns.remove(handle);
+                }
+            }
+        }
+
+        // Drop handle -> bit per op the run recorded and the segment no longer carries
+        Int2IntMap foldedOps = new Int2IntOpenHashMap();
+        for (TickFrame frame : run) {
+            DropLog.Cursor drop = frame.getDrops();
+            while (drop.next()) {
+                foldedOps.put(drop.handle(), foldedOps.get(drop.handle()) | 1 << drop.op());
+            }
+        }
+        // Drop handle -> the count its spawn in the segment ends at
+        Int2IntMap spawnCounts = new Int2IntOpenHashMap();
+        DropLog.Cursor drop = segment.getDrops();
+        while (drop.next()) {
+            foldedOps.put(drop.handle(), foldedOps.get(drop.handle()) & ~(1 << drop.op()));
+            if (drop.op() == DropLog.OP_SPAWN) {
+                spawnCounts.put(drop.handle(), drop.newCount());
+            }
+        }
+        for (Int2IntMap.Entry e : foldedOps.int2IntEntrySet()) {
+            int handle = e.getIntKey();
+            int ops = e.getIntValue();
+            if ((ops & 1 << DropLog.OP_SPAWN) != 0 && spawns.containsKey(handle) && spawns.get(handle) <= sequence) {
+                spawns.remove(handle);
+            }
+            ArrayDeque<DropDespawn> queue = dropDespawns.get(handle);
+            if ((ops & 1 << DropLog.OP_DESPAWN) != 0 && queue != null) {
+                queue.removeIf(despawn -> despawn.sequence() >= runStart && despawn.sequence() <= sequence);
+                if (queue.isEmpty()) {
+                    dropDespawns.remove(handle);
+                }
+            }
+            CountEntry count = dropCounts.get(handle);
+            if ((ops & 1 << DropLog.OP_COUNT) != 0 && count != null) {
+                // Count changes only fold away into a spawn in the run, so the entry started in it
+                if (count.lastSequence <= sequence) {
+                    dropCounts.remove(handle);
+                } else if (spawnCounts.containsKey(handle)) {
+                    // Evicting the segment starts the later changes from its spawn's count
+                    count.oldCount = spawnCounts.get(handle);
+                }
+            }
+        }
+
+        // Slots changed back to where they started within the run
+        Long2ObjectMap<IntSet> foldedSlots = new Long2ObjectOpenHashMap<>();
+        for (TickFrame frame : run) {
+            InventorySlotLog.Cursor slot = frame.getSlotChanges();
+            while (slot.next()) {
+                foldedSlots.computeIfAbsent(slot.packedPos(), pos -> new IntOpenHashSet()).add(slot.slot());
+            }
+        }
+        InventorySlotLog.Cursor slot = segment.getSlotChanges();
+        while (slot.next()) {
+            IntSet slots = foldedSlots.get(slot.packedPos());
+            if (slots != null) {
+                slots.remove(slot.slot());
+            }
+        }
+        for (Long2ObjectMap.Entry<IntSet> e : foldedSlots.long2ObjectEntrySet()) {
+            InventoryEntry inventory = inventorySlots.get(e.getLongKey());
+            if (inventory == null) {
+                continue;
+            }
+            for (int folded : e.getValue()) {
+                SlotEntry entry = inventory.slots.get(folded);
+                if (entry == null) {
+                    continue;
+                }
+                for (int i = entry.sequences.size(); i > 0; i--) {
+                    long touched = entry.sequences.dequeueLong();
+                    if (touched < runStart || touched > sequence) {
+                        entry.sequences.enqueue(touched);
+                    }
+                }
+                if (entry.sequences.isEmpty()) {
+                    inventory.slots.remove(folded);
+                }
+            }
+            if (inventory.slots.isEmpty()) {
+                inventorySlots.remove(e.getLongKey());
+            }
+        }
+    }
+
+    private static void evictBlockEntityDelta(BlockEntityEntry entry, BlockEntityDelta evicted) {
+        if (evicted.isKeyframe()) {
+            entry.chainKeyframes--;
+        }
+        if (entry.chainKeyframes == 0) {
+            // The chain now has to be replayed from an evicted keyframe: keep it and the deltas after it
+            entry.history.addLast(evicted);
+            if (evicted.isKeyframe()) {
+                entry.historyKeyframes++;
+            }
+            while (!entry.history.isEmpty()
+                    && (entry.historyKeyframes != 1 || !entry.history.peekFirst().isKeyframe())) {
+                if (entry.history.pollFirst().isKeyframe()) {
+                    entry.historyKeyframes--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Independent copy, so a partial window can be derived by evicting from it.
+     */
+    WindowIndex copy() {
+        WindowIndex copy = new WindowIndex();
+        for (Long2ObjectMap.Entry<BlockEntry> e : blocks.long2ObjectEntrySet()) {
+            copy.blocks.put(e.getLongKey(), e.getValue().copy());
+        }
+        for (Long2ObjectMap.Entry<BlockEntityEntry> e : blockEntities.long2ObjectEntrySet()) {
+            copy.blockEntities.put(e.getLongKey(), e.getValue().copy());
+        }
+        for (Long2ObjectMap.Entry<InventoryEntry> e : inventorySlots.long2ObjectEntrySet()) {
+            copy.inventorySlots.put(e.getLongKey(), e.getValue().copy());
+        }
+        for (Int2ObjectMap.Entry<UpdateEntry> e : entityUpdates.int2ObjectEntrySet()) {
+            UpdateEntry entry = e.getValue();
+            copy.entityUpdates.put(e.getIntKey(), new UpdateEntry(entry.oldState, entry.oldGameTime, entry.lastSequence));
+        }
+        copy.spawns.putAll(spawns);
+        copy.spawnTimes.putAll(spawnTimes);
+        for (Int2ObjectMap.Entry<ArrayDeque<Despawn>> e : despawns.int2ObjectEntrySet()) {
+            copy.despawns.put(e.getIntKey(), new ArrayDeque<>(e.getValue()));
+        }
+        for (Int2ObjectMap.Entry<ArrayDeque<DropDespawn>> e : dropDespawns.int2ObjectEntrySet()) {
+            copy.dropDespawns.put(e.getIntKey(), new ArrayDeque<>(e.getValue()));
+        }
+        for (Int2ObjectMap.Entry<CountEntry> e : dropCounts.int2ObjectEntrySet()) {
+            copy.dropCounts.put(e.getIntKey(), new CountEntry(e.getValue().oldCount, e.getValue().lastSequence));
+        }
+        return copy;
+    }
+
+    /**
+     * Positions whose oldest block entity NBT can't be resolved from this index alone: neither
+     * their chain nor their history has a keyframe. Only happens for an index built from part of
+     * the window; see {@link #prependBlockEntityDeltas} and {@link #prependBlockEntityHistory}.
+     */
+    LongSet blockEntitiesWithoutKeyframe() {
+        LongSet missing = new LongOpenHashSet();
+        for (Long2ObjectMap.Entry<BlockEntityEntry> e : blockEntities.long2ObjectEntrySet()) {
+            if (e.getValue().chainKeyframes == 0 && e.getValue().historyKeyframes == 0) {
+                missing.add(e.getLongKey());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Prepend the block entity deltas of a frame older than every indexed (and prepended) frame as
+     * history, for the missing positions only. Positions reaching a keyframe are removed from missing.
+     */
+    void prependBlockEntityDeltas(TickFrame frame, LongSet missing) {
+        for (BlockEntityDelta beDelta : frame.getBlockEntityDeltas()) {
+            if (!missing.contains(beDelta.packedPos())) {
+                continue;
+            }
+            blockEntities.get(beDelta.packedPos()).prependHistory(beDelta);
+            if (beDelta.isKeyframe()) {
+                missing.remove(beDelta.packedPos());
+            }
+        }
+    }
+
+    /**
+     * Prepend another index's history for the missing positions. That index must have covered the
+     * frames right before this one's, i.e. had the same oldest frame.
+     */
+    void prependBlockEntityHistory(WindowIndex older, LongSet missing) {
+        for (long packedPos : missing) {
+            BlockEntityEntry olderEntry = older.blockEntities.get(packedPos);
+            if (olderEntry == null) {
+                continue;
+            }
+            BlockEntityEntry entry = blockEntities.get(packedPos);
+            Iterator<BlockEntityDelta> it = olderEntry.history.descendingIterator();
+            while (it.hasNext()) {
+                entry.prependHistory(it.next());
+            }
+        }
+    }
+
+    /**
+     * Export the indexed targets into a plan.
+     * NBT compounds and blobs are shared, not copied; plans never modify them. Entity update states
+     * are only turned into NBT here, and block entity NBT is only resolved from its patches here.
+     * Block change NBT stays encoded until the rewind job restores it.
+     */
+    void exportTo(RegistryKey<World> dimension, PlanBuilder plan) {
+        for (Long2ObjectMap.Entry<BlockEntry> e : blocks.long2ObjectEntrySet()) {
+            RewindPlan.BlockKey key = new RewindPlan.BlockKey(dimension, e.getLongKey());
+            BlockLink oldest = e.getValue().oldest;
+            plan.blockTargetStates.put(key, Block.getStateFromRawId(oldest.oldStateId()));
+            if (oldest.oldNbt() != null) {
+                plan.blockEntityTargetNbts.put(key, oldest.oldNbt());
+            }
+        }
+        for (Long2ObjectMap.Entry<BlockEntityEntry> e : blockEntities.long2ObjectEntrySet()) {
+            if (!precedesBlockChange(e.getLongKey(), e.getValue().chain.peekFirst().sequence())) {
+                continue;
+            }
+            // Null (no keyframe in reach) only for a chain the tracker's keyframe interval didn't cover
+            NbtCompound oldNbt = e.getValue().resolveOldest();
+            if (oldNbt != null) {
+                plan.standaloneBeTargetNbts.put(new RewindPlan.BlockKey(dimension, e.getLongKey()), oldNbt);
+            }
+        }
+        for (Long2ObjectMap.Entry<InventoryEntry> e : inventorySlots.long2ObjectEntrySet()) {
+            if (!precedesBlockChange(e.getLongKey(), e.getValue().firstSequence())) {
+                continue;
+            }
+            RewindPlan.BlockKey key = new RewindPlan.BlockKey(dimension, e.getLongKey());
+            for (Int2ObjectMap.Entry<SlotEntry> slot : e.getValue().slots.int2ObjectEntrySet()) {
+                plan.addSlotTarget(key, new RewindPlan.SlotTarget(slot.getIntKey(),
+                        slot.getValue().oldPrototype, slot.getValue().oldCount));
+            }
+        }
+        for (int handle : spawns.keySet()) {
+            if (spawnTimes.containsKey(handle)) {
+                plan.addEntitySpawn(handle, spawnTimes.get(handle));
+            } else {
+                plan.entitiesToRemove.add(handle);    // A drop
+            }
+        }
+        for (Int2ObjectMap.Entry<ArrayDeque<Despawn>> e : despawns.int2ObjectEntrySet()) {
+            Despawn oldest = e.getValue().peekFirst();
+            plan.addEntityRespawn(e.getIntKey(), oldest.gameTime(),
+                    new RewindPlan.EntitySpawnInfo(oldest.dimension(), oldest.entityType(), oldest.state()));
+        }
+        for (Int2ObjectMap.Entry<UpdateEntry> e : entityUpdates.int2ObjectEntrySet()) {
+            plan.addEntityTarget(e.getIntKey(), e.getValue().oldGameTime, e.getValue().oldState);
+        }
+        for (ArrayDeque<DropDespawn> queue : dropDespawns.values()) {
+            plan.addDropRespawn(dimension, queue.peekFirst().drop());
+        }
+        for (Int2ObjectMap.Entry<CountEntry> e : dropCounts.int2ObjectEntrySet()) {
+            plan.dropTargetCounts.put(e.getIntKey(), e.getValue().oldCount);
+        }
+    }
+
+    /**
+     * Whether a block entity or slot change whose oldest in-window change has the given sequence
+     * predates every block change at the position. The block target carries the block entity NBT
+     * from before its oldest change, so later edits (to a block entity placed in between) must not
+     * override it, while earlier ones are restored on top of it.
+     */
+    private boolean precedesBlockChange(long packedPos, long oldestSequence) {
+        BlockEntry block = blocks.get(packedPos);
+        return block == null || oldestSequence < block.oldest.sequence();
+    }
+
+    void clear() {
+        blocks.clear();
+        blockEntities.clear();
+        dormantBlockEntities.clear();
+        dormantExpiry.clear();
+        inventorySlots.clear();
+        entityUpdates.clear();
+        spawns.clear();
+        spawnTimes.clear();
+        despawns.clear();
+        dropDespawns.clear();
+        dropCounts.clear();
+    }
+
+    int size() {
+        return blocks.size() + blockEntities.size() + inventorySlots.size() + entityUpdates.size() + spawns.size() + despawns.size()
+                + dropDespawns.size() + dropCounts.size();
+    }
+}
@@ -5,20 +5,29 @@ import net.minecraft.registry.RegistryKey;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
 
 /**
  * Represents a block entity NBT change that occurred without a block state change.
  * This captures in-place modifications like chest inventory changes, furnace progress, etc.
+ *
+ * The change is stored as a structural {@link NbtPatch}. Keyframe deltas additionally carry the
+ * full old NBT (base), encoded as an {@link NbtBlob} and only decoded to resolve it; any state of a position's delta chain is resolved from the nearest base
+ * by replaying patches forward, or undoing them from the next base (see {@link #resolveOldNbt}).
+ * The chain of one position is continuous (each delta starts where the previous one ended)
+ * except at keyframes.
  */
 public record BlockEntityDelta(
         RegistryKey<World> dimension,
         long packedPos,
         Identifier blockEntityType,
-        NbtCompound oldNbt,
-        NbtCompound newNbt
+        @Nullable NbtBlob base,
+        NbtPatch patch
 ) {
     /**
-     * Create a BlockEntityDelta with unpacked BlockPos.
+     * Create a keyframe BlockEntityDelta with unpacked BlockPos.
      */
     public static BlockEntityDelta create(
             RegistryKey<World> dimension,
@@ -31,11 +40,79 @@ public record BlockEntityDelta(
                 dimension,
                 pos.asLong(),
                 blockEntityType,
-                oldNbt.copy(),
-                newNbt.copy()
+                NbtBlob.encode(oldNbt, NbtBlob.NEVER_DEFLATE),
+                NbtPatch.diff(oldNbt.copy(), newNbt.copy())
         );
     }
 
+    /**
+     * Whether this delta carries the full old NBT.
+     */
+    public boolean isKeyframe() {
+        return base != null;
+    }
+
+    /**
+     * Old NBT of chain[target], where chain is one position's deltas in order.
+     * Replays forward from the nearest keyframe at or before target, or else undoes patches from the
+     * first keyframe after it. Returns null if the chain has no keyframe.
+     * The result is a new compound (a decoded base with the patches applied).
+     */
+    @Nullable
+    public static NbtCompound resolveOldNbt(List<BlockEntityDelta> chain, int target) {
+        for (int i = target; i >= 0; i--) {
+            NbtBlob base = chain.get(i).base();
+            if (base == null) {
+                continue;
+            }
+            NbtCompound nbt = base.decode();
+            for (int j = i; j < target; j++) {
+                chain.get(j).patch().applyForward(nbt);
+            }
+            return nbt;
+        }
+        for (int i = target + 1; i < chain.size(); i++) {
+            NbtBlob base = chain.get(i).base();
+            if (base == null) {
+                continue;
+            }
+            NbtCompound nbt = base.decode();
+            for (int j = i - 1; j >= target; j--) {
+                chain.get(j).patch().applyReverse(nbt);
+            }
+            return nbt;
+        }
+        return null;
+    }
+
+    /**
+     * Fold one position's consecutive deltas into one from the first old to the last new NBT.
+     * If the run has a keyframe, the result is a keyframe too (its base resolved from the run);
+     * otherwise the patches are composed. A new base is encoded by the given store's settings.
+     */
+    public static BlockEntityDelta merge(List<BlockEntityDelta> run, NbtStore store) {
+        BlockEntityDelta first = run.get(0);
+        BlockEntityDelta last = run.get(run.size() - 1);
+        if (run.size() == 1) {
+            return first;
+        }
+
+        NbtCompound oldNbt = resolveOldNbt(run, 0);
+        if (oldNbt == null) {
+            NbtPatch patch = first.patch();
+            for (int i = 1; i < run.size(); i++) {
+                patch = NbtPatch.compose(patch, run.get(i).patch());
+            }
+            return new BlockEntityDelta(first.dimension(), first.packedPos(), last.blockEntityType(), null, patch);
+        }
+
+        // The run may restart at a keyframe, so the last new NBT is resolved on its own
+        NbtCompound newNbt = resolveOldNbt(run, run.size() - 1);
+        last.patch().applyForward(newNbt);
+        return new BlockEntityDelta(first.dimension(), first.packedPos(), last.blockEntityType(),
+                store.encode(oldNbt), NbtPatch.diff(oldNbt, newNbt));
+    }
+
     /**
      * Get the BlockPos from packed long.
      */
@@ -44,21 +121,19 @@ public record BlockEntityDelta(
     }
 
     /**
-     * Estimate memory usage of this delta in bytes.
+     * Estimate memory usage of this delta in bytes, without the base: frames intern it in their
+     * timeline's NbtStore, which counts each distinct compound once.
      */
     public int estimateMemoryBytes() {
-        return 8 + 8 + 32 + estimateNbtSize(oldNbt) + estimateNbtSize(newNbt);
-    }
-
-    private static int estimateNbtSize(NbtCompound nbt) {
-        return 50 + nbt.getKeys().size() * 20;
+        return 8 + 8 + 32 + patch.estimateMemoryBytes();
     }
 
     @Override
     public String toString() {
-        return String.format("BlockEntityDelta[%s @ %s type=%s]",
+        return String.format("BlockEntityDelta[%s @ %s type=%s%s]",
                 dimension.getValue(),
                 pos().toShortString(),
-                blockEntityType);
+                blockEntityType,
+                base != null ? " keyframe" : "");
     }
 }
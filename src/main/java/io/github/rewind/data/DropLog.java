@@ -0,0 +1,259 @@
+package io.github.rewind.data;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Item entity and XP orb events of one frame, stored column-wise in primitive arrays instead of
+ * one EntityDelta with NBT per event. Drops spawn and despawn by the thousands on farms, so an
+ * event is a handful of numbers: entity handle, kind, prototype (ItemStack pool id or orb value),
+ * count and position.
+ *
+ * Events are folded while recording: a drop spawned and despawned within the log (e.g. merged
+ * into a neighbour on its first tick) leaves nothing, and repeated count changes of one drop
+ * (merges, partial pickups) keep the first old count and the last new count.
+ *
+ * A frame's drops all belong to its timeline's dimension.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+public final class DropLog {
+    public static final byte OP_SPAWN = 1;      // New count set, old count unused
+    public static final byte OP_DESPAWN = 2;    // Old count set, new count unused
+    public static final byte OP_COUNT = 3;      // Stack size / orb amount changed
+    private static final byte OP_NONE = 0;      // Folded away
+
+    public static final byte KIND_ITEM = 0;     // Prototype is an ItemStack pool id
+    public static final byte KIND_ORB = 1;      // Prototype is the orb's XP value
+
+    public static final int ENTRY_BYTES = 4 + 1 + 1 + 4 + 4 + 4 + 3 * 8;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size = 0;
+    private int liveCount = 0;
+    private int[] handles = new int[INITIAL_CAPACITY];
+    private byte[] ops = new byte[INITIAL_CAPACITY];
+    private byte[] kinds = new byte[INITIAL_CAPACITY];
+    private int[] prototypes = new int[INITIAL_CAPACITY];
+    private int[] oldCounts = new int[INITIAL_CAPACITY];
+    private int[] newCounts = new int[INITIAL_CAPACITY];
+    private double[] x = new double[INITIAL_CAPACITY];
+    private double[] y = new double[INITIAL_CAPACITY];
+    private double[] z = new double[INITIAL_CAPACITY];
+
+    // Handle -> index of its SPAWN / COUNT entry, for folding. Only needed while recording
+    private final Int2IntOpenHashMap spawnIndex = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap countIndex = new Int2IntOpenHashMap();
+    private boolean sealed = false;
+
+    public DropLog() {
+        spawnIndex.defaultReturnValue(-1);
+        countIndex.defaultReturnValue(-1);
+    }
+
+    public void addSpawn(int handle, byte kind, int prototype, int count, double x, double y, double z) {
+        int i = append(handle, OP_SPAWN, kind, prototype, 0, count, x, y, z);
+        spawnIndex.put(handle, i);
+    }
+
+    /**
+     * Record a despawn. Cancels out a spawn of the same drop in this log.
+     */
+    public void addDespawn(int handle, byte kind, int prototype, int count, double x, double y, double z) {
+        checkOpen();
+        int spawn = spawnIndex.remove(handle);
+        if (spawn >= 0) {
+            fold(spawn);
+            int change = countIndex.remove(handle);
+            if (change >= 0) {
+                fold(change);
+            }
+            return;
+        }
+        append(handle, OP_DESPAWN, kind, prototype, count, 0, x, y, z);
+    }
+
+    /**
+     * Record a count change, folded into this log's spawn or earlier count change of the drop.
+     */
+    public void addCountChange(int handle, byte kind, int prototype, int oldCount, int newCount,
+                               double x, double y, double z) {
+        checkOpen();
+        int spawn = spawnIndex.get(handle);
+        if (spawn >= 0) {
+            newCounts[spawn] = newCount;
+            return;
+        }
+        int change = countIndex.get(handle);
+        if (change >= 0) {
+            newCounts[change] = newCount;
+            return;
+        }
+        int i = append(handle, OP_COUNT, kind, prototype, oldCount, newCount, x, y, z);
+        countIndex.put(handle, i);
+    }
+
+    /**
+     * Replay another log's events (in order) into this one, folding them like live events.
+     */
+    public void addAll(DropLog other) {
+        Cursor cursor = other.cursor();
+        while (cursor.next()) {
+            switch (cursor.op()) {
+                case OP_SPAWN -> addSpawn(cursor.handle(), cursor.kind(), cursor.prototype(), cursor.newCount(),
+                        cursor.x(), cursor.y(), cursor.z());
+                case OP_DESPAWN -> addDespawn(cursor.handle(), cursor.kind(), cursor.prototype(), cursor.oldCount(),
+                        cursor.x(), cursor.y(), cursor.z());
+                case OP_COUNT -> addCountChange(cursor.handle(), cursor.kind(), cursor.prototype(),
+                        cursor.oldCount(), cursor.newCount(), cursor.x(), cursor.y(), cursor.z());
+            }
+        }
+    }
+
+    /**
+     * Drop folded entries and the folding indexes, and trim the columns.
+     */
+    public void seal() {
+        sealed = true;
+        spawnIndex.clear();
+        spawnIndex.trim();
+        countIndex.clear();
+        countIndex.trim();
+        if (liveCount != size) {
+            int live = 0;
+            for (int i = 0; i < size; i++) {
+                if (ops[i] != OP_NONE) {
+                    move(i, live++);
+                }
+            }
+            size = live;
+        }
+        if (handles.length != size) {
+            resize(size);
+        }
+    }
+
+    /**
+     * Number of recorded (not folded away) events.
+     */
+    public int size() {
+        return liveCount;
+    }
+
+    public int estimateMemoryBytes() {
+        return liveCount * ENTRY_BYTES;
+    }
+
+    /**
+     * Forward-only flyweight over the recorded events, in recording order.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private int append(int handle, byte op, byte kind, int prototype, int oldCount, int newCount,
+                       double px, double py, double pz) {
+        checkOpen();
+        if (size == handles.length) {
+            resize(Math.max(INITIAL_CAPACITY, size * 2));
+        }
+        int i = size++;
+        handles[i] = handle;
+        ops[i] = op;
+        kinds[i] = kind;
+        prototypes[i] = prototype;
+        oldCounts[i] = oldCount;
+        newCounts[i] = newCount;
+        x[i] = px;
+        y[i] = py;
+        z[i] = pz;
+        liveCount++;
+        return i;
+    }
+
+    private void fold(int i) {
+        ops[i] = OP_NONE;
+        liveCount--;
+    }
+
+    private void move(int from, int to) {
+        handles[to] = handles[from];
+        ops[to] = ops[from];
+        kinds[to] = kinds[from];
+        prototypes[to] = prototypes[from];
+        oldCounts[to] = oldCounts[from];
+        newCounts[to] = newCounts[from];
+        x[to] = x[from];
+        y[to] = y[from];
+        z[to] = z[from];
+    }
+
+    private void resize(int capacity) {
+        handles = Arrays.copyOf(handles, capacity);
+        ops = Arrays.copyOf(ops, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        prototypes = Arrays.copyOf(prototypes, capacity);
+        oldCounts = Arrays.copyOf(oldCounts, capacity);
+        newCounts = Arrays.copyOf(newCounts, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+    }
+
+    private void checkOpen() {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add to sealed DropLog");
+        }
+    }
+
+    /**
+     * Call {@link #next()} before reading the first event. Folded entries are skipped.
+     */
+    public final class Cursor {
+        private int index = -1;
+
+        public boolean next() {
+            do {
+                index++;
+            } while (index < size && ops[index] == OP_NONE);
+            return index < size;
+        }
+
+        public int handle() {
+            return handles[index];
+        }
+
+        public byte op() {
+            return ops[index];
+        }
+
+        public byte kind() {
+            return kinds[index];
+        }
+
+        public int prototype() {
+            return prototypes[index];
+        }
+
+        public int oldCount() {
+            return oldCounts[index];
+        }
+
+        public int newCount() {
+            return newCounts[index];
+        }
+
+        public double x() {
+            return x[index];
+        }
+
+        public double y() {
+            return y[index];
+        }
+
+        public double z() {
+            return z[index];
+        }
+    }
+}
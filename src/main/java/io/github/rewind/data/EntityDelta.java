@@ -6,19 +6,27 @@ import net.minecraft.util.Identifier;
 import net.minecraft.world.World;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.UUID;
-
 /**
  * Represents an entity state change within a tick.
+ * The entity is identified by its timeline handle (interned UUID), valid for the lifetime of the window.
+ *
+ * States hold the cheap recorded fields (position, rotation, velocity, health). SPAWN and DESPAWN
+ * states, and UPDATE states from keyframes on, also carry the entity's full saved data under
+ * FULL_DATA_KEY. That compound is shared between deltas and must never be modified.
  */
 public record EntityDelta(
         RegistryKey<World> dimension,
-        UUID entityId,
+        int entityHandle,
         EntityDeltaType type,
         @Nullable Identifier entityType,  // Required for SPAWN
         @Nullable NbtCompound oldState,   // State before (null for SPAWN)
         @Nullable NbtCompound newState    // State after (null for DESPAWN)
 ) {
+    /**
+     * Key of the nested full entity data (Entity.writeData output) in a state.
+     */
+    public static final String FULL_DATA_KEY = "Entity";
+
     /**
      * Types of entity changes we track.
      */
@@ -30,14 +38,15 @@ public record EntityDelta(
 
     /**
      * Create a SPAWN delta for a newly created entity.
+     * States are stored as passed; callers hand over fresh compounds.
      */
     public static EntityDelta spawn(
             RegistryKey<World> dimension,
-            UUID entityId,
+            int entityHandle,
             Identifier entityType,
             NbtCompound initialState
     ) {
-        return new EntityDelta(dimension, entityId, EntityDeltaType.SPAWN, entityType, null, initialState.copy());
+        return new EntityDelta(dimension, entityHandle, EntityDeltaType.SPAWN, entityType, null, initialState);
     }
 
     /**
@@ -45,11 +54,11 @@ public record EntityDelta(
      */
     public static EntityDelta despawn(
             RegistryKey<World> dimension,
-            UUID entityId,
+            int entityHandle,
             Identifier entityType,
             NbtCompound finalState
     ) {
-        return new EntityDelta(dimension, entityId, EntityDeltaType.DESPAWN, entityType, finalState.copy(), null);
+        return new EntityDelta(dimension, entityHandle, EntityDeltaType.DESPAWN, entityType, finalState, null);
     }
 
     /**
@@ -57,18 +66,18 @@ public record EntityDelta(
      */
     public static EntityDelta update(
             RegistryKey<World> dimension,
-            UUID entityId,
+            int entityHandle,
             NbtCompound oldState,
             NbtCompound newState
     ) {
-        return new EntityDelta(dimension, entityId, EntityDeltaType.UPDATE, null, oldState.copy(), newState.copy());
+        return new EntityDelta(dimension, entityHandle, EntityDeltaType.UPDATE, null, oldState, newState);
     }
 
     /**
      * Estimate memory usage of this delta in bytes.
      */
     public int estimateMemoryBytes() {
-        int size = 8 + 16 + 4 + 32; // dimension ref + UUID + type + entityType ref
+        int size = 8 + 4 + 4 + 32; // dimension ref + handle + type + entityType ref
         if (oldState != null) {
             size += estimateNbtSize(oldState);
         }
@@ -79,14 +88,19 @@ public record EntityDelta(
     }
 
     private static int estimateNbtSize(NbtCompound nbt) {
-        return 50 + nbt.getKeys().size() * 20;
+        int size = 50 + nbt.getKeys().size() * 20;
+        // Full entity data is shared between deltas, but counted for each so the budget errs on the safe side
+        if (nbt.get(FULL_DATA_KEY) instanceof NbtCompound fullData) {
+            size += fullData.getSizeInBytes();
+        }
+        return size;
     }
 
     @Override
     public String toString() {
-        return String.format("EntityDelta[%s %s in %s type=%s]",
+        return String.format("EntityDelta[%s #%d in %s type=%s]",
                 type,
-                entityId,
+                entityHandle,
                 dimension.getValue(),
                 entityType);
     }
@@ -0,0 +1,368 @@
+package io.github.rewind.data;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.nbt.NbtCompound;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entity UPDATE deltas of one frame, packed into a byte buffer instead of two NbtCompounds each.
+ *
+ * Fields are quantized to fixed point (see the *_STEPS constants; all far below the recording
+ * tolerances in RewindConfig). The old state is written as zigzag varints, the new state as
+ * varint deltas from the old one: consecutive ticks differ by little, so a moving mob's update
+ * takes a few dozen bytes. Health is kept as exact float bits. Full entity data (keyframes) is
+ * not encoded; entries refer to it through a per-log reference table, deduplicated while recording.
+ *
+ * Entries are decoded into a reusable {@link State} by a cursor; NBT is only built when a
+ * rewind plan asks for a state ({@link State#toNbt()}).
+ *
+ * Thread safety: A log is filled by one thread (the server thread or an entity diff task)
+ * and only read once it has been handed over to the server thread.
+ */
+public final class EntityUpdateLog {
+    public static final double POSITION_STEPS = 4096.0;    // Per block
+    public static final double VELOCITY_STEPS = 8000.0;    // Per block/tick (the velocity packet's precision)
+    public static final double ROTATION_STEPS = 256.0;     // Per degree
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final int LIVING = 1;
+    private static final int OLD_ON_GROUND = 1 << 1;
+    private static final int NEW_ON_GROUND = 1 << 2;
+    private static final int HEALTH_CHANGED = 1 << 3;
+    private static final int OLD_FULL_DATA = 1 << 4;
+    private static final int NEW_FULL_DATA = 1 << 5;
+
+    private byte[] data = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+    private int size = 0;
+
+    // Full entity data referenced by entries; the index is only needed while recording
+    private final List<NbtCompound> fullData = new ArrayList<>();
+    @Nullable private Reference2IntOpenHashMap<NbtCompound> fullDataIndex;
+    private int fullDataBytes = 0;
+    private boolean sealed = false;
+
+    /**
+     * Append an UPDATE. Both states are read, never kept.
+     */
+    public void add(int handle, State oldState, State newState) {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add to sealed EntityUpdateLog");
+        }
+        long oldX = quantize(oldState.x, POSITION_STEPS);
+        long oldY = quantize(oldState.y, POSITION_STEPS);
+        long oldZ = quantize(oldState.z, POSITION_STEPS);
+        long oldYaw = quantize(oldState.yaw, ROTATION_STEPS);
+        long oldPitch = quantize(oldState.pitch, ROTATION_STEPS);
+        long oldVelX = quantize(oldState.velX, VELOCITY_STEPS);
+        long oldVelY = quantize(oldState.velY, VELOCITY_STEPS);
+        long oldVelZ = quantize(oldState.velZ, VELOCITY_STEPS);
+
+        boolean living = oldState.living || newState.living;
+        boolean healthChanged = living && Float.floatToIntBits(oldState.health) != Float.floatToIntBits(newState.health);
+        int header = (living ? LIVING : 0)
+                | (oldState.onGround ? OLD_ON_GROUND : 0)
+                | (newState.onGround ? NEW_ON_GROUND : 0)
+                | (healthChanged ? HEALTH_CHANGED : 0)
+                | (oldState.fullData != null ? OLD_FULL_DATA : 0)
+                | (newState.fullData != null ? NEW_FULL_DATA : 0);
+
+        ensureCapacity(length + 5 + 1 + 16 * 10 + 8 + 2 * 5);
+        writeVarInt(handle);
+        data[length++] = (byte) header;
+
+        writeVarLong(zigzag(oldX));
+        writeVarLong(zigzag(oldY));
+        writeVarLong(zigzag(oldZ));
+        writeVarLong(zigzag(oldYaw));
+        writeVarLong(zigzag(oldPitch));
+        writeVarLong(zigzag(oldVelX));
+        writeVarLong(zigzag(oldVelY));
+        writeVarLong(zigzag(oldVelZ));
+
+        writeVarLong(zigzag(quantize(newState.x, POSITION_STEPS) - oldX));
+        writeVarLong(zigzag(quantize(newState.y, POSITION_STEPS) - oldY));
+        writeVarLong(zigzag(quantize(newState.z, POSITION_STEPS) - oldZ));
+        writeVarLong(zigzag(quantize(newState.yaw, ROTATION_STEPS) - oldYaw));
+        writeVarLong(zigzag(quantize(newState.pitch, ROTATION_STEPS) - oldPitch));
+        writeVarLong(zigzag(quantize(newState.velX, VELOCITY_STEPS) - oldVelX));
+        writeVarLong(zigzag(quantize(newState.velY, VELOCITY_STEPS) - oldVelY));
+        writeVarLong(zigzag(quantize(newState.velZ, VELOCITY_STEPS) - oldVelZ));
+
+        if (living) {
+            writeInt(Float.floatToIntBits(oldState.health));
+            if (healthChanged) {
+                writeInt(Float.floatToIntBits(newState.health));
+            }
+        }
+        if (oldState.fullData != null) {
+            writeVarInt(fullDataRef(oldState.fullData));
+        }
+        if (newState.fullData != null) {
+            writeVarInt(fullDataRef(newState.fullData));
+        }
+        size++;
+    }
+
+    /**
+     * Append every entry of another log, in order.
+     */
+    public void addAll(EntityUpdateLog other) {
+        Cursor cursor = other.cursor();
+        while (cursor.next()) {
+            add(cursor.handle(), cursor.oldState(), cursor.newState());
+        }
+    }
+
+    /**
+     * Drop the recording index and trim the buffer.
+     */
+    public void seal() {
+        sealed = true;
+        fullDataIndex = null;
+        if (data.length != length) {
+            data = Arrays.copyOf(data, length);
+        }
+        ((ArrayList<?>) fullData).trimToSize();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Buffer bytes plus each distinct full data compound once. Full data is shared with other frames
+     * and the entity state tables, but counted per log so the budget errs on the safe side.
+     */
+    public int estimateMemoryBytes() {
+        return length + fullDataBytes;
+    }
+
+    /**
+     * Forward-only cursor over the entries, in recording order.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private int fullDataRef(NbtCompound compound) {
+        if (fullDataIndex == null) {
+            fullDataIndex = new Reference2IntOpenHashMap<>();
+            fullDataIndex.defaultReturnValue(-1);
+        }
+        int ref = fullDataIndex.getInt(compound);
+        if (ref < 0) {
+            ref = fullData.size();
+            fullData.add(compound);
+            fullDataIndex.put(compound, ref);
+            fullDataBytes += 8 + compound.getSizeInBytes();
+        }
+        return ref;
+    }
+
+    private static long quantize(double value, double steps) {
+        return Math.round(value * steps);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+        }
+    }
+
+    private void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        data[length++] = (byte) (value >>> 24);
+        data[length++] = (byte) (value >>> 16);
+        data[length++] = (byte) (value >>> 8);
+        data[length++] = (byte) value;
+    }
+
+    /**
+     * Decoded entity state: the recorded fields plus the full data reference.
+     * Mutable and reused; copy it ({@link #copyFrom}) to keep it past the next decode.
+     */
+    public static final class State {
+        public double x;
+        public double y;
+        public double z;
+        public float yaw;
+        public float pitch;
+        public double velX;
+        public double velY;
+        public double velZ;
+        public boolean onGround;
+        public boolean living;          // Health is meaningful
+        public float health;
+        @Nullable public NbtCompound fullData;  // Shared, never modified
+
+        public void copyFrom(State other) {
+            x = other.x;
+            y = other.y;
+            z = other.z;
+            yaw = other.yaw;
+            pitch = other.pitch;
+            velX = other.velX;
+            velY = other.velY;
+            velZ = other.velZ;
+            onGround = other.onGround;
+            living = other.living;
+            health = other.health;
+            fullData = other.fullData;
+        }
+
+        /**
+         * Read a state back from its NBT form (the layout written by {@link #toNbt()}).
+         */
+        public void readNbt(NbtCompound nbt) {
+            x = nbt.getDouble("X").orElse(0.0);
+            y = nbt.getDouble("Y").orElse(0.0);
+            z = nbt.getDouble("Z").orElse(0.0);
+            yaw = nbt.getFloat("Yaw").orElse(0.0f);
+            pitch = nbt.getFloat("Pitch").orElse(0.0f);
+            velX = nbt.getDouble("VelX").orElse(0.0);
+            velY = nbt.getDouble("VelY").orElse(0.0);
+            velZ = nbt.getDouble("VelZ").orElse(0.0);
+            onGround = nbt.getBoolean("OnGround").orElse(false);
+            living = nbt.contains("Health");
+            health = nbt.getFloat("Health").orElse(0.0f);
+            fullData = nbt.getCompound(EntityDelta.FULL_DATA_KEY).orElse(null);
+        }
+
+        /**
+         * The state as stored in EntityDelta and rewind plans. The full data is attached by reference.
+         */
+        public NbtCompound toNbt() {
+            NbtCompound nbt = new NbtCompound();
+            nbt.putDouble("X", x);
+            nbt.putDouble("Y", y);
+            nbt.putDouble("Z", z);
+            nbt.putFloat("Yaw", yaw);
+            nbt.putFloat("Pitch", pitch);
+            nbt.putDouble("VelX", velX);
+            nbt.putDouble("VelY", velY);
+            nbt.putDouble("VelZ", velZ);
+            nbt.putBoolean("OnGround", onGround);
+            if (living) {
+                nbt.putFloat("Health", health);
+            }
+            if (fullData != null) {
+                nbt.put(EntityDelta.FULL_DATA_KEY, fullData);
+            }
+            return nbt;
+        }
+    }
+
+    /**
+     * Call {@link #next()} before reading the first entry. Each call decodes one entry into
+     * the cursor's two States, which are overwritten by the next call.
+     */
+    public final class Cursor {
+        private int position = 0;
+        private int handle;
+        private final State oldState = new State();
+        private final State newState = new State();
+
+        private Cursor() {}
+
+        public boolean next() {
+            if (position >= length) {
+                return false;
+            }
+            handle = (int) readVarLong();
+            int header = data[position++];
+            boolean living = (header & LIVING) != 0;
+
+            long x = unzigzag(readVarLong());
+            long y = unzigzag(readVarLong());
+            long z = unzigzag(readVarLong());
+            long yaw = unzigzag(readVarLong());
+            long pitch = unzigzag(readVarLong());
+            long velX = unzigzag(readVarLong());
+            long velY = unzigzag(readVarLong());
+            long velZ = unzigzag(readVarLong());
+            oldState.x = x / POSITION_STEPS;
+            oldState.y = y / POSITION_STEPS;
+            oldState.z = z / POSITION_STEPS;
+            oldState.yaw = (float) (yaw / ROTATION_STEPS);
+            oldState.pitch = (float) (pitch / ROTATION_STEPS);
+            oldState.velX = velX / VELOCITY_STEPS;
+            oldState.velY = velY / VELOCITY_STEPS;
+            oldState.velZ = velZ / VELOCITY_STEPS;
+
+            newState.x = (x + unzigzag(readVarLong())) / POSITION_STEPS;
+            newState.y = (y + unzigzag(readVarLong())) / POSITION_STEPS;
+            newState.z = (z + unzigzag(readVarLong())) / POSITION_STEPS;
+            newState.yaw = (float) ((yaw + unzigzag(readVarLong())) / ROTATION_STEPS);
+            newState.pitch = (float) ((pitch + unzigzag(readVarLong())) / ROTATION_STEPS);
+            newState.velX = (velX + unzigzag(readVarLong())) / VELOCITY_STEPS;
+            newState.velY = (velY + unzigzag(readVarLong())) / VELOCITY_STEPS;
+            newState.velZ = (velZ + unzigzag(readVarLong())) / VELOCITY_STEPS;
+
+            oldState.onGround = (header & OLD_ON_GROUND) != 0;
+            newState.onGround = (header & NEW_ON_GROUND) != 0;
+            oldState.living = living;
+            newState.living = living;
+            oldState.health = living ? Float.intBitsToFloat(readInt()) : 0.0f;
+            newState.health = (header & HEALTH_CHANGED) != 0 ? Float.intBitsToFloat(readInt()) : oldState.health;
+            oldState.fullData = (header & OLD_FULL_DATA) != 0 ? fullData.get((int) readVarLong()) : null;
+            newState.fullData = (header & NEW_FULL_DATA) != 0 ? fullData.get((int) readVarLong()) : null;
+            return true;
+        }
+
+        public int handle() {
+            return handle;
+        }
+
+        public State oldState() {
+            return oldState;
+        }
+
+        public State newState() {
+            return newState;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private int readInt() {
+            int value = (data[position] & 0xFF) << 24 | (data[position + 1] & 0xFF) << 16
+                    | (data[position + 2] & 0xFF) << 8 | (data[position + 3] & 0xFF);
+            position += 4;
+            return value;
+        }
+    }
+}
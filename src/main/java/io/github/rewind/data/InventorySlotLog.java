@@ -0,0 +1,190 @@
+package io.github.rewind.data;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Slot changes of inventory block entities (chests, hoppers, furnaces, ...) in one frame, stored
+ * column-wise in primitive arrays: packed position, slot, and the old and new stack as an
+ * ItemStack pool id (see {@link #EMPTY}) and count. A hopper transfer is two such entries instead
+ * of a serialized block entity.
+ *
+ * Repeated changes of one slot within the log keep the first old and the last new stack; a slot
+ * changed back to where it started leaves nothing.
+ *
+ * A frame's slot changes all belong to its timeline's dimension. Block entity NBT recorded for
+ * an inventory leaves out {@link #ITEMS_KEY}, so restoring it keeps the live stacks.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+public final class InventorySlotLog {
+    public static final int EMPTY = -1;             // Prototype of an empty slot
+    public static final String ITEMS_KEY = "Items"; // Inventory key of vanilla block entity NBT
+
+    public static final int ENTRY_BYTES = 8 + 4 + 4 * 4;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size = 0;
+    private int liveCount = 0;
+    private long[] positions = new long[INITIAL_CAPACITY];
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int[] oldPrototypes = new int[INITIAL_CAPACITY];
+    private int[] oldCounts = new int[INITIAL_CAPACITY];
+    private int[] newPrototypes = new int[INITIAL_CAPACITY];
+    private int[] newCounts = new int[INITIAL_CAPACITY];
+    private boolean[] folded = new boolean[INITIAL_CAPACITY];
+
+    // Packed pos -> slot -> index of its entry, for folding. Only needed while recording
+    private final Long2ObjectOpenHashMap<Int2IntOpenHashMap> entryIndex = new Long2ObjectOpenHashMap<>();
+    private boolean sealed = false;
+
+    /**
+     * Record a slot change, folded into an earlier change of the same slot in this log.
+     */
+    public void addChange(long packedPos, int slot, int oldPrototype, int oldCount, int newPrototype, int newCount) {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add to sealed InventorySlotLog");
+        }
+        Int2IntOpenHashMap slotIndex = entryIndex.get(packedPos);
+        if (slotIndex == null) {
+            slotIndex = new Int2IntOpenHashMap();
+            slotIndex.defaultReturnValue(-1);
+            entryIndex.put(packedPos, slotIndex);
+        }
+        int existing = slotIndex.get(slot);
+        if (existing >= 0) {
+            newPrototypes[existing] = newPrototype;
+            newCounts[existing] = newCount;
+            boolean unchanged = oldPrototypes[existing] == newPrototype && oldCounts[existing] == newCount;
+            if (unchanged != folded[existing]) {
+                folded[existing] = unchanged;
+                liveCount += unchanged ? -1 : 1;
+            }
+            return;
+        }
+
+        if (size == positions.length) {
+            resize(Math.max(INITIAL_CAPACITY, size * 2));
+        }
+        int i = size++;
+        positions[i] = packedPos;
+        slots[i] = slot;
+        oldPrototypes[i] = oldPrototype;
+        oldCounts[i] = oldCount;
+        newPrototypes[i] = newPrototype;
+        newCounts[i] = newCount;
+        folded[i] = false;
+        liveCount++;
+        slotIndex.put(slot, i);
+    }
+
+    /**
+     * Replay another log's changes (in order) into this one, folding them like live changes.
+     */
+    public void addAll(InventorySlotLog other) {
+        Cursor cursor = other.cursor();
+        while (cursor.next()) {
+            addChange(cursor.packedPos(), cursor.slot(), cursor.oldPrototype(), cursor.oldCount(),
+                    cursor.newPrototype(), cursor.newCount());
+        }
+    }
+
+    /**
+     * Drop folded entries and the folding index, and trim the columns.
+     */
+    public void seal() {
+        sealed = true;
+        entryIndex.clear();
+        entryIndex.trim();
+        if (liveCount != size) {
+            int live = 0;
+            for (int i = 0; i < size; i++) {
+                if (!folded[i]) {
+                    move(i, live++);
+                }
+            }
+            size = live;
+        }
+        if (positions.length != size) {
+            resize(size);
+        }
+    }
+
+    /**
+     * Number of recorded (not folded away) slot changes.
+     */
+    public int size() {
+        return liveCount;
+    }
+
+    public int estimateMemoryBytes() {
+        return liveCount * ENTRY_BYTES;
+    }
+
+    /**
+     * Forward-only flyweight over the recorded changes, in recording order.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private void move(int from, int to) {
+        positions[to] = positions[from];
+        slots[to] = slots[from];
+        oldPrototypes[to] = oldPrototypes[from];
+        oldCounts[to] = oldCounts[from];
+        newPrototypes[to] = newPrototypes[from];
+        newCounts[to] = newCounts[from];
+        folded[to] = false;
+    }
+
+    private void resize(int capacity) {
+        positions = Arrays.copyOf(positions, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+        oldPrototypes = Arrays.copyOf(oldPrototypes, capacity);
+        oldCounts = Arrays.copyOf(oldCounts, capacity);
+        newPrototypes = Arrays.copyOf(newPrototypes, capacity);
+        newCounts = Arrays.copyOf(newCounts, capacity);
+        folded = Arrays.copyOf(folded, capacity);
+    }
+
+    /**
+     * Call {@link #next()} before reading the first change. Folded entries are skipped.
+     */
+    public final class Cursor {
+        private int index = -1;
+
+        public boolean next() {
+            do {
+                index++;
+            } while (index < size && folded[index]);
+            return index < size;
+        }
+
+        public long packedPos() {
+            return positions[index];
+        }
+
+        public int slot() {
+            return slots[index];
+        }
+
+        public int oldPrototype() {
+            return oldPrototypes[index];
+        }
+
+        public int oldCount() {
+            return oldCounts[index];
+        }
+
+        public int newPrototype() {
+            return newPrototypes[index];
+        }
+
+        public int newCount() {
+            return newCounts[index];
+        }
+    }
+}
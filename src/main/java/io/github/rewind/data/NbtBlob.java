@@ -0,0 +1,174 @@
+package io.github.rewind.data;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtSizeTracker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An NbtCompound kept in its NbtIo encoding, optionally deflated, instead of as an object tree.
+ * A recorded block entity snapshot is one byte array on the heap until a rewind restores it;
+ * {@link #decode()} builds a fresh compound each time.
+ *
+ * Equality is by encoded content, so equal compounds encoded the same way share one blob in
+ * the NbtStore. Compounds whose keys were inserted in a different order may encode differently
+ * and are then stored twice, which only costs deduplication.
+ *
+ * Thread safety: Immutable; safe to read from any thread. An {@link Encoder} is single-threaded.
+ */
+public final class NbtBlob {
+    public static final int NEVER_DEFLATE = -1;
+
+    private final byte[] data;      // NbtIo bytes, deflated if shorter than rawLength
+    private final int rawLength;    // Length of the NbtIo encoding
+    private final int hash;
+
+    private NbtBlob(byte[] data, int rawLength) {
+        this.data = data;
+        this.rawLength = rawLength;
+        this.hash = 31 * Arrays.hashCode(data) + rawLength;
+    }
+
+    /**
+     * Encode with a one-off encoder. Timelines encode through their NbtStore, which reuses one.
+     */
+    public static NbtBlob encode(NbtCompound nbt, int deflateMinBytes) {
+        return new Encoder(deflateMinBytes).encode(nbt);
+    }
+
+    /**
+     * Decode into a new compound, which the caller may modify.
+     */
+    public NbtCompound decode() {
+        byte[] raw = data;
+        if (isDeflated()) {
+            raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                int length = 0;
+                while (length < rawLength && !inflater.finished()) {
+                    length += inflater.inflate(raw, length, rawLength - length);
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt deflated NBT", e);
+            } finally {
+                inflater.end();
+            }
+        }
+        try {
+            return NbtIo.readCompound(new DataInputStream(new ByteArrayInputStream(raw)), NbtSizeTracker.ofUnlimitedBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt encoded NBT", e);
+        }
+    }
+
+    public boolean isDeflated() {
+        return data.length < rawLength;
+    }
+
+    /**
+     * Retained size: the byte array plus object headers.
+     */
+    public int sizeInBytes() {
+        return 16 + 16 + data.length;
+    }
+
+    public int rawLength() {
+        return rawLength;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof NbtBlob other
+                && hash == other.hash && rawLength == other.rawLength && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NbtBlob[%d bytes%s]", data.length, isDeflated() ? ", deflated from " + rawLength : "");
+    }
+
+    /**
+     * Reusable encoder: writes into a scratch buffer and deflates into a second one, so the only
+     * allocation per compound is the exact-size result array.
+     */
+    public static final class Encoder {
+        private final int deflateMinBytes;  // NEVER_DEFLATE (or any negative value) to never deflate
+        private final ScratchBuffer buffer = new ScratchBuffer();
+        private final DataOutputStream out = new DataOutputStream(buffer);
+        private byte[] deflateScratch = new byte[0];
+        private Deflater deflater;          // Created on first use
+
+        public Encoder(int deflateMinBytes) {
+            this.deflateMinBytes = deflateMinBytes;
+        }
+
+        public NbtBlob encode(NbtCompound nbt) {
+            buffer.reset();
+            try {
+                NbtIo.writeCompound(nbt, out);
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to encode NBT", e);
+            }
+            byte[] raw = buffer.array();
+            int rawLength = buffer.size();
+            if (deflateMinBytes >= 0 && rawLength >= deflateMinBytes) {
+                int deflatedLength = deflate(raw, rawLength);
+                if (deflatedLength < rawLength) {
+                    return new NbtBlob(Arrays.copyOf(deflateScratch, deflatedLength), rawLength);
+                }
+            }
+            return new NbtBlob(Arrays.copyOf(raw, rawLength), rawLength);
+        }
+
+        /**
+         * Deflate into deflateScratch. Gives up (returns rawLength) once the output reaches the input size.
+         */
+        private int deflate(byte[] raw, int rawLength) {
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            }
+            if (deflateScratch.length < rawLength) {
+                deflateScratch = new byte[rawLength];
+            }
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished() && length < rawLength) {
+                length += deflater.deflate(deflateScratch, length, rawLength - length);
+            }
+            return deflater.finished() ? length : rawLength;
+        }
+    }
+
+    /**
+     * ByteArrayOutputStream with access to its backing array, to avoid a copy before deflating.
+     */
+    private static final class ScratchBuffer extends ByteArrayOutputStream {
+        ScratchBuffer() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package io.github.rewind.data;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Structural difference between two NbtCompounds: only the keys that changed, recursing into
+ * nested compounds and into lists of equal length (per changed entry). Each change keeps both the
+ * old and the new value, so a patch can be applied forward (old to new) or in reverse (new to old).
+ *
+ * A furnace tick changes one or two short counters; its patch holds those instead of two copies
+ * of the whole block entity including its inventory.
+ *
+ * Changed values are shared with the compounds the patch was built from, not copied, so those
+ * must not be modified afterwards. Applying a patch puts copies into the target.
+ *
+ * Thread safety: Immutable once built; safe to read from any thread.
+ */
+public final class NbtPatch {
+    public static final NbtPatch EMPTY = new NbtPatch(Map.of());
+
+    private final Map<String, Change> changes;
+
+    private sealed interface Change permits Replace, Nested, ListEdit {}
+
+    /**
+     * Whole value replaced; null means the key is absent on that side.
+     */
+    private record Replace(@Nullable NbtElement oldValue, @Nullable NbtElement newValue) implements Change {}
+
+    private record Nested(NbtPatch patch) implements Change {}
+
+    /**
+     * Changed entries of a list whose length did not change, by index.
+     */
+    private record ListEdit(Int2ObjectMap<Change> entries) implements Change {}
+
+    private NbtPatch(Map<String, Change> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * Diff two compounds. Returns {@link #EMPTY} if they are equal.
+     */
+    public static NbtPatch diff(NbtCompound oldNbt, NbtCompound newNbt) {
+        Map<String, Change> changes = null;
+        for (String key : oldNbt.getKeys()) {
+            Change change = diffElement(oldNbt.get(key), newNbt.get(key));
+            if (change != null) {
+                if (changes == null) {
+                    changes = new HashMap<>();
+                }
+                changes.put(key, change);
+            }
+        }
+        for (String key : newNbt.getKeys()) {
+            if (!oldNbt.contains(key)) {
+                if (changes == null) {
+                    changes = new HashMap<>();
+                }
+                changes.put(key, new Replace(null, newNbt.get(key)));
+            }
+        }
+        return changes == null ? EMPTY : new NbtPatch(changes);
+    }
+
+    @Nullable
+    private static Change diffElement(@Nullable NbtElement oldValue, @Nullable NbtElement newValue) {
+        if (oldValue instanceof NbtCompound oldCompound && newValue instanceof NbtCompound newCompound) {
+            NbtPatch patch = diff(oldCompound, newCompound);
+            return patch.isEmpty() ? null : new Nested(patch);
+        }
+        if (oldValue instanceof NbtList oldList && newValue instanceof NbtList newList
+                && oldList.size() == newList.size()) {
+            Int2ObjectMap<Change> entries = new Int2ObjectArrayMap<>();
+            for (int i = 0; i < oldList.size(); i++) {
+                Change change = diffElement(oldList.get(i), newList.get(i));
+                if (change != null) {
+                    entries.put(i, change);
+                }
+            }
+            if (entries.isEmpty()) {
+                return null;
+            }
+            // A mostly rewritten list is cheaper to store (and apply) whole
+            if (entries.size() * 2 <= oldList.size()) {
+                return new ListEdit(entries);
+            }
+            return new Replace(oldValue, newValue);
+        }
+        return Objects.equals(oldValue, newValue) ? null : new Replace(oldValue, newValue);
+    }
+
+    /**
+     * Patch equivalent to applying earlier and then later. later must start from the state earlier
+     * ends in; returns {@link #EMPTY} if the two cancel out.
+     */
+    public static NbtPatch compose(NbtPatch earlier, NbtPatch later) {
+        if (earlier.isEmpty()) {
+            return later;
+        }
+        if (later.isEmpty()) {
+            return earlier;
+        }
+        Map<String, Change> changes = new HashMap<>(earlier.changes);
+        for (Map.Entry<String, Change> e : later.changes.entrySet()) {
+            Change first = changes.get(e.getKey());
+            Change composed = first == null ? e.getValue() : composeChange(first, e.getValue());
+            if (composed == null) {
+                changes.remove(e.getKey());
+            } else {
+                changes.put(e.getKey(), composed);
+            }
+        }
+        return changes.isEmpty() ? EMPTY : new NbtPatch(changes);
+    }
+
+    @Nullable
+    private static Change composeChange(Change first, Change second) {
+        if (first instanceof Replace a && second instanceof Replace b) {
+            return Objects.equals(a.oldValue(), b.newValue()) ? null : new Replace(a.oldValue(), b.newValue());
+        }
+        if (first instanceof Replace a) {
+            // The whole intermediate value is known, so the finer change can be folded into it
+            return new Replace(a.oldValue(), applyChange(a.newValue(), second, true));
+        }
+        if (second instanceof Replace b) {
+            return new Replace(applyChange(b.oldValue(), first, false), b.newValue());
+        }
+        if (first instanceof Nested a && second instanceof Nested b) {
+            NbtPatch patch = compose(a.patch(), b.patch());
+            return patch.isEmpty() ? null : new Nested(patch);
+        }
+        if (first instanceof ListEdit a && second instanceof ListEdit b) {
+            Int2ObjectMap<Change> entries = new Int2ObjectArrayMap<>(a.entries());
+            for (Int2ObjectMap.Entry<Change> e : b.entries().int2ObjectEntrySet()) {
+                Change entry = entries.get(e.getIntKey());
+                Change composed = entry == null ? e.getValue() : composeChange(entry, e.getValue());
+                if (composed == null) {
+                    entries.remove(e.getIntKey());
+                } else {
+                    entries.put(e.getIntKey(), composed);
+                }
+            }
+            return entries.isEmpty() ? null : new ListEdit(entries);
+        }
+        throw new IllegalArgumentException("Patches do not chain: " + first + " then " + second);
+    }
+
+    /**
+     * Copy of value with a nested or list change applied.
+     */
+    private static NbtElement applyChange(@Nullable NbtElement value, Change change, boolean forward) {
+        if (value == null) {
+            throw new IllegalArgumentException("Patches do not chain: " + change + " on a missing value");
+        }
+        NbtElement copy = value.copy();
+        if (change instanceof Nested nested && copy instanceof NbtCompound compound) {
+            nested.patch().apply(compound, forward);
+        } else if (change instanceof ListEdit edit && copy instanceof NbtList list) {
+            applyListEdit(edit, list, forward);
+        }
+        return copy;
+    }
+
+    /**
+     * Turn the old state into the new one, in place.
+     */
+    public void applyForward(NbtCompound target) {
+        apply(target, true);
+    }
+
+    /**
+     * Turn the new state back into the old one, in place.
+     */
+    public void applyReverse(NbtCompound target) {
+        apply(target, false);
+    }
+
+    private void apply(NbtCompound target, boolean forward) {
+        for (Map.Entry<String, Change> e : changes.entrySet()) {
+            String key = e.getKey();
+            switch (e.getValue()) {
+                case Replace replace -> {
+                    NbtElement value = forward ? replace.newValue() : replace.oldValue();
+                    if (value == null) {
+                        target.remove(key);
+                    } else {
+                        target.put(key, value.copy());
+                    }
+                }
+                case Nested nested -> target.getCompound(key).ifPresent(child -> nested.patch().apply(child, forward));
+                case ListEdit edit -> target.getList(key).ifPresent(list -> applyListEdit(edit, list, forward));
+            }
+        }
+    }
+
+    private static void applyListEdit(ListEdit edit, NbtList list, boolean forward) {
+        for (Int2ObjectMap.Entry<Change> e : edit.entries().int2ObjectEntrySet()) {
+            int index = e.getIntKey();
+            if (index >= list.size()) {
+                continue;
+            }
+            switch (e.getValue()) {
+                case Replace replace -> {
+                    NbtElement value = forward ? replace.newValue() : replace.oldValue();
+                    if (value != null) {
+                        list.set(index, value.copy());
+                    }
+                }
+                case Nested nested -> {
+                    if (list.get(index) instanceof NbtCompound child) {
+                        nested.patch().apply(child, forward);
+                    }
+                }
+                case ListEdit nestedEdit -> {
+                    if (list.get(index) instanceof NbtList child) {
+                        applyListEdit(nestedEdit, child, forward);
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Rough size: per change overhead plus the serialized size of both sides of each replaced value.
+     * Shared values are counted here anyway, so the budget errs on the safe side.
+     */
+    public int estimateMemoryBytes() {
+        int size = 16;
+        for (Map.Entry<String, Change> e : changes.entrySet()) {
+            size += 32 + e.getKey().length() + estimateChange(e.getValue());
+        }
+        return size;
+    }
+
+    private static int estimateChange(Change change) {
+        return switch (change) {
+            case Replace replace -> 16
+                    + (replace.oldValue() != null ? replace.oldValue().getSizeInBytes() : 0)
+                    + (replace.newValue() != null ? replace.newValue().getSizeInBytes() : 0);
+            case Nested nested -> nested.patch().estimateMemoryBytes();
+            case ListEdit edit -> {
+                int size = 16;
+                for (Change entry : edit.entries().values()) {
+                    size += 16 + estimateChange(entry);
+                }
+                yield size;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "NbtPatch" + changes.keySet();
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.rewind.data;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.nbt.NbtCompound;
+
+import java.util.Arrays;
+
+/**
+ * Content-addressed, reference-counted store of block entity NBT for one timeline.
+ *
+ * Compounds are kept encoded as {@link NbtBlob}s and stored once per distinct encoding under a
+ * compact id: identical empty chests, signs with the same text or a shulker box pushed back and
+ * forth by pistons all share one blob. Every {@link #intern} takes a reference, every
+ * {@link #release} drops one, and the entry (and its id) is freed with its last reference.
+ * Blobs are immutable, so holders may keep one after releasing its id.
+ *
+ * Memory is accounted once per distinct entry ({@link #getMemoryBytes()}), not per reference.
+ *
+ * Thread safety: All operations should be called from the server thread only.
+ */
+public final class NbtStore {
+    public static final int NONE = -1;                   // Id of no NBT
+    private static final int ENTRY_OVERHEAD_BYTES = 32;  // Hash entry and slot arrays
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final NbtBlob.Encoder encoder;
+    private final Object2IntOpenHashMap<NbtBlob> ids = new Object2IntOpenHashMap<>();
+    private NbtBlob[] values = new NbtBlob[INITIAL_CAPACITY];
+    private int[] refCounts = new int[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+    private final IntArrayList freeIds = new IntArrayList();
+    private int nextId = 0;
+    private long memoryBytes = 0;
+    private long internHits = 0;    // Interns answered by an existing entry since the last clear
+
+    /**
+     * @param deflateMinBytes Encodings of at least this many bytes are deflated; negative to never deflate
+     */
+    public NbtStore(int deflateMinBytes) {
+        this.encoder = new NbtBlob.Encoder(deflateMinBytes);
+        ids.defaultReturnValue(NONE);
+    }
+
+    /**
+     * Encode nbt with this store's settings, without storing it.
+     */
+    public NbtBlob encode(NbtCompound nbt) {
+        return encoder.encode(nbt);
+    }
+
+    /**
+     * Take a reference to blob's content and return its id.
+     * If an equal blob is already stored, that one is kept and {@link #get} returns it instead.
+     */
+    public int intern(NbtBlob blob) {
+        int id = ids.getInt(blob);
+        if (id != NONE) {
+            refCounts[id]++;
+            internHits++;
+            return id;
+        }
+        id = freeIds.isEmpty() ? nextId++ : freeIds.popInt();
+        if (id == values.length) {
+            int capacity = values.length * 2;
+            values = Arrays.copyOf(values, capacity);
+            refCounts = Arrays.copyOf(refCounts, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+        }
+        int size = ENTRY_OVERHEAD_BYTES + blob.sizeInBytes();
+        values[id] = blob;
+        refCounts[id] = 1;
+        sizes[id] = size;
+        ids.put(blob, id);
+        memoryBytes += size;
+        return id;
+    }
+
+    /**
+     * Take another reference to an entry that is already held.
+     */
+    public void retain(int id) {
+        checkLive(id);
+        refCounts[id]++;
+    }
+
+    /**
+     * Drop one reference; the entry is freed (and its id reused later) with its last reference.
+     */
+    public void release(int id) {
+        checkLive(id);
+        if (--refCounts[id] > 0) {
+            return;
+        }
+        ids.removeInt(values[id]);
+        memoryBytes -= sizes[id];
+        values[id] = null;
+        sizes[id] = 0;
+        freeIds.add(id);
+    }
+
+    /**
+     * Canonical blob of a held id.
+     */
+    public NbtBlob get(int id) {
+        checkLive(id);
+        return values[id];
+    }
+
+    private void checkLive(int id) {
+        if (id < 0 || id >= nextId || refCounts[id] <= 0) {
+            throw new IllegalArgumentException("No live NBT entry " + id);
+        }
+    }
+
+    /**
+     * Number of distinct stored compounds.
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getInternHits() {
+        return internHits;
+    }
+
+    /**
+     * Drop every entry, regardless of references (the timeline dropped all its frames).
+     */
+    public void clear() {
+        ids.clear();
+        ids.trim();
+        values = new NbtBlob[INITIAL_CAPACITY];
+        refCounts = new int[INITIAL_CAPACITY];
+        sizes = new int[INITIAL_CAPACITY];
+        freeIds.clear();
+        nextId = 0;
+        memoryBytes = 0;
+        internHits = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NbtStore[entries=%d, hits=%d, ~%dKB]", size(), internHits, memoryBytes / 1024);
+    }
+}
@@ -1,41 +1,271 @@
 package io.github.rewind.data;
 
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents all recorded changes within a single server tick.
  * This is one "frame" in our rewind buffer.
+ *
+ * Block changes are stored column-wise in primitive arrays (packed position, raw state ids)
+ * rather than as one BlockDelta object per change. A frame belongs to one dimension's timeline,
+ * so the dimension is stored once per frame, not per change. Block entity NBT is kept
+ * in a side table keyed by slot, since most block changes have none.
+ *
+ * Block entity NBT (block change snapshots and BlockEntityDelta bases) is encoded to NbtBlobs
+ * and interned in the owning timeline's NbtStore, so equal compounds across frames are stored
+ * once and no compound tree is retained; the side table holds store ids. The frame holds one
+ * store reference per id until {@link #releaseNbt()}.
+ *
+ * Repeated changes to the same position within one frame are coalesced into a single slot
+ * (first old state, last new state), so frame size is bounded by distinct positions.
+ *
+ * Entity UPDATEs are packed into an EntityUpdateLog, and item entity and XP orb events go into
+ * a DropLog (each allocated on first use), so the entity delta list only holds spawns and despawns.
+ * Inventory slot changes of block entities go into an InventorySlotLog, also allocated on first use.
+ *
+ * A frame may also be a compacted segment covering several ticks (see {@link #merge}),
+ * in which case {@link #getSpanTicks()} is greater than one.
  */
 public class TickFrame {
+    private static final int INITIAL_BLOCK_CAPACITY = 16;
+    private static final long[] EMPTY_POSITIONS = new long[0];
+    private static final int[] EMPTY_IDS = new int[0];
+    private static final int BLOCK_COLUMN_BYTES = 8 + 4 + 4;       // pos + old id + new id
+    private static final int NBT_REF_BYTES = 16;                   // Side table entry; the NBT is counted by the store
+    private static final int INITIAL_INDEX_CAPACITY = 32;          // Power of two
+    private static final DropLog NO_DROPS = new DropLog();
+    private static final EntityUpdateLog NO_UPDATES = new EntityUpdateLog();
+    private static final InventorySlotLog NO_SLOT_CHANGES = new InventorySlotLog();
+    static {
+        NO_DROPS.seal();
+        NO_UPDATES.seal();
+        NO_SLOT_CHANGES.seal();
+    }
+
+    private final RegistryKey<World> dimension;  // Dimension of the owning timeline
     private final long gameTime;        // Server world time when this frame was recorded
     private final long realTimestamp;   // System.currentTimeMillis() when recorded
-    
-    private final List<BlockDelta> blockDeltas;
+    private int spanTicks = 1;          // Ticks covered; > 1 for compacted segments
+    private long sequence = -1;         // Commit order within its timeline (segments: last merged frame's)
+    private final NbtStore nbtStore;    // Owning timeline's store
+
+    // Block changes, one slot per change across all columns (allocated on first change)
+    private long[] blockPositions;
+    private int[] oldStateIds;          // Block.STATE_IDS raw ids
+    private int[] newStateIds;
+    private int blockCount = 0;
+
+    // Block entity NBT side table: block slot -> NbtStore id (allocated on first use)
+    private Int2IntMap oldBlockEntityNbtIds;
+    private Int2IntMap newBlockEntityNbtIds;
+    @Nullable private IntList baseNbtIds;  // Store ids of the BlockEntityDelta bases
+    private boolean nbtReleased = false;
+
+    // Open-addressing index from packed pos to slot + 1 (0 = empty).
+    // Only needed while recording; dropped on seal.
+    private int[] blockSlotIndex;
+    private int coalescedUpdates = 0;   // Block updates folded into an existing slot
+
     private final List<BlockEntityDelta> blockEntityDeltas;
-    private final List<EntityDelta> entityDeltas;
-    
+    private final List<EntityDelta> entityDeltas;         // SPAWN and DESPAWN only
+    @Nullable private EntityUpdateLog entityUpdates;      // Allocated on first UPDATE
+    @Nullable private DropLog drops;                      // Allocated on first drop event
+    @Nullable private InventorySlotLog slotChanges;       // Allocated on first inventory slot change
+
     private boolean sealed = false;     // Once sealed, no more changes can be added
     private int estimatedMemoryBytes = 0;
 
-    public TickFrame(long gameTime) {
+    public TickFrame(RegistryKey<World> dimension, long gameTime, NbtStore nbtStore) {
+        this(dimension, gameTime, System.currentTimeMillis(), nbtStore);
+    }
+
+    private TickFrame(RegistryKey<World> dimension, long gameTime, long realTimestamp, NbtStore nbtStore) {
+        this.dimension = dimension;
         this.gameTime = gameTime;
-        this.realTimestamp = System.currentTimeMillis();
-        this.blockDeltas = new ArrayList<>();
+        this.realTimestamp = realTimestamp;
+        this.nbtStore = nbtStore;
+        this.blockPositions = EMPTY_POSITIONS;
+        this.oldStateIds = EMPTY_IDS;
+        this.newStateIds = EMPTY_IDS;
         this.blockEntityDeltas = new ArrayList<>();
         this.entityDeltas = new ArrayList<>();
     }
 
     /**
-     * Add a block change to this frame.
+     * Add a block change to this frame; the delta must be in this frame's dimension.
+     * Convenience overload; the recorder uses {@link #addBlockChange} to avoid the BlockDelta allocation.
      */
     public void addBlockDelta(BlockDelta delta) {
+        if (!delta.dimension().equals(dimension)) {
+            throw new IllegalArgumentException("Block change in " + delta.dimension().getValue()
+                    + " added to a frame of " + dimension.getValue());
+        }
+        addBlockChange(delta.packedPos(), delta.oldState(), delta.newState(),
+                delta.oldBlockEntityNbt(), delta.newBlockEntityNbt());
+    }
+
+    /**
+     * Add a block change to this frame.
+     * The NBT compounds are encoded and interned right away; the frame does not keep them.
+     *
+     * If this position already changed in this frame, the change is folded into the existing
+     * slot: the first old state (and old block entity NBT) is kept and the new state replaced.
+     */
+    public void addBlockChange(
+            long packedPos,
+            BlockState oldState,
+            BlockState newState,
+            @Nullable NbtCompound oldBENbt,
+            @Nullable NbtCompound newBENbt
+    ) {
+        addEncodedBlockChange(packedPos, oldState, newState,
+                oldBENbt != null ? nbtStore.encode(oldBENbt) : null,
+                newBENbt != null ? nbtStore.encode(newBENbt) : null);
+    }
+
+    private void addEncodedBlockChange(
+            long packedPos,
+            BlockState oldState,
+            BlockState newState,
+            @Nullable NbtBlob oldBENbt,
+            @Nullable NbtBlob newBENbt
+    ) {
         if (sealed) {
             throw new IllegalStateException("Cannot add to sealed TickFrame");
         }
-        blockDeltas.add(delta);
-        estimatedMemoryBytes += delta.estimateMemoryBytes();
+        int existing = findBlockSlot(packedPos);
+        if (existing >= 0) {
+            foldBlockChange(existing, newState, newBENbt);
+            return;
+        }
+
+        if (blockCount == blockPositions.length) {
+            growBlockColumns();
+        }
+
+        int slot = blockCount++;
+        blockPositions[slot] = packedPos;
+        oldStateIds[slot] = Block.getRawIdFromState(oldState);
+        newStateIds[slot] = Block.getRawIdFromState(newState);
+        estimatedMemoryBytes += BLOCK_COLUMN_BYTES;
+        indexBlockSlot(slot);
+
+        if (oldBENbt != null) {
+            if (oldBlockEntityNbtIds == null) {
+                oldBlockEntityNbtIds = newNbtIdTable();
+            }
+            oldBlockEntityNbtIds.put(slot, nbtStore.intern(oldBENbt));
+            estimatedMemoryBytes += NBT_REF_BYTES;
+        }
+        if (newBENbt != null) {
+            putNewBlockEntityNbt(slot, newBENbt);
+        }
+    }
+
+    private void putNewBlockEntityNbt(int slot, NbtBlob newBENbt) {
+        if (newBlockEntityNbtIds == null) {
+            newBlockEntityNbtIds = newNbtIdTable();
+        }
+        newBlockEntityNbtIds.put(slot, nbtStore.intern(newBENbt));
+        estimatedMemoryBytes += NBT_REF_BYTES;
+    }
+
+    private static Int2IntMap newNbtIdTable() {
+        Int2IntOpenHashMap table = new Int2IntOpenHashMap();
+        table.defaultReturnValue(NbtStore.NONE);
+        return table;
+    }
+
+    /**
+     * Check whether a change for this position is already recorded in this frame.
+     * Lets the recorder skip serializing an old block entity that would be discarded by coalescing.
+     */
+    public boolean hasBlockChange(long packedPos) {
+        return findBlockSlot(packedPos) >= 0;
+    }
+
+    private void foldBlockChange(int slot, BlockState newState, @Nullable NbtBlob newBENbt) {
+        newStateIds[slot] = Block.getRawIdFromState(newState);
+        int replaced = newBlockEntityNbtIds != null ? newBlockEntityNbtIds.remove(slot) : NbtStore.NONE;
+        if (newBENbt != null) {
+            // Intern before releasing, so an unchanged snapshot doesn't drop and re-add its entry
+            putNewBlockEntityNbt(slot, newBENbt);
+        }
+        if (replaced != NbtStore.NONE) {
+            nbtStore.release(replaced);
+            estimatedMemoryBytes -= NBT_REF_BYTES;
+        }
+        coalescedUpdates++;
+    }
+
+    private int findBlockSlot(long packedPos) {
+        if (blockSlotIndex == null) {
+            return -1;
+        }
+        int mask = blockSlotIndex.length - 1;
+        int i = (int) HashCommon.mix(packedPos) & mask;
+        int entry;
+        while ((entry = blockSlotIndex[i]) != 0) {
+            int slot = entry - 1;
+            if (blockPositions[slot] == packedPos) {
+                return slot;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void indexBlockSlot(int slot) {
+        if (blockSlotIndex == null) {
+            blockSlotIndex = new int[INITIAL_INDEX_CAPACITY];
+        } else if (blockCount * 2 > blockSlotIndex.length) {
+            // Keep load factor <= 0.5; rebuild from the columns
+            blockSlotIndex = new int[blockSlotIndex.length * 2];
+            for (int s = 0; s < slot; s++) {
+                insertIndexEntry(s);
+            }
+        }
+        insertIndexEntry(slot);
+    }
+
+    private void insertIndexEntry(int slot) {
+        int mask = blockSlotIndex.length - 1;
+        int i = (int) HashCommon.mix(blockPositions[slot]) & mask;
+        while (blockSlotIndex[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        blockSlotIndex[i] = slot + 1;
+    }
+
+    private void growBlockColumns() {
+        int capacity = Math.max(INITIAL_BLOCK_CAPACITY, blockPositions.length * 2);
+        blockPositions = Arrays.copyOf(blockPositions, capacity);
+        oldStateIds = Arrays.copyOf(oldStateIds, capacity);
+        newStateIds = Arrays.copyOf(newStateIds, capacity);
     }
 
     /**
@@ -45,49 +275,320 @@ public class TickFrame {
         if (sealed) {
             throw new IllegalStateException("Cannot add to sealed TickFrame");
         }
+        if (delta.base() != null) {
+            int id = nbtStore.intern(delta.base());
+            NbtBlob canonical = nbtStore.get(id);
+            if (canonical != delta.base()) {
+                delta = new BlockEntityDelta(delta.dimension(), delta.packedPos(), delta.blockEntityType(),
+                        canonical, delta.patch());
+            }
+            if (baseNbtIds == null) {
+                baseNbtIds = new IntArrayList();
+            }
+            baseNbtIds.add(id);
+            estimatedMemoryBytes += NBT_REF_BYTES;
+        }
         blockEntityDeltas.add(delta);
         estimatedMemoryBytes += delta.estimateMemoryBytes();
     }
 
     /**
      * Add an entity change to this frame.
+     * UPDATEs are packed into the frame's EntityUpdateLog; the recorder adds whole logs through
+     * {@link #addEntityUpdates} instead of building NBT per update.
      */
     public void addEntityDelta(EntityDelta delta) {
         if (sealed) {
             throw new IllegalStateException("Cannot add to sealed TickFrame");
         }
+        if (delta.type() == EntityDelta.EntityDeltaType.UPDATE && delta.oldState() != null && delta.newState() != null) {
+            EntityUpdateLog.State oldState = new EntityUpdateLog.State();
+            EntityUpdateLog.State newState = new EntityUpdateLog.State();
+            oldState.readNbt(delta.oldState());
+            newState.readNbt(delta.newState());
+            EntityUpdateLog log = updatesForRecording();
+            int before = log.estimateMemoryBytes();
+            log.add(delta.entityHandle(), oldState, newState);
+            estimatedMemoryBytes += log.estimateMemoryBytes() - before;
+            return;
+        }
         entityDeltas.add(delta);
         estimatedMemoryBytes += delta.estimateMemoryBytes();
     }
 
+    /**
+     * Add a batch of entity UPDATEs. The frame takes ownership of the log.
+     */
+    public void addEntityUpdates(EntityUpdateLog updates) {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add to sealed TickFrame");
+        }
+        if (entityUpdates == null) {
+            entityUpdates = updates;
+            estimatedMemoryBytes += updates.estimateMemoryBytes();
+            return;
+        }
+        int before = entityUpdates.estimateMemoryBytes();
+        entityUpdates.addAll(updates);
+        estimatedMemoryBytes += entityUpdates.estimateMemoryBytes() - before;
+    }
+
+    private EntityUpdateLog updatesForRecording() {
+        if (entityUpdates == null) {
+            entityUpdates = new EntityUpdateLog();
+        }
+        return entityUpdates;
+    }
+
+    /**
+     * Record an item entity or XP orb spawn. See DropLog for the fields.
+     */
+    public void addDropSpawn(int entityHandle, byte kind, int prototype, int count, double x, double y, double z) {
+        DropLog log = dropsForRecording();
+        int before = log.estimateMemoryBytes();
+        log.addSpawn(entityHandle, kind, prototype, count, x, y, z);
+        estimatedMemoryBytes += log.estimateMemoryBytes() - before;
+    }
+
+    /**
+     * Record an item entity or XP orb despawn; cancels a spawn of the same drop in this frame.
+     */
+    public void addDropDespawn(int entityHandle, byte kind, int prototype, int count, double x, double y, double z) {
+        DropLog log = dropsForRecording();
+        int before = log.estimateMemoryBytes();
+        log.addDespawn(entityHandle, kind, prototype, count, x, y, z);
+        estimatedMemoryBytes += log.estimateMemoryBytes() - before;
+    }
+
+    /**
+     * Record a stack size or orb amount change, folded with earlier changes of the drop in this frame.
+     */
+    public void addDropCountChange(int entityHandle, byte kind, int prototype, int oldCount, int newCount,
+                                   double x, double y, double z) {
+        DropLog log = dropsForRecording();
+        int before = log.estimateMemoryBytes();
+        log.addCountChange(entityHandle, kind, prototype, oldCount, newCount, x, y, z);
+        estimatedMemoryBytes += log.estimateMemoryBytes() - before;
+    }
+
+    /**
+     * Record an inventory slot change of a block entity, folded with earlier changes of the slot in this frame.
+     * See InventorySlotLog for the fields.
+     */
+    public void addSlotChange(long packedPos, int slot, int oldPrototype, int oldCount, int newPrototype, int newCount) {
+        InventorySlotLog log = slotChangesForRecording();
+        int before = log.estimateMemoryBytes();
+        log.addChange(packedPos, slot, oldPrototype, oldCount, newPrototype, newCount);
+        estimatedMemoryBytes += log.estimateMemoryBytes() - before;
+    }
+
+    private InventorySlotLog slotChangesForRecording() {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add to sealed TickFrame");
+        }
+        if (slotChanges == null) {
+            slotChanges = new InventorySlotLog();
+        }
+        return slotChanges;
+    }
+
+    private DropLog dropsForRecording() {
+        if (sealed) {
+            throw new IllegalStateException("Cannot add to sealed TickFrame");
+        }
+        if (drops == null) {
+            drops = new DropLog();
+        }
+        return drops;
+    }
+
     /**
      * Seal this frame - no more changes can be added.
      * Called at the end of each tick.
      */
     public void seal() {
         this.sealed = true;
+        blockSlotIndex = null;
         // Trim to size to save memory
-        ((ArrayList<?>) blockDeltas).trimToSize();
+        if (blockPositions.length != blockCount) {
+            blockPositions = Arrays.copyOf(blockPositions, blockCount);
+            oldStateIds = Arrays.copyOf(oldStateIds, blockCount);
+            newStateIds = Arrays.copyOf(newStateIds, blockCount);
+        }
         ((ArrayList<?>) blockEntityDeltas).trimToSize();
         ((ArrayList<?>) entityDeltas).trimToSize();
+        if (entityUpdates != null) {
+            entityUpdates.seal();
+        }
+        if (drops != null) {
+            drops.seal();
+        }
+        if (slotChanges != null) {
+            slotChanges.seal();
+        }
+        if (baseNbtIds instanceof IntArrayList ids) {
+            ids.trim();
+        }
     }
 
+    /**
+     * Drop this frame's NbtStore references. Called by the timeline once the frame leaves it
+     * (evicted, compacted into a segment or discarded after a rewind); entries no other frame
+     * references are freed. Block change NBT reads as null afterwards. Delta bases stay readable,
+     * since the deltas hold the blobs themselves.
+     */
+    public void releaseNbt() {
+        if (nbtReleased) {
+            return;
+        }
+        nbtReleased = true;
+        if (oldBlockEntityNbtIds != null) {
+            releaseAll(oldBlockEntityNbtIds.values());
+            oldBlockEntityNbtIds = null;
+        }
+        if (newBlockEntityNbtIds != null) {
+            releaseAll(newBlockEntityNbtIds.values());
+            newBlockEntityNbtIds = null;
+        }
+        if (baseNbtIds != null) {
+            releaseAll(baseNbtIds);
+            baseNbtIds = null;
+        }
+    }
+
+    private void releaseAll(IntCollection ids) {
+        IntIterator it = ids.iterator();
+        while (it.hasNext()) {
+            nbtStore.release(it.nextInt());
+        }
+    }
+
+    /**
+     * Merge a run of sealed frames (oldest first) into one sealed segment.
+     * For every position and entity the segment keeps only the earliest old state and the
+     * latest new state, which is all a rewind to (or before) the segment start needs.
+     * Intermediate states inside the run are lost, so the segment can only be rewound as a whole.
+     */
+    public static TickFrame merge(List<TickFrame> run) {
+        TickFrame first = run.get(0);
+        TickFrame last = run.get(run.size() - 1);
+        TickFrame segment = new TickFrame(first.dimension, first.gameTime, first.realTimestamp, first.nbtStore);
+
+        // Block changes: addEncodedBlockChange already folds repeats into first-old / last-new
+        for (TickFrame frame : run) {
+            BlockDeltaCursor delta = frame.getBlockDeltas();
+            while (delta.next()) {
+                segment.addEncodedBlockChange(delta.packedPos(), delta.oldState(), delta.newState(),
+                        delta.oldBlockEntityBlob(), delta.newBlockEntityBlob());
+            }
+        }
+
+        // Block entity changes: each position's chain folded into one patch from earliest old to latest new
+        Map<PositionKey, List<BlockEntityDelta>> blockEntities = new LinkedHashMap<>();
+        for (TickFrame frame : run) {
+            for (BlockEntityDelta delta : frame.blockEntityDeltas) {
+                blockEntities.computeIfAbsent(new PositionKey(delta.dimension(), delta.packedPos()),
+                        key -> new ArrayList<>()).add(delta);
+            }
+        }
+        for (List<BlockEntityDelta> chain : blockEntities.values()) {
+            segment.addBlockEntityDelta(BlockEntityDelta.merge(chain, segment.nbtStore));
+        }
+
+        // Entity changes: at most one delta of each type per entity. A rewind plan treats spawns as a set,
+        // keeps the oldest despawn and the oldest update old-state, so this preserves its result.
+        // Despawns after an entity's first spawn are dropped: it didn't exist at the run's start, and a
+        // plan reads a segment's spawn and despawn like those of one tick (a dimension change, despawn first).
+        Map<EntityKey, EntityDelta> entities = new LinkedHashMap<>();
+        IntSet spawnedFirst = new IntOpenHashSet();
+        for (TickFrame frame : run) {
+            for (EntityDelta delta : frame.entityDeltas) {
+                int handle = delta.entityHandle();
+                if (delta.type() == EntityDelta.EntityDeltaType.SPAWN
+                        && !entities.containsKey(new EntityKey(handle, EntityDelta.EntityDeltaType.DESPAWN))) {
+                    spawnedFirst.add(handle);
+                } else if (delta.type() == EntityDelta.EntityDeltaType.DESPAWN && spawnedFirst.contains(handle)) {
+                    continue;
+                }
+                entities.putIfAbsent(new EntityKey(handle, delta.type()), delta);
+            }
+        }
+        entities.values().forEach(segment::addEntityDelta);
+
+        // Entity updates: earliest old state, latest new state per entity
+        Int2ObjectLinkedOpenHashMap<EntityUpdateLog.State[]> updates = new Int2ObjectLinkedOpenHashMap<>();
+        for (TickFrame frame : run) {
+            EntityUpdateLog.Cursor update = frame.getEntityUpdates();
+            while (update.next()) {
+                EntityUpdateLog.State[] states = updates.get(update.handle());
+                if (states == null) {
+                    states = new EntityUpdateLog.State[] {new EntityUpdateLog.State(), new EntityUpdateLog.State()};
+                    states[0].copyFrom(update.oldState());
+                    updates.put(update.handle(), states);
+                }
+                states[1].copyFrom(update.newState());
+            }
+        }
+        if (!updates.isEmpty()) {
+            EntityUpdateLog log = segment.updatesForRecording();
+            for (Int2ObjectMap.Entry<EntityUpdateLog.State[]> e : updates.int2ObjectEntrySet()) {
+                log.add(e.getIntKey(), e.getValue()[0], e.getValue()[1]);
+            }
+            segment.estimatedMemoryBytes += log.estimateMemoryBytes();
+        }
+
+        // Drop events: replayed in order, so spawns and despawns within the run cancel and count changes fold
+        for (TickFrame frame : run) {
+            if (frame.drops != null) {
+                DropLog log = segment.dropsForRecording();
+                int before = log.estimateMemoryBytes();
+                log.addAll(frame.drops);
+                segment.estimatedMemoryBytes += log.estimateMemoryBytes() - before;
+            }
+        }
+
+        // Inventory slot changes: replayed in order, keeping the first old and last new stack per slot
+        for (TickFrame frame : run) {
+            if (frame.slotChanges != null) {
+                InventorySlotLog log = segment.slotChangesForRecording();
+                int before = log.estimateMemoryBytes();
+                log.addAll(frame.slotChanges);
+                segment.estimatedMemoryBytes += log.estimateMemoryBytes() - before;
+            }
+        }
+
+        segment.spanTicks = (int) (last.gameTime + last.spanTicks - first.gameTime);
+        segment.sequence = last.sequence;
+        segment.seal();
+        return segment;
+    }
+
+    private record PositionKey(RegistryKey<World> dimension, long packedPos) {}
+
+    private record EntityKey(int entityHandle, EntityDelta.EntityDeltaType type) {}
+
     /**
      * Check if this frame has any recorded changes.
      */
     public boolean isEmpty() {
-        return blockDeltas.isEmpty() && blockEntityDeltas.isEmpty() && entityDeltas.isEmpty();
+        return blockCount == 0 && blockEntityDeltas.isEmpty() && entityDeltas.isEmpty()
+                && getEntityUpdateCount() == 0 && getDropCount() == 0 && getSlotChangeCount() == 0;
     }
 
     /**
      * Get the number of total changes in this frame.
      */
     public int changeCount() {
-        return blockDeltas.size() + blockEntityDeltas.size() + entityDeltas.size();
+        return blockCount + blockEntityDeltas.size() + entityDeltas.size() + getEntityUpdateCount() + getDropCount()
+                + getSlotChangeCount();
     }
 
     // Getters
 
+    public RegistryKey<World> getDimension() {
+        return dimension;
+    }
+
     public long getGameTime() {
         return gameTime;
     }
@@ -96,18 +597,82 @@ public class TickFrame {
         return realTimestamp;
     }
 
-    public List<BlockDelta> getBlockDeltas() {
-        return Collections.unmodifiableList(blockDeltas);
+    public int getSpanTicks() {
+        return spanTicks;
+    }
+
+    public boolean isSegment() {
+        return spanTicks > 1;
+    }
+
+    /**
+     * Commit sequence number assigned by the owning timeline, or -1 if not committed yet.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void assignSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Get a cursor over the block changes in this frame.
+     * The cursor is a flyweight: accessors read straight from the primitive columns,
+     * so iterating allocates nothing per change.
+     */
+    public BlockDeltaCursor getBlockDeltas() {
+        return new BlockDeltaCursor();
+    }
+
+    public int getBlockDeltaCount() {
+        return blockCount;
     }
 
     public List<BlockEntityDelta> getBlockEntityDeltas() {
         return Collections.unmodifiableList(blockEntityDeltas);
     }
 
+    /**
+     * Entity SPAWN and DESPAWN deltas; UPDATEs are read through {@link #getEntityUpdates()}.
+     */
     public List<EntityDelta> getEntityDeltas() {
         return Collections.unmodifiableList(entityDeltas);
     }
 
+    /**
+     * Get a cursor over the entity UPDATEs in this frame.
+     */
+    public EntityUpdateLog.Cursor getEntityUpdates() {
+        return (entityUpdates != null ? entityUpdates : NO_UPDATES).cursor();
+    }
+
+    public int getEntityUpdateCount() {
+        return entityUpdates != null ? entityUpdates.size() : 0;
+    }
+
+    /**
+     * Get a cursor over the item entity and XP orb events in this frame.
+     */
+    public DropLog.Cursor getDrops() {
+        return (drops != null ? drops : NO_DROPS).cursor();
+    }
+
+    public int getDropCount() {
+        return drops != null ? drops.size() : 0;
+    }
+
+    /**
+     * Get a cursor over the inventory slot changes in this frame.
+     */
+    public InventorySlotLog.Cursor getSlotChanges() {
+        return (slotChanges != null ? slotChanges : NO_SLOT_CHANGES).cursor();
+    }
+
+    public int getSlotChangeCount() {
+        return slotChanges != null ? slotChanges.size() : 0;
+    }
+
     public boolean isSealed() {
         return sealed;
     }
@@ -116,13 +681,111 @@ public class TickFrame {
         return estimatedMemoryBytes;
     }
 
+    public int getCoalescedUpdates() {
+        return coalescedUpdates;
+    }
+
     @Override
     public String toString() {
-        return String.format("TickFrame[time=%d, blocks=%d, blockEntities=%d, entities=%d, ~%dKB]",
+        return String.format("TickFrame[time=%d, span=%d, blocks=%d, blockEntities=%d, slots=%d, entities=%d, drops=%d, ~%dKB]",
                 gameTime,
-                blockDeltas.size(),
+                spanTicks,
+                blockCount,
                 blockEntityDeltas.size(),
-                entityDeltas.size(),
+                getSlotChangeCount(),
+                entityDeltas.size() + getEntityUpdateCount(),
+                getDropCount(),
                 estimatedMemoryBytes / 1024);
     }
+
+    /**
+     * Forward-only view over this frame's block changes.
+     * Call {@link #next()} before reading the first change:
+     * <pre>
+     * BlockDeltaCursor cursor = frame.getBlockDeltas();
+     * while (cursor.next()) { ... cursor.oldState() ... }
+     * </pre>
+     */
+    public final class BlockDeltaCursor {
+        private int slot = -1;
+
+        private BlockDeltaCursor() {}
+
+        /**
+         * Advance to the next change. Returns false once all changes have been visited.
+         */
+        public boolean next() {
+            return ++slot < blockCount;
+        }
+
+        public RegistryKey<World> dimension() {
+            return dimension;
+        }
+
+        public long packedPos() {
+            return blockPositions[slot];
+        }
+
+        public BlockPos pos() {
+            return BlockPos.fromLong(blockPositions[slot]);
+        }
+
+        public BlockState oldState() {
+            return Block.getStateFromRawId(oldStateIds[slot]);
+        }
+
+        public BlockState newState() {
+            return Block.getStateFromRawId(newStateIds[slot]);
+        }
+
+        public int oldStateId() {
+            return oldStateIds[slot];
+        }
+
+        public int newStateId() {
+            return newStateIds[slot];
+        }
+
+        /**
+         * Encoded old block entity NBT, shared with the store and other frames.
+         */
+        @Nullable
+        public NbtBlob oldBlockEntityBlob() {
+            return lookupNbt(oldBlockEntityNbtIds);
+        }
+
+        @Nullable
+        public NbtBlob newBlockEntityBlob() {
+            return lookupNbt(newBlockEntityNbtIds);
+        }
+
+        /**
+         * Decodes a new compound on every call; the index and rewinds keep the blob instead.
+         */
+        @Nullable
+        public NbtCompound oldBlockEntityNbt() {
+            NbtBlob blob = oldBlockEntityBlob();
+            return blob != null ? blob.decode() : null;
+        }
+
+        @Nullable
+        public NbtCompound newBlockEntityNbt() {
+            NbtBlob blob = newBlockEntityBlob();
+            return blob != null ? blob.decode() : null;
+        }
+
+        @Nullable
+        private NbtBlob lookupNbt(@Nullable Int2IntMap ids) {
+            int id = ids != null ? ids.get(slot) : NbtStore.NONE;
+            return id != NbtStore.NONE ? nbtStore.get(id) : null;
+        }
+
+        /**
+         * Materialize the current change as a standalone BlockDelta (allocates; for debugging/tools).
+         */
+        public BlockDelta toDelta() {
+            return new BlockDelta(dimension(), packedPos(), oldState(), newState(),
+                    oldBlockEntityNbt(), newBlockEntityNbt());
+        }
+    }
 }
@@ -0,0 +1,100 @@
+package io.github.rewind.mixin;
+
+import io.github.rewind.core.DirtyTrackedEntity;
+import io.github.rewind.core.TickRecorder;
+import net.minecraft.entity.Entity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.world.World;
+import net.minecraft.world.entity.EntityChangeListener;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Mixin to mark entities dirty when their recorded state changes.
+ * Only dirty entities are diffed at the end of the world tick.
+ */
+@Mixin(Entity.class)
+public abstract class EntityMixin implements DirtyTrackedEntity {
+
+    @Shadow
+    private World world;
+
+    @Shadow
+    private EntityChangeListener changeListener;
+
+    @Unique
+    private boolean rewind$dirty = false;
+
+    @Unique
+    private boolean rewind$spawning = false;
+
+    @Unique
+    private int rewind$entityHandle = -1;
+
+    /**
+     * Position, velocity and rotation setters.
+     * Movement funnels through setPos, and addVelocity/setVelocity(DDD) through setVelocity(Vec3d).
+     */
+    @Inject(
+            method = {
+                    "setPos(DDD)V",
+                    "setVelocity(Lnet/minecraft/util/math/Vec3d;)V",
+                    "setYaw(F)V",
+                    "setPitch(F)V"
+            },
+            at = @At("TAIL")
+    )
+    private void rewind$onStateChanged(CallbackInfo ci) {
+        rewind$markDirty();
+    }
+
+    /**
+     * Entities are only queued once the entity manager has added them (it sets their change listener).
+     * Setters called by constructors and spawn code before that run ahead of the ENTITY_LOAD baseline.
+     */
+    @Override
+    public void rewind$markDirty() {
+        if (!rewind$dirty && changeListener != EntityChangeListener.NONE && world instanceof ServerWorld serverWorld) {
+            TickRecorder.markEntityDirty(serverWorld, (Entity) (Object) this);
+        }
+    }
+
+    @Override
+    public boolean rewind$isDirty() {
+        return rewind$dirty;
+    }
+
+    @Override
+    public void rewind$setDirty(boolean dirty) {
+        rewind$dirty = dirty;
+    }
+
+    @Override
+    public boolean rewind$isSpawning() {
+        return rewind$spawning;
+    }
+
+    @Override
+    public void rewind$setSpawning(boolean spawning) {
+        rewind$spawning = spawning;
+    }
+
+    @Override
+    public int rewind$getEntityHandle() {
+        return rewind$entityHandle;
+    }
+
+    @Override
+    public void rewind$setEntityHandle(int handle) {
+        rewind$entityHandle = handle;
+    }
+
+    @Override
+    public ServerWorld rewind$getServerWorld() {
+        return world instanceof ServerWorld serverWorld ? serverWorld : null;
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.rewind.mixin;
+
+import io.github.rewind.core.TickRecorder;
+import io.github.rewind.core.TrackedDrop;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.ExperienceOrbEntity;
+import net.minecraft.item.ItemStack;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Mixin to record XP orb amount changes (merges, pickups) into the DropLog.
+ */
+@Mixin(ExperienceOrbEntity.class)
+public abstract class ExperienceOrbEntityMixin implements TrackedDrop {
+
+    @Shadow
+    private int amount;
+
+    @Unique
+    private int rewind$countBefore = -1;
+
+    /**
+     * Merging adds the other orb's amount; each pickup takes one.
+     */
+    @Inject(
+            method = {
+                    "merge(Lnet/minecraft/entity/ExperienceOrbEntity;)V",
+                    "onPlayerCollision(Lnet/minecraft/entity/player/PlayerEntity;)V"
+            },
+            at = @At("HEAD")
+    )
+    private void rewind$beforeCountChange(CallbackInfo ci) {
+        TickRecorder.beginDropChange((Entity) (Object) this);
+    }
+
+    @Inject(
+            method = {
+                    "merge(Lnet/minecraft/entity/ExperienceOrbEntity;)V",
+                    "onPlayerCollision(Lnet/minecraft/entity/player/PlayerEntity;)V"
+            },
+            at = @At("RETURN")
+    )
+    private void rewind$afterCountChange(CallbackInfo ci) {
+        TickRecorder.endDropChange((Entity) (Object) this);
+    }
+
+    @Override
+    public int rewind$getDropCount() {
+        return amount;
+    }
+
+    @Override
+    public void rewind$setDropCount(int count) {
+        amount = count;
+    }
+
+    @Override
+    public int rewind$getCountBefore() {
+        return rewind$countBefore;
+    }
+
+    @Override
+    public void rewind$setCountBefore(int count) {
+        rewind$countBefore = count;
+    }
+
+    @Override
+    public ItemStack rewind$getPrototype() {
+        return null;
+    }
+
+    @Override
+    public void rewind$setPrototype(ItemStack prototype) {
+        // Orbs have no item; their value is recorded instead
+    }
+}
@@ -0,0 +1,110 @@
+package io.github.rewind.mixin;
+
+import io.github.rewind.core.TickRecorder;
+import io.github.rewind.core.TrackedDrop;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.ItemEntity;
+import net.minecraft.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Mixin to record item stack size changes (merges, pickups, hoppers) into the DropLog.
+ */
+@Mixin(ItemEntity.class)
+public abstract class ItemEntityMixin implements TrackedDrop {
+
+    @Shadow
+    public abstract ItemStack getStack();
+
+    @Shadow
+    public abstract void setStack(ItemStack stack);
+
+    @Unique
+    private int rewind$countBefore = -1;
+
+    @Unique
+    @Nullable
+    private ItemStack rewind$prototype = null;
+
+    /**
+     * Hoppers and merges replace the stack; player pickups shrink it in place.
+     */
+    @Inject(
+            method = {
+                    "setStack(Lnet/minecraft/item/ItemStack;)V",
+                    "onPlayerCollision(Lnet/minecraft/entity/player/PlayerEntity;)V"
+            },
+            at = @At("HEAD")
+    )
+    private void rewind$beforeCountChange(CallbackInfo ci) {
+        TickRecorder.beginDropChange((Entity) (Object) this);
+    }
+
+    @Inject(
+            method = {
+                    "setStack(Lnet/minecraft/item/ItemStack;)V",
+                    "onPlayerCollision(Lnet/minecraft/entity/player/PlayerEntity;)V"
+            },
+            at = @At("RETURN")
+    )
+    private void rewind$afterCountChange(CallbackInfo ci) {
+        TickRecorder.endDropChange((Entity) (Object) this);
+    }
+
+    /**
+     * A merge shrinks the source stack in place (the target's goes through setStack).
+     */
+    @Inject(
+            method = "merge(Lnet/minecraft/entity/ItemEntity;Lnet/minecraft/item/ItemStack;Lnet/minecraft/entity/ItemEntity;Lnet/minecraft/item/ItemStack;)V",
+            at = @At("HEAD")
+    )
+    private static void rewind$beforeMerge(ItemEntity targetEntity, ItemStack targetStack,
+                                           ItemEntity sourceEntity, ItemStack sourceStack, CallbackInfo ci) {
+        TickRecorder.beginDropChange(sourceEntity);
+    }
+
+    @Inject(
+            method = "merge(Lnet/minecraft/entity/ItemEntity;Lnet/minecraft/item/ItemStack;Lnet/minecraft/entity/ItemEntity;Lnet/minecraft/item/ItemStack;)V",
+            at = @At("RETURN")
+    )
+    private static void rewind$afterMerge(ItemEntity targetEntity, ItemStack targetStack,
+                                          ItemEntity sourceEntity, ItemStack sourceStack, CallbackInfo ci) {
+        TickRecorder.endDropChange(sourceEntity);
+    }
+
+    @Override
+    public int rewind$getDropCount() {
+        return getStack().getCount();
+    }
+
+    @Override
+    public void rewind$setDropCount(int count) {
+        setStack(getStack().copyWithCount(count));
+    }
+
+    @Override
+    public int rewind$getCountBefore() {
+        return rewind$countBefore;
+    }
+
+    @Override
+    public void rewind$setCountBefore(int count) {
+        rewind$countBefore = count;
+    }
+
+    @Override
+    public ItemStack rewind$getPrototype() {
+        return rewind$prototype;
+    }
+
+    @Override
+    public void rewind$setPrototype(ItemStack prototype) {
+        rewind$prototype = prototype;
+    }
+}
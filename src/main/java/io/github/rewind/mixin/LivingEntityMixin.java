@@ -0,0 +1,20 @@
+package io.github.rewind.mixin;
+
+import io.github.rewind.core.DirtyTrackedEntity;
+import net.minecraft.entity.LivingEntity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Mixin to mark living entities dirty when their health changes.
+ */
+@Mixin(LivingEntity.class)
+public abstract class LivingEntityMixin {
+
+    @Inject(method = "setHealth(F)V", at = @At("TAIL"))
+    private void rewind$onHealthChanged(float health, CallbackInfo ci) {
+        ((DirtyTrackedEntity) (Object) this).rewind$markDirty();
+    }
+}
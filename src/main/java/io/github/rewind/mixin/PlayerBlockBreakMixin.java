@@ -14,6 +14,8 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 /**
  * Mixin to capture player block breaking.
+ * The setBlockState that follows inside tryBreakBlock records the same position again;
+ * the frame coalesces it into this entry (keeping this old state, taking its new state).
  */
 @Mixin(ServerPlayerInteractionManager.class)
 public abstract class PlayerBlockBreakMixin {
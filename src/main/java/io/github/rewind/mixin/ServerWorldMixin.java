@@ -1,35 +1,49 @@
 package io.github.rewind.mixin;
 
 import io.github.rewind.core.TickRecorder;
+import net.minecraft.entity.Entity;
 import net.minecraft.server.world.ServerWorld;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 import java.util.function.BooleanSupplier;
 
 /**
- * Mixin to hook into ServerWorld tick for entity tracking.
+ * Mixin to hook into ServerWorld for entity and block entity tracking.
  */
 @Mixin(ServerWorld.class)
 public abstract class ServerWorldMixin {
 
     /**
-     * Hook at the start of world tick to snapshot entity states.
+     * Hook at the end of world tick to detect entity and block entity changes.
      */
-    @Inject(method = "tick", at = @At("HEAD"))
-    private void rewind$onTickStart(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+    @Inject(method = "tick", at = @At("RETURN"))
+    private void rewind$onTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
         ServerWorld world = (ServerWorld) (Object) this;
-        TickRecorder.beginTickEntityTracking(world);
+        TickRecorder.endTickEntityTracking(world);
+        TickRecorder.endTickBlockEntityTracking(world);
     }
 
     /**
-     * Hook at the end of world tick to detect entity changes.
+     * Flag entities added through spawnEntity and friends as true spawns.
+     * Chunk loading adds entities through the entity manager directly, so they stay unflagged.
      */
-    @Inject(method = "tick", at = @At("RETURN"))
-    private void rewind$onTickEnd(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
-        ServerWorld world = (ServerWorld) (Object) this;
-        TickRecorder.endTickEntityTracking(world);
+    @Inject(method = "addEntity(Lnet/minecraft/entity/Entity;)Z", at = @At("HEAD"))
+    private void rewind$onAddEntity(Entity entity, CallbackInfoReturnable<Boolean> cir) {
+        TickRecorder.markEntitySpawning(entity, true);
+    }
+
+    /**
+     * Drop the flag if the entity was rejected (e.g. duplicate UUID).
+     * An accepted entity keeps it until ENTITY_LOAD, which may fire later if its chunk is not yet ticking.
+     */
+    @Inject(method = "addEntity(Lnet/minecraft/entity/Entity;)Z", at = @At("RETURN"))
+    private void rewind$afterAddEntity(Entity entity, CallbackInfoReturnable<Boolean> cir) {
+        if (!cir.getReturnValueZ()) {
+            TickRecorder.markEntitySpawning(entity, false);
+        }
     }
 }
@@ -1,9 +1,10 @@
 package io.github.rewind.network;
 
-import io.github.rewind.core.RewindExecutor;
+import io.github.rewind.config.RewindConfig;
 import io.github.rewind.core.RewindPlan;
 import io.github.rewind.core.TimelineManager;
-import io.github.rewind.data.TickFrame;
+import io.github.rewind.data.DropLog;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.minecraft.block.BlockState;
 import net.minecraft.server.MinecraftServer;
@@ -18,7 +19,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 
 /**
  * Builds preview payload from rewind plan (with caps) and sends to the client.
@@ -36,11 +36,10 @@ public final class PreviewSender {
         TimelineManager manager = TimelineManager.getInstance();
         if (manager == null || server == null) return false;
 
-        int ticks = seconds * TimelineManager.TICKS_PER_SECOND;
-        List<TickFrame> frames = manager.getFramesForRewind(ticks);
-        if (frames.isEmpty()) return false;
+        int ticks = seconds * RewindConfig.TICKS_PER_SECOND;
+        RewindPlan plan = manager.buildRewindPlan(ticks);
+        if (plan.tickCount() == 0) return false;
 
-        RewindPlan plan = RewindExecutor.buildPlan(frames);
         Vec3d playerPos = new Vec3d(player.getX(), player.getY(), player.getZ());
         ServerWorld world = null;
         for (ServerWorld w : server.getWorlds()) {
@@ -78,7 +77,7 @@ public final class PreviewSender {
         }
 
         List<PreviewPayload.EntityEntry> entityEntries = new ArrayList<>();
-        for (UUID uuid : plan.entitiesToRemove()) {
+        for (int i = 0; i < plan.entitiesToRemove().size(); i++) {
             if (entityEntries.size() >= PreviewPayload.MAX_ENTITY_OPS) break;
             entityEntries.add(new PreviewPayload.EntityEntry(
                     world.getRegistryKey().getValue().toString(),
@@ -87,9 +86,8 @@ public final class PreviewSender {
                     ""
             ));
         }
-        for (Map.Entry<UUID, RewindPlan.EntitySpawnInfo> e : plan.entitiesToRespawn().entrySet()) {
+        for (RewindPlan.EntitySpawnInfo info : plan.entitiesToRespawn().values()) {
             if (entityEntries.size() >= PreviewPayload.MAX_ENTITY_OPS) break;
-            RewindPlan.EntitySpawnInfo info = e.getValue();
             double x = info.state().getDouble("X").orElse(0.0);
             double y = info.state().getDouble("Y").orElse(64.0);
             double z = info.state().getDouble("Z").orElse(0.0);
@@ -100,9 +98,21 @@ public final class PreviewSender {
                     info.entityType() != null ? info.entityType().toString() : ""
             ));
         }
-        for (Map.Entry<UUID, net.minecraft.nbt.NbtCompound> e : plan.entityTargetStates().entrySet()) {
+        dropRespawns:
+        for (Map.Entry<RewindPlan.ChunkKey, List<RewindPlan.DropSpawn>> e : plan.dropsToRespawn().entrySet()) {
+            for (RewindPlan.DropSpawn drop : e.getValue()) {
+                if (entityEntries.size() >= PreviewPayload.MAX_ENTITY_OPS) break dropRespawns;
+                entityEntries.add(new PreviewPayload.EntityEntry(
+                        e.getKey().dimension().getValue().toString(),
+                        drop.x(), drop.y(), drop.z(),
+                        PreviewPayload.EntityEntry.KIND_RESPAWN,
+                        drop.kind() == DropLog.KIND_ORB ? "minecraft:experience_orb" : "minecraft:item"
+                ));
+            }
+        }
+        for (Int2ObjectMap.Entry<net.minecraft.nbt.NbtCompound> e : plan.entityTargetStates().int2ObjectEntrySet()) {
             if (entityEntries.size() >= PreviewPayload.MAX_ENTITY_OPS) break;
-            if (plan.entitiesToRemove().contains(e.getKey())) continue;
+            if (plan.entitiesToRemove().contains(e.getIntKey())) continue;
             net.minecraft.nbt.NbtCompound state = e.getValue();
             double x = state.getDouble("X").orElse(0.0);
             double y = state.getDouble("Y").orElse(64.0);
@@ -0,0 +1,329 @@
+package io.github.rewind.core;
+
+import io.github.rewind.config.RewindConfig;
+import io.github.rewind.data.BlockEntityDelta;
+import io.github.rewind.data.DropLog;
+import io.github.rewind.data.EntityDelta;
+import io.github.rewind.data.EntityUpdateLog;
+import io.github.rewind.data.InventorySlotLog;
+import io.github.rewind.data.NbtBlob;
+import io.github.rewind.data.NbtPatch;
+import io.github.rewind.data.TickFrame;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.util.Identifier;
+import net.minecraft.world.World;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The incrementally maintained index must export the same plan as an index built from scratch
+ * from the frames still in window, through compaction into segments and eviction. Block changes
+ * are left out: their states need the block registry.
+ */
+class WindowIndexTest {
+    private static final RegistryKey<World> DIMENSION = RegistryKey.of(RegistryKeys.WORLD, Identifier.of("rewind", "test"));
+    private static final Identifier ENTITY_TYPE = Identifier.of("minecraft", "pig");
+    private static final Identifier BLOCK_ENTITY_TYPE = Identifier.of("minecraft", "furnace");
+    private static final int WINDOW_TICKS = 30 * RewindConfig.TICKS_PER_SECOND;
+    private static final int TICKS = 3 * WINDOW_TICKS;
+
+    @Test
+    void fullWindowMatchesFromScratch() {
+        Recording recording = new Recording(1);
+        for (long tick = 0; tick < TICKS; tick++) {
+            recording.tick(tick);
+            if (tick % 37 == 36) {
+                assertSamePlan(recording.exportFromScratch(Long.MIN_VALUE), recording.export(Long.MIN_VALUE));
+            }
+        }
+        assertTrue(recording.timeline.getCompactedCount() > 0);
+        assertTrue(recording.timeline.getOldestTickTime() > TICKS - 2 * WINDOW_TICKS);
+    }
+
+    @Test
+    void partialWindowMatchesFromScratch() {
+        Recording recording = new Recording(2);
+        Random targets = new Random(3);
+        for (long tick = 0; tick < TICKS; tick++) {
+            recording.tick(tick);
+            if (tick % 23 == 22) {
+                long target = tick - targets.nextInt(Math.min(WINDOW_TICKS, (int) tick));
+                assertSamePlan(recording.exportFromScratch(target), recording.export(target));
+            }
+        }
+    }
+
+    /**
+     * Block entity NBT is only compared where the scratch index can resolve it: the incremental one
+     * also keeps evicted deltas back to a keyframe.
+     */
+    private static void assertSamePlan(RewindPlan expected, RewindPlan actual) {
+        assertTrue(actual.blockTargetStates().isEmpty());
+        for (Map.Entry<RewindPlan.BlockKey, NbtCompound> e : expected.standaloneBeTargetNbts().entrySet()) {
+            assertEquals(e.getValue(), actual.standaloneBeTargetNbts().get(e.getKey()), "block entity " + e.getKey());
+        }
+        assertEquals(slotTargets(expected), slotTargets(actual));
+        assertEquals(expected.entitiesToRemove(), actual.entitiesToRemove());
+        assertEquals(expected.entitiesToRespawn(), actual.entitiesToRespawn());
+        assertEquals(expected.entityTargetStates(), actual.entityTargetStates());
+        assertEquals(dropRespawns(expected), dropRespawns(actual));
+        assertEquals(expected.dropTargetCounts(), actual.dropTargetCounts());
+    }
+
+    private static Map<RewindPlan.BlockKey, Set<RewindPlan.SlotTarget>> slotTargets(RewindPlan plan) {
+        Map<RewindPlan.BlockKey, Set<RewindPlan.SlotTarget>> targets = new HashMap<>();
+        plan.inventorySlotTargets().forEach((key, slots) -> targets.put(key, new HashSet<>(slots)));
+        return targets;
+    }
+
+    private static Set<RewindPlan.DropSpawn> dropRespawns(RewindPlan plan) {
+        Set<RewindPlan.DropSpawn> drops = new HashSet<>();
+        plan.dropsToRespawn().values().forEach(drops::addAll);
+        return drops;
+    }
+
+    /**
+     * A timeline fed with random but consistent changes: every change starts from the state the
+     * previous change of the same key ended in.
+     */
+    private static final class Recording {
+        private static final int UPDATED_ENTITIES = 16;
+        private static final int INVENTORIES = 4;
+        private static final int SLOTS = 9;
+        private static final int BLOCK_ENTITIES = 5;
+
+        final DimensionTimeline timeline = new DimensionTimeline(DIMENSION, RewindConfig.MAX_FRAMES, Long.MAX_VALUE);
+        private final Random random;
+
+        // Entity updates, in quantization steps so decoded states chain exactly
+        private final long[][] entityUnits = new long[UPDATED_ENTITIES][6];
+        private final boolean[] onGround = new boolean[UPDATED_ENTITIES];
+
+        // Entities alive before the recording (despawn only) and spawned during it
+        private final IntList aliveEntities = new IntArrayList();
+        private final IntList spawnedThisTick = new IntArrayList();
+        private int nextEntity = 3000;
+
+        // Drops: handle -> count, with a position per handle
+        private final Map<Integer, Integer> dropCounts = new HashMap<>();
+        private int nextDrop = 5000;
+
+        private final int[][] slotPrototypes = new int[INVENTORIES][SLOTS];
+        private final int[][] slotCounts = new int[INVENTORIES][SLOTS];
+
+        private final NbtCompound[] blockEntities = new NbtCompound[BLOCK_ENTITIES];
+        private final boolean[] keyframed = new boolean[BLOCK_ENTITIES];
+
+        Recording(long seed) {
+            random = new Random(seed);
+            for (int i = 0; i < 20; i++) {
+                aliveEntities.add(nextEntity++);
+                dropCounts.put(nextDrop++, 1 + random.nextInt(64));
+            }
+            for (int[] prototypes : slotPrototypes) {
+                Arrays.fill(prototypes, InventorySlotLog.EMPTY);
+            }
+            for (int i = 0; i < BLOCK_ENTITIES; i++) {
+                NbtCompound nbt = new NbtCompound();
+                nbt.putInt("Counter", 0);
+                nbt.putString("Name", "be" + i);
+                NbtCompound nested = new NbtCompound();
+                nested.putInt("a", 0);
+                nbt.put("Nested", nested);
+                blockEntities[i] = nbt;
+            }
+        }
+
+        void tick(long tick) {
+            TickFrame frame = timeline.frameForRecording(tick);
+            recordEntityUpdates(frame);
+            recordEntityLifecycles(frame, tick);
+            recordDrops(frame);
+            recordSlotChanges(frame);
+            recordBlockEntities(frame, tick);
+            timeline.endTick(tick, WINDOW_TICKS);
+        }
+
+        private void recordEntityUpdates(TickFrame frame) {
+            EntityUpdateLog log = new EntityUpdateLog();
+            for (int i = 0; i < UPDATED_ENTITIES; i++) {
+                if (random.nextInt(4) != 0) {
+                    continue;
+                }
+                EntityUpdateLog.State oldState = entityState(i);
+                for (int field = 0; field < entityUnits[i].length; field++) {
+                    entityUnits[i][field] += random.nextInt(101) - 50;
+                }
+                onGround[i] = random.nextBoolean();
+                log.add(1000 + i, oldState, entityState(i));
+            }
+            if (log.size() > 0) {
+                frame.addEntityUpdates(log);
+            }
+        }
+
+        private EntityUpdateLog.State entityState(int i) {
+            long[] units = entityUnits[i];
+            EntityUpdateLog.State state = new EntityUpdateLog.State();
+            state.x = units[0] / EntityUpdateLog.POSITION_STEPS;
+            state.y = units[1] / EntityUpdateLog.POSITION_STEPS;
+            state.z = units[2] / EntityUpdateLog.POSITION_STEPS;
+            state.yaw = (float) (units[3] / EntityUpdateLog.ROTATION_STEPS);
+            state.velX = units[4] / EntityUpdateLog.VELOCITY_STEPS;
+            state.velZ = units[5] / EntityUpdateLog.VELOCITY_STEPS;
+            state.onGround = onGround[i];
+            return state;
+        }
+
+        /**
+         * Entities spawn and despawn at most once each, so spawns and despawns of one handle are ordered.
+         */
+        private void recordEntityLifecycles(TickFrame frame, long tick) {
+            if (random.nextInt(3) == 0 && !aliveEntities.isEmpty()) {
+                int handle = aliveEntities.removeInt(random.nextInt(aliveEntities.size()));
+                NbtCompound state = new NbtCompound();
+                state.putLong("DespawnedAt", tick);
+                frame.addEntityDelta(EntityDelta.despawn(DIMENSION, handle, ENTITY_TYPE, state));
+            }
+            aliveEntities.addAll(spawnedThisTick);
+            spawnedThisTick.clear();
+            if (random.nextInt(3) == 0) {
+                int handle = nextEntity++;
+                NbtCompound state = new NbtCompound();
+                state.putLong("SpawnedAt", tick);
+                frame.addEntityDelta(EntityDelta.spawn(DIMENSION, handle, ENTITY_TYPE, state));
+                spawnedThisTick.add(handle);
+            }
+        }
+
+        private void recordDrops(TickFrame frame) {
+            List<Integer> alive = new ArrayList<>(dropCounts.keySet());
+            Collections.sort(alive);
+            for (int handle : alive) {
+                int roll = random.nextInt(12);
+                int count = dropCounts.get(handle);
+                if (roll == 0) {
+                    frame.addDropDespawn(handle, DropLog.KIND_ITEM, handle % 3, count, dropX(handle), 64, dropZ(handle));
+                    dropCounts.remove(handle);
+                } else if (roll == 1) {
+                    int newCount = 1 + random.nextInt(64);
+                    if (newCount != count) {
+                        frame.addDropCountChange(handle, DropLog.KIND_ITEM, handle % 3, count, newCount,
+                                dropX(handle), 64, dropZ(handle));
+                        dropCounts.put(handle, newCount);
+                    }
+                }
+            }
+            if (random.nextInt(2) == 0) {
+                int handle = nextDrop++;
+                int count = 1 + random.nextInt(64);
+                frame.addDropSpawn(handle, DropLog.KIND_ITEM, handle % 3, count, dropX(handle), 64, dropZ(handle));
+                dropCounts.put(handle, count);
+            }
+        }
+
+        private static double dropX(int handle) {
+            return (handle * 7 % 96) - 48.5;
+        }
+
+        private static double dropZ(int handle) {
+            return (handle * 13 % 96) - 48.5;
+        }
+
+        /**
+         * Few distinct stacks, so slots often change back to where they started within a segment.
+         */
+        private void recordSlotChanges(TickFrame frame) {
+            for (int n = random.nextInt(4); n > 0; n--) {
+                int inventory = random.nextInt(INVENTORIES);
+                int slot = random.nextInt(SLOTS);
+                int prototype = random.nextInt(3) - 1;
+                int count = prototype == InventorySlotLog.EMPTY ? 0 : 1 + random.nextInt(2);
+                if (prototype == slotPrototypes[inventory][slot] && count == slotCounts[inventory][slot]) {
+                    continue;
+                }
+                frame.addSlotChange(inventoryPos(inventory), slot, slotPrototypes[inventory][slot],
+                        slotCounts[inventory][slot], prototype, count);
+                slotPrototypes[inventory][slot] = prototype;
+                slotCounts[inventory][slot] = count;
+            }
+        }
+
+        private static long inventoryPos(int inventory) {
+            return 1000L + inventory;
+        }
+
+        /**
+         * Deltas are patches on the previous NBT; a position's first delta and a random share of the
+         * later ones are keyframes.
+         */
+        private void recordBlockEntities(TickFrame frame, long tick) {
+            for (int i = 0; i < BLOCK_ENTITIES; i++) {
+                if (random.nextInt(3) != 0) {
+                    continue;
+                }
+                NbtCompound oldNbt = blockEntities[i];
+                NbtCompound newNbt = oldNbt.copy();
+                switch (random.nextInt(3)) {
+                    case 0 -> newNbt.putInt("Counter", oldNbt.getInt("Counter").orElse(0) + 1);
+                    case 1 -> newNbt.getCompound("Nested").orElseThrow().putInt("a", random.nextInt(4));
+                    default -> {
+                        if (newNbt.contains("Extra")) {
+                            newNbt.remove("Extra");
+                        } else {
+                            newNbt.putLong("Extra", tick);
+                        }
+                    }
+                }
+                NbtPatch patch = NbtPatch.diff(oldNbt.copy(), newNbt.copy());
+                if (patch.isEmpty()) {
+                    continue;
+                }
+                boolean keyframe = !keyframed[i] || random.nextInt(8) == 0;
+                keyframed[i] = true;
+                frame.addBlockEntityDelta(new BlockEntityDelta(DIMENSION, 2000L + i, BLOCK_ENTITY_TYPE,
+                        keyframe ? NbtBlob.encode(oldNbt, NbtBlob.NEVER_DEFLATE) : null, patch));
+                blockEntities[i] = newNbt;
+            }
+        }
+
+        RewindPlan export(long targetTime) {
+            PlanBuilder plan = new PlanBuilder();
+            timeline.exportPlan(targetTime, plan);
+            return plan.build();
+        }
+
+        /**
+         * Index the frames ending after targetTime into a new index, oldest first.
+         */
+        RewindPlan exportFromScratch(long targetTime) {
+            List<TickFrame> frames = new ArrayList<>();
+            timeline.collectFramesAfter(targetTime, frames);
+            assertFalse(frames.isEmpty());
+            WindowIndex index = new WindowIndex();
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                index.addFrame(frames.get(i));
+            }
+            PlanBuilder plan = new PlanBuilder();
+            index.exportTo(DIMENSION, plan);
+            return plan.build();
+        }
+    }
+}
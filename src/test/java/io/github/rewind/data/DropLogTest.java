@@ -0,0 +1,114 @@
+package io.github.rewind.data;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DropLogTest {
+    @Test
+    void spawnThenDespawnFoldsAway() {
+        DropLog log = new DropLog();
+        log.addSpawn(1, DropLog.KIND_ITEM, 5, 16, 0.5, 64, 0.5);
+        log.addCountChange(1, DropLog.KIND_ITEM, 5, 16, 32, 0.5, 64, 0.5);
+        log.addDespawn(1, DropLog.KIND_ITEM, 5, 32, 0.5, 64, 0.5);
+        assertEquals(0, log.size());
+        log.seal();
+        assertFalse(log.cursor().next());
+    }
+
+    @Test
+    void countChangesFoldIntoSpawn() {
+        DropLog log = new DropLog();
+        log.addSpawn(1, DropLog.KIND_ORB, 3, 3, 1, 2, 3);
+        log.addCountChange(1, DropLog.KIND_ORB, 3, 3, 10, 1, 2, 3);
+        log.addCountChange(1, DropLog.KIND_ORB, 3, 10, 17, 1, 2, 3);
+        log.seal();
+
+        DropLog.Cursor cursor = log.cursor();
+        assertTrue(cursor.next());
+        assertEquals(DropLog.OP_SPAWN, cursor.op());
+        assertEquals(DropLog.KIND_ORB, cursor.kind());
+        assertEquals(17, cursor.newCount());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void countChangesKeepFirstOldAndLastNew() {
+        DropLog log = new DropLog();
+        log.addCountChange(2, DropLog.KIND_ITEM, 9, 64, 40, 0, 0, 0);
+        log.addCountChange(2, DropLog.KIND_ITEM, 9, 40, 12, 0, 0, 0);
+        log.seal();
+
+        DropLog.Cursor cursor = log.cursor();
+        assertTrue(cursor.next());
+        assertEquals(DropLog.OP_COUNT, cursor.op());
+        assertEquals(64, cursor.oldCount());
+        assertEquals(12, cursor.newCount());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void despawnOfOlderDropIsKeptWithPosition() {
+        DropLog log = new DropLog();
+        log.addCountChange(3, DropLog.KIND_ITEM, 4, 8, 6, 0, 0, 0);
+        log.addDespawn(3, DropLog.KIND_ITEM, 4, 6, -1.25, 70, 8.75);
+        log.seal();
+
+        DropLog.Cursor cursor = log.cursor();
+        assertTrue(cursor.next());
+        assertEquals(DropLog.OP_COUNT, cursor.op());
+        assertTrue(cursor.next());
+        assertEquals(DropLog.OP_DESPAWN, cursor.op());
+        assertEquals(3, cursor.handle());
+        assertEquals(4, cursor.prototype());
+        assertEquals(6, cursor.oldCount());
+        assertEquals(-1.25, cursor.x());
+        assertEquals(70, cursor.y());
+        assertEquals(8.75, cursor.z());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void addAllFoldsAcrossLogs() {
+        DropLog first = new DropLog();
+        first.addSpawn(1, DropLog.KIND_ITEM, 1, 1, 0, 0, 0);
+        first.addCountChange(2, DropLog.KIND_ITEM, 1, 5, 4, 0, 0, 0);
+        for (int handle = 10; handle < 50; handle++) {
+            first.addSpawn(handle, DropLog.KIND_ITEM, 1, 1, handle, 0, 0);
+        }
+        first.seal();
+        DropLog second = new DropLog();
+        second.addDespawn(1, DropLog.KIND_ITEM, 1, 1, 0, 0, 0);
+        second.addCountChange(2, DropLog.KIND_ITEM, 1, 4, 2, 0, 0, 0);
+        second.seal();
+
+        DropLog merged = new DropLog();
+        merged.addAll(first);
+        merged.addAll(second);
+        merged.seal();
+        assertEquals(41, merged.size());
+
+        DropLog.Cursor cursor = merged.cursor();
+        assertTrue(cursor.next());
+        assertEquals(2, cursor.handle());
+        assertEquals(5, cursor.oldCount());
+        assertEquals(2, cursor.newCount());
+        for (int handle = 10; handle < 50; handle++) {
+            assertTrue(cursor.next());
+            assertEquals(handle, cursor.handle());
+            assertEquals(handle, cursor.x());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void rejectsAddAfterSeal() {
+        DropLog log = new DropLog();
+        log.seal();
+        assertThrows(IllegalStateException.class, () -> log.addSpawn(1, DropLog.KIND_ITEM, 0, 1, 0, 0, 0));
+        assertThrows(IllegalStateException.class, () -> log.addDespawn(1, DropLog.KIND_ITEM, 0, 1, 0, 0, 0));
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.rewind.data;
+
+import net.minecraft.nbt.NbtCompound;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EntityUpdateLogTest {
+    private static EntityUpdateLog.State state(double x, double y, double z, float yaw, float pitch,
+                                               double velX, double velY, double velZ, boolean onGround) {
+        EntityUpdateLog.State state = new EntityUpdateLog.State();
+        state.x = x;
+        state.y = y;
+        state.z = z;
+        state.yaw = yaw;
+        state.pitch = pitch;
+        state.velX = velX;
+        state.velY = velY;
+        state.velZ = velZ;
+        state.onGround = onGround;
+        return state;
+    }
+
+    private static void assertQuantized(EntityUpdateLog.State expected, EntityUpdateLog.State actual) {
+        assertEquals(expected.x, actual.x, 0.5 / EntityUpdateLog.POSITION_STEPS);
+        assertEquals(expected.y, actual.y, 0.5 / EntityUpdateLog.POSITION_STEPS);
+        assertEquals(expected.z, actual.z, 0.5 / EntityUpdateLog.POSITION_STEPS);
+        assertEquals(expected.yaw, actual.yaw, 0.5 / EntityUpdateLog.ROTATION_STEPS);
+        assertEquals(expected.pitch, actual.pitch, 0.5 / EntityUpdateLog.ROTATION_STEPS);
+        assertEquals(expected.velX, actual.velX, 0.5 / EntityUpdateLog.VELOCITY_STEPS);
+        assertEquals(expected.velY, actual.velY, 0.5 / EntityUpdateLog.VELOCITY_STEPS);
+        assertEquals(expected.velZ, actual.velZ, 0.5 / EntityUpdateLog.VELOCITY_STEPS);
+        assertEquals(expected.onGround, actual.onGround);
+        assertEquals(expected.living, actual.living);
+    }
+
+    @Test
+    void roundTripsWithinQuantizationStep() {
+        EntityUpdateLog log = new EntityUpdateLog();
+        EntityUpdateLog.State oldState = state(-29999984.123, -64.5, 12.0000001, -179.9f, 89.9f, -3.9, 0.0784, 1e-5, true);
+        EntityUpdateLog.State newState = state(-29999984.2, -64.45, 12.01, 180.0f, -90.0f, 3.9, -0.0784, 0.0, false);
+        log.add(42, oldState, newState);
+        log.seal();
+
+        EntityUpdateLog.Cursor cursor = log.cursor();
+        assertTrue(cursor.next());
+        assertEquals(42, cursor.handle());
+        assertQuantized(oldState, cursor.oldState());
+        assertQuantized(newState, cursor.newState());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void quantizedStatesRoundTripExactly() {
+        EntityUpdateLog first = new EntityUpdateLog();
+        first.add(7, state(0.1, 0.2, 0.3, 10.1f, 20.2f, 0.01, 0.02, 0.03, false),
+                state(0.4, 0.5, 0.6, 30.3f, 40.4f, 0.04, 0.05, 0.06, true));
+        EntityUpdateLog.Cursor decoded = first.cursor();
+        assertTrue(decoded.next());
+
+        // Re-encoding decoded values must not drift
+        EntityUpdateLog second = new EntityUpdateLog();
+        second.addAll(first);
+        EntityUpdateLog.Cursor again = second.cursor();
+        assertTrue(again.next());
+        assertEquals(decoded.oldState().x, again.oldState().x);
+        assertEquals(decoded.oldState().yaw, again.oldState().yaw);
+        assertEquals(decoded.newState().z, again.newState().z);
+        assertEquals(decoded.newState().velY, again.newState().velY);
+        assertEquals(decoded.newState().pitch, again.newState().pitch);
+    }
+
+    @Test
+    void keepsHealthBitsAndFullDataReferences() {
+        NbtCompound fullData = new NbtCompound();
+        fullData.putString("id", "minecraft:zombie");
+
+        EntityUpdateLog log = new EntityUpdateLog();
+        EntityUpdateLog.State oldState = state(1, 2, 3, 0, 0, 0, 0, 0, true);
+        oldState.living = true;
+        oldState.health = 19.999f;
+        oldState.fullData = fullData;
+        EntityUpdateLog.State newState = state(1, 2, 3, 0, 0, 0, 0, 0, true);
+        newState.living = true;
+        newState.health = Float.MIN_VALUE;
+        log.add(1, oldState, newState);
+
+        EntityUpdateLog.State unchanged = state(5, 5, 5, 0, 0, 0, 0, 0, false);
+        unchanged.living = true;
+        unchanged.health = 4.5f;
+        unchanged.fullData = fullData;
+        log.add(2, unchanged, unchanged);
+        log.seal();
+
+        EntityUpdateLog.Cursor cursor = log.cursor();
+        assertTrue(cursor.next());
+        assertEquals(19.999f, cursor.oldState().health);
+        assertEquals(Float.MIN_VALUE, cursor.newState().health);
+        assertSame(fullData, cursor.oldState().fullData);
+        assertNull(cursor.newState().fullData);
+
+        assertTrue(cursor.next());
+        assertEquals(2, cursor.handle());
+        assertEquals(4.5f, cursor.newState().health);
+        assertSame(fullData, cursor.oldState().fullData);
+        assertSame(fullData, cursor.newState().fullData);
+        assertFalse(cursor.next());
+        assertEquals(2, log.size());
+    }
+
+    @Test
+    void nbtFormRoundTrips() {
+        EntityUpdateLog.State state = state(1.5, -2.25, 3.125, 45f, -10f, 0.1, -0.2, 0.3, true);
+        state.living = true;
+        state.health = 7.5f;
+        state.fullData = new NbtCompound();
+
+        EntityUpdateLog.State read = new EntityUpdateLog.State();
+        read.readNbt(state.toNbt());
+        assertQuantized(state, read);
+        assertEquals(7.5f, read.health);
+        assertEquals(state.fullData, read.fullData);
+
+        EntityUpdateLog.State plain = state(0, 0, 0, 0, 0, 0, 0, 0, false);
+        read.readNbt(plain.toNbt());
+        assertFalse(read.living);
+        assertNull(read.fullData);
+    }
+
+    @Test
+    void rejectsAddAfterSeal() {
+        EntityUpdateLog log = new EntityUpdateLog();
+        log.seal();
+        EntityUpdateLog.State state = new EntityUpdateLog.State();
+        assertThrows(IllegalStateException.class, () -> log.add(1, state, state));
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.rewind.data;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InventorySlotLogTest {
+    private static final long HOPPER = 0x1234_5678L;
+    private static final long CHEST = -42L;
+
+    @Test
+    void repeatedChangesKeepFirstOldAndLastNew() {
+        InventorySlotLog log = new InventorySlotLog();
+        log.addChange(HOPPER, 0, 7, 64, 7, 63);
+        log.addChange(HOPPER, 0, 7, 63, 7, 62);
+        log.addChange(HOPPER, 1, InventorySlotLog.EMPTY, 0, 7, 1);
+        log.seal();
+        assertEquals(2, log.size());
+
+        InventorySlotLog.Cursor cursor = log.cursor();
+        assertTrue(cursor.next());
+        assertEquals(HOPPER, cursor.packedPos());
+        assertEquals(0, cursor.slot());
+        assertEquals(7, cursor.oldPrototype());
+        assertEquals(64, cursor.oldCount());
+        assertEquals(62, cursor.newCount());
+        assertTrue(cursor.next());
+        assertEquals(1, cursor.slot());
+        assertEquals(InventorySlotLog.EMPTY, cursor.oldPrototype());
+        assertEquals(7, cursor.newPrototype());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void changeBackToStartFoldsAwayAndCanReturn() {
+        InventorySlotLog log = new InventorySlotLog();
+        log.addChange(CHEST, 3, 2, 10, InventorySlotLog.EMPTY, 0);
+        log.addChange(CHEST, 3, InventorySlotLog.EMPTY, 0, 2, 10);
+        assertEquals(0, log.size());
+        log.addChange(CHEST, 3, 2, 10, 2, 9);
+        assertEquals(1, log.size());
+        log.addChange(CHEST, 3, 2, 9, 2, 10);
+        log.seal();
+        assertEquals(0, log.size());
+        assertFalse(log.cursor().next());
+    }
+
+    @Test
+    void positionsAndSlotsAreKeptApart() {
+        InventorySlotLog log = new InventorySlotLog();
+        for (int slot = 0; slot < 27; slot++) {
+            log.addChange(CHEST, slot, InventorySlotLog.EMPTY, 0, slot, 1);
+            log.addChange(HOPPER, slot % 5, InventorySlotLog.EMPTY, 0, slot, 1);
+        }
+        log.seal();
+        assertEquals(27 + 5, log.size());
+
+        int chest = 0;
+        InventorySlotLog.Cursor cursor = log.cursor();
+        while (cursor.next()) {
+            if (cursor.packedPos() == CHEST) {
+                assertEquals(chest, cursor.slot());
+                assertEquals(chest, cursor.newPrototype());
+                chest++;
+            } else {
+                assertEquals(HOPPER, cursor.packedPos());
+                // The last of the slots sharing this hopper slot
+                assertEquals(cursor.slot() + (26 - cursor.slot()) / 5 * 5, cursor.newPrototype());
+            }
+        }
+        assertEquals(27, chest);
+    }
+
+    @Test
+    void addAllFoldsAcrossLogs() {
+        InventorySlotLog first = new InventorySlotLog();
+        first.addChange(HOPPER, 0, 1, 1, InventorySlotLog.EMPTY, 0);
+        first.addChange(HOPPER, 1, InventorySlotLog.EMPTY, 0, 1, 1);
+        first.seal();
+        InventorySlotLog second = new InventorySlotLog();
+        second.addChange(HOPPER, 1, 1, 1, InventorySlotLog.EMPTY, 0);
+        second.seal();
+
+        InventorySlotLog merged = new InventorySlotLog();
+        merged.addAll(first);
+        merged.addAll(second);
+        merged.seal();
+        assertEquals(1, merged.size());
+        InventorySlotLog.Cursor cursor = merged.cursor();
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.slot());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void rejectsAddAfterSeal() {
+        InventorySlotLog log = new InventorySlotLog();
+        log.seal();
+        assertThrows(IllegalStateException.class, () -> log.addChange(HOPPER, 0, 1, 1, 2, 2));
+    }
+}
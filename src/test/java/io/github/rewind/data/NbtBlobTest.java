@@ -0,0 +1,54 @@
+package io.github.rewind.data;
+
+import net.minecraft.nbt.NbtCompound;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NbtBlobTest {
+    private static NbtCompound sign(String text) {
+        NbtCompound nbt = new NbtCompound();
+        nbt.putString("id", "minecraft:sign");
+        nbt.putString("Text", text);
+        return nbt;
+    }
+
+    @Test
+    void roundTripsUndeflated() {
+        NbtCompound nbt = sign("hello");
+        NbtBlob blob = NbtBlob.encode(nbt, NbtBlob.NEVER_DEFLATE);
+        assertFalse(blob.isDeflated());
+        assertEquals(nbt, blob.decode());
+    }
+
+    @Test
+    void roundTripsDeflated() {
+        NbtCompound nbt = sign("a".repeat(4096));
+        NbtBlob blob = NbtBlob.encode(nbt, 64);
+        assertTrue(blob.isDeflated());
+        assertTrue(blob.sizeInBytes() < blob.rawLength());
+        assertEquals(nbt, blob.decode());
+    }
+
+    @Test
+    void decodeReturnsFreshCompounds() {
+        NbtBlob blob = NbtBlob.encode(sign("x"), NbtBlob.NEVER_DEFLATE);
+        NbtCompound first = blob.decode();
+        first.putString("Text", "changed");
+        assertEquals(sign("x"), blob.decode());
+        assertNotSame(blob.decode(), blob.decode());
+    }
+
+    @Test
+    void equalityIsByContent() {
+        NbtBlob.Encoder encoder = new NbtBlob.Encoder(NbtBlob.NEVER_DEFLATE);
+        NbtBlob a = encoder.encode(sign("same"));
+        NbtBlob b = encoder.encode(sign("same"));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(encoder.encode(sign("other"))));
+    }
+}
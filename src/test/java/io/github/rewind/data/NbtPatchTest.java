@@ -0,0 +1,128 @@
+package io.github.rewind.data;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NbtPatchTest {
+    private static NbtCompound item(String id, int count) {
+        NbtCompound item = new NbtCompound();
+        item.putString("id", id);
+        item.putInt("count", count);
+        return item;
+    }
+
+    private static NbtCompound furnace(short burnTime, int fuelCount, String customName) {
+        NbtCompound nbt = new NbtCompound();
+        nbt.putShort("BurnTime", burnTime);
+        NbtList items = new NbtList();
+        items.add(item("minecraft:iron_ore", 12));
+        items.add(item("minecraft:coal", fuelCount));
+        nbt.put("Items", items);
+        NbtCompound display = new NbtCompound();
+        display.putString("Name", customName);
+        nbt.put("Display", display);
+        return nbt;
+    }
+
+    /**
+     * Diff a copy pair so the inputs stay untouched for the assertions.
+     */
+    private static NbtPatch diff(NbtCompound oldNbt, NbtCompound newNbt) {
+        return NbtPatch.diff(oldNbt.copy(), newNbt.copy());
+    }
+
+    @Test
+    void equalCompoundsDiffToEmpty() {
+        NbtPatch patch = diff(furnace((short) 5, 3, "a"), furnace((short) 5, 3, "a"));
+        assertSame(NbtPatch.EMPTY, patch);
+        assertTrue(patch.isEmpty());
+    }
+
+    @Test
+    void appliesForwardAndReverse() {
+        NbtCompound oldNbt = furnace((short) 200, 8, "Smelter");
+        NbtCompound newNbt = furnace((short) 199, 7, "Smelter");
+        newNbt.putBoolean("Lit", true);
+        oldNbt.putInt("Removed", 3);
+        NbtPatch patch = diff(oldNbt, newNbt);
+        assertFalse(patch.isEmpty());
+
+        NbtCompound forward = oldNbt.copy();
+        patch.applyForward(forward);
+        assertEquals(newNbt, forward);
+
+        NbtCompound reverse = newNbt.copy();
+        patch.applyReverse(reverse);
+        assertEquals(oldNbt, reverse);
+    }
+
+    @Test
+    void replacesListsOfDifferentLength() {
+        NbtCompound oldNbt = furnace((short) 0, 1, "x");
+        NbtCompound newNbt = oldNbt.copy();
+        newNbt.getList("Items").orElseThrow().add(item("minecraft:iron_ingot", 1));
+        NbtPatch patch = diff(oldNbt, newNbt);
+
+        NbtCompound target = oldNbt.copy();
+        patch.applyForward(target);
+        assertEquals(newNbt, target);
+        patch.applyReverse(target);
+        assertEquals(oldNbt, target);
+    }
+
+    @Test
+    void composeMatchesSequentialApplication() {
+        NbtCompound a = furnace((short) 10, 4, "a");
+        NbtCompound b = furnace((short) 9, 4, "b");
+        b.putInt("Extra", 1);
+        NbtCompound c = furnace((short) 8, 3, "b");
+        NbtPatch ab = diff(a, b);
+        NbtPatch bc = diff(b, c);
+        NbtPatch composed = NbtPatch.compose(ab, bc);
+
+        NbtCompound forward = a.copy();
+        composed.applyForward(forward);
+        assertEquals(c, forward);
+
+        NbtCompound reverse = c.copy();
+        composed.applyReverse(reverse);
+        assertEquals(a, reverse);
+    }
+
+    @Test
+    void composeOfInversesIsEmpty() {
+        NbtCompound a = furnace((short) 10, 4, "a");
+        NbtCompound b = furnace((short) 11, 5, "b");
+        b.putInt("Extra", 1);
+        assertTrue(NbtPatch.compose(diff(a, b), diff(b, a)).isEmpty());
+    }
+
+    @Test
+    void composeWithEmptyIsIdentity() {
+        NbtPatch patch = diff(furnace((short) 1, 1, "a"), furnace((short) 2, 1, "a"));
+        assertSame(patch, NbtPatch.compose(NbtPatch.EMPTY, patch));
+        assertSame(patch, NbtPatch.compose(patch, NbtPatch.EMPTY));
+    }
+
+    @Test
+    void applyingCopiesValues() {
+        NbtCompound oldNbt = new NbtCompound();
+        NbtCompound newNbt = new NbtCompound();
+        newNbt.put("Display", new NbtCompound());
+        NbtPatch patch = diff(oldNbt, newNbt);
+
+        NbtCompound first = new NbtCompound();
+        patch.applyForward(first);
+        first.getCompound("Display").orElseThrow().putString("Name", "changed");
+
+        NbtCompound second = new NbtCompound();
+        patch.applyForward(second);
+        assertEquals(newNbt, second);
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.rewind.data;
+
+import net.minecraft.nbt.NbtCompound;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NbtStoreTest {
+    private static NbtCompound sign(String text) {
+        NbtCompound nbt = new NbtCompound();
+        nbt.putString("id", "minecraft:sign");
+        nbt.putString("Text", text);
+        return nbt;
+    }
+
+    @Test
+    void sharesEqualBlobsUntilLastRelease() {
+        NbtStore store = new NbtStore(NbtBlob.NEVER_DEFLATE);
+        NbtBlob first = store.encode(sign("shared"));
+        int id = store.intern(first);
+        int again = store.intern(store.encode(sign("shared")));
+        assertEquals(id, again);
+        assertSame(first, store.get(again));
+        assertEquals(1, store.size());
+        assertEquals(1, store.getInternHits());
+        long bytes = store.getMemoryBytes();
+
+        int other = store.intern(store.encode(sign("other")));
+        assertEquals(2, store.size());
+        assertTrue(store.getMemoryBytes() > bytes);
+
+        store.release(id);
+        assertSame(first, store.get(id));
+        store.release(id);
+        assertThrows(IllegalArgumentException.class, () -> store.get(id));
+        assertEquals(1, store.size());
+
+        store.retain(other);
+        store.release(other);
+        store.release(other);
+        assertEquals(0, store.size());
+        assertEquals(0, store.getMemoryBytes());
+    }
+
+    @Test
+    void reusesFreedIds() {
+        NbtStore store = new NbtStore(NbtBlob.NEVER_DEFLATE);
+        int id = store.intern(store.encode(sign("a")));
+        store.release(id);
+        assertEquals(id, store.intern(store.encode(sign("b"))));
+        assertEquals(sign("b"), store.get(id).decode());
+    }
+}